@@ -0,0 +1,53 @@
+package fr.uha.ensisa.ff.todo_auto.benchmarks;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares two JMH JSON result files (-rf json) benchmark by benchmark:
+ * java -cp benchmarks.jar fr.uha.ensisa.ff.todo_auto.benchmarks.CompareResults base.json new.json [threshold%]
+ * Exits with status 1 when a benchmark regressed by more than the threshold (default 10%).
+ */
+public class CompareResults {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: CompareResults base.json new.json [threshold%]");
+			System.exit(2);
+		}
+		double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+		Map<String, JsonNode> base = load(new File(args[0])), current = load(new File(args[1]));
+		boolean regressed = false;
+		for (Map.Entry<String, JsonNode> e : new TreeMap<>(current).entrySet()) {
+			JsonNode before = base.get(e.getKey());
+			if (before == null)
+				continue;
+			double b = before.path("primaryMetric").path("score").asDouble();
+			double c = e.getValue().path("primaryMetric").path("score").asDouble();
+			String unit = e.getValue().path("primaryMetric").path("scoreUnit").asText();
+			// Throughput: higher is better, time: lower is better
+			boolean higherIsBetter = "thrpt".equals(e.getValue().path("mode").asText());
+			double change = b == 0 ? 0 : (c - b) / b * 100;
+			boolean worse = higherIsBetter ? change < -threshold : change > threshold;
+			regressed |= worse;
+			System.out.printf("%-100s %12.3f -> %12.3f %-10s %+7.1f%%%s%n", e.getKey(), b, c, unit, change, worse ? "  REGRESSION" : "");
+		}
+		System.exit(regressed ? 1 : 0);
+	}
+
+	private static Map<String, JsonNode> load(File file) throws Exception {
+		Map<String, JsonNode> ret = new LinkedHashMap<>();
+		for (JsonNode run : new ObjectMapper().readTree(file)) {
+			StringBuilder key = new StringBuilder(run.path("benchmark").asText());
+			run.path("params").fields().forEachRemaining(p -> key.append(' ').append(p.getKey()).append('=').append(p.getValue().asText()));
+			ret.put(key.toString(), run);
+		}
+		return ret;
+	}
+
+}
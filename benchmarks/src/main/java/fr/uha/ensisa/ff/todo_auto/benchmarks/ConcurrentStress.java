@@ -0,0 +1,132 @@
+package fr.uha.ensisa.ff.todo_auto.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import fr.uha.ensisa.ff.todo_auto.dao.TaskView;
+import fr.uha.ensisa.ff.todo_auto.dao.TodoDAO;
+
+/**
+ * Hammers a DAO from many threads on a few shared users, then checks that nothing was lost or duplicated:
+ * java -cp benchmarks.jar fr.uha.ensisa.ff.todo_auto.benchmarks.ConcurrentStress memory [threads] [operations per thread]
+ * Every thread creates tasks (some of which it deletes or updates again) in the default list and a shared list,
+ * while reading both; in the end the lists must hold exactly the surviving tasks, each once, with their last state.
+ * Exits with status 1 on any inconsistency.
+ */
+public class ConcurrentStress {
+
+	private static final int USERS = 4;
+
+	private record Expected(String name, boolean done) {
+	}
+
+	public static void main(String[] args) throws Exception {
+		String kind = args.length > 0 ? args[0] : "memory";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 2 * Runtime.getRuntime().availableProcessors();
+		int operations = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+		TodoDAO dao = Daos.open(kind);
+		String[] users = new String[USERS], lists = new String[USERS];
+		for (int u = 0; u < USERS; u++) {
+			users[u] = "stress-" + u;
+			dao.registerUser(users[u], "{noop}stress");
+			lists[u] = dao.createList(users[u], "Shared");
+		}
+		// user / list ("" for default) / task id -> last state written by its (single) creating thread
+		List<ConcurrentHashMap<String, Expected>> expected = new ArrayList<>();
+		for (int i = 0; i < 2 * USERS; i++)
+			expected.add(new ConcurrentHashMap<>());
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		CountDownLatch start = new CountDownLatch(1), done = new CountDownLatch(threads);
+		long begin = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			int thread = t;
+			new Thread(() -> {
+				try {
+					start.await();
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					List<String[]> mine = new ArrayList<>();
+					for (int i = 0; i < operations; i++) {
+						int u = random.nextInt(USERS);
+						boolean inList = random.nextBoolean();
+						String list = inList ? lists[u] : null;
+						ConcurrentHashMap<String, Expected> state = expected.get(2 * u + (inList ? 1 : 0));
+						int action = random.nextInt(10);
+						if (action < 3 || mine.isEmpty()) {
+							String name = "T" + thread + "-" + i;
+							String id = inList ? dao.createListTask(users[u], list, name) : dao.createDefaultTask(users[u], name);
+							if (state.putIfAbsent(id, new Expected(name, false)) != null)
+								throw new IllegalStateException("Duplicate id " + id);
+							mine.add(new String[] { Integer.toString(u), list, id });
+						} else if (action < 5) {
+							String[] task = mine.get(random.nextInt(mine.size()));
+							int tu = Integer.parseInt(task[0]);
+							ConcurrentHashMap<String, Expected> taskState = expected.get(2 * tu + (task[1] == null ? 0 : 1));
+							if (!taskState.containsKey(task[2]))
+								continue;
+							boolean value = random.nextBoolean();
+							if (task[1] == null) dao.setDefaultTaskDone(users[tu], task[2], value);
+							else dao.setListTaskDone(users[tu], task[1], task[2], value);
+							taskState.computeIfPresent(task[2], (k, e) -> new Expected(e.name(), value));
+						} else if (action < 8) {
+							String[] task = mine.remove(random.nextInt(mine.size()));
+							int tu = Integer.parseInt(task[0]);
+							if (task[1] == null) dao.deleteDefaultTask(users[tu], task[2]);
+							else dao.deleteListTask(users[tu], task[1], task[2]);
+							expected.get(2 * tu + (task[1] == null ? 0 : 1)).remove(task[2]);
+						} else {
+							List<TaskView> read = inList ? dao.getTasksOfList(users[u], list) : dao.getDefaultTasks(users[u]);
+							Set<String> ids = new HashSet<>();
+							for (TaskView task : read)
+								if (!ids.add(task.id()))
+									throw new IllegalStateException("Task " + task.id() + " read twice");
+						}
+					}
+				} catch (Throwable x) {
+					failure.compareAndSet(null, x);
+				} finally {
+					done.countDown();
+				}
+			}, "stress-" + t).start();
+		}
+		start.countDown();
+		done.await();
+		long elapsedMs = (System.nanoTime() - begin) / 1_000_000;
+
+		int errors = 0;
+		if (failure.get() != null) {
+			failure.get().printStackTrace();
+			errors++;
+		}
+		for (int u = 0; u < USERS; u++) {
+			errors += check("default tasks of " + users[u], dao.getDefaultTasks(users[u]), expected.get(2 * u));
+			errors += check("list of " + users[u], dao.getTasksOfList(users[u], lists[u]), expected.get(2 * u + 1));
+		}
+		Daos.close(kind, dao);
+		System.out.printf("%s: %d threads x %d operations in %dms, %d inconsistencies%n", kind, threads, operations, elapsedMs, errors);
+		System.exit(errors == 0 ? 0 : 1);
+	}
+
+	private static int check(String what, List<TaskView> actual, ConcurrentHashMap<String, Expected> expected) {
+		int errors = 0;
+		Set<String> seen = new HashSet<>();
+		for (TaskView task : actual) {
+			Expected e = expected.get(task.id());
+			if (!seen.add(task.id()) || e == null || !e.name().equals(task.name()) || e.done() != task.done()) {
+				System.err.println(what + ": unexpected " + task + ", expected " + e);
+				errors++;
+			}
+		}
+		if (seen.size() != expected.size()) {
+			System.err.println(what + ": " + seen.size() + " tasks instead of " + expected.size());
+			errors++;
+		}
+		return errors;
+	}
+
+}
@@ -0,0 +1,121 @@
+package fr.uha.ensisa.ff.todo_auto.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+import fr.uha.ensisa.ff.todo_auto.dao.ListDocumentMongoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.MongoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.TodoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.dummy.DummyTodoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.memory.FsyncPolicy;
+import fr.uha.ensisa.ff.todo_auto.dao.memory.InMemoryTodoDAO;
+
+/**
+ * Creates the DAO under test from its benchmark parameter name.
+ */
+final class Daos {
+
+	static final String DATABASE = "todo_bench";
+	private static final int LOCAL_MONGOD_PORT = 27117;
+
+	private static Process mongod;
+	private static final Map<TodoDAO, Path> journalDirs = new IdentityHashMap<>();
+
+	private Daos() {
+	}
+
+	static TodoDAO open(String kind) throws Exception {
+		switch (kind) {
+		case "dummy":
+			return new DummyTodoDAO();
+		case "memory":
+			return new InMemoryTodoDAO();
+		case "memory-journal":
+			Path dir = Files.createTempDirectory("todo-bench-journal");
+			TodoDAO dao = new InMemoryTodoDAO(dir, fsync(), InMemoryTodoDAO.DEFAULT_FSYNC_INTERVAL_MS, 0);
+			journalDirs.put(dao, dir);
+			return dao;
+		case "mongo":
+			dropDatabase();
+			return new MongoDAO(mongoUri(), DATABASE);
+		case "list-document":
+			dropDatabase();
+			return new ListDocumentMongoDAO(mongoUri(), DATABASE,
+					ListDocumentMongoDAO.DEFAULT_MAX_TASKS_PER_DOCUMENT, ListDocumentMongoDAO.DEFAULT_MAX_DOCUMENT_BYTES);
+		default:
+			throw new IllegalArgumentException("Unknown DAO " + kind);
+		}
+	}
+
+	static void close(String kind, TodoDAO dao) throws Exception {
+		dao.close();
+		Path dir = journalDirs.remove(dao);
+		if (dir != null)
+			deleteDirectory(dir);
+		else if (!"dummy".equals(kind) && !"memory".equals(kind))
+			dropDatabase();
+	}
+
+	/**
+	 * @return -Dbench.fsync (never, interval or always), for the memory-journal DAO
+	 */
+	static FsyncPolicy fsync() {
+		return FsyncPolicy.valueOf(System.getProperty("bench.fsync", "interval").toUpperCase());
+	}
+
+	static void deleteDirectory(Path dir) throws IOException {
+		try (var files = Files.walk(dir)) {
+			for (Path f : files.sorted(Comparator.reverseOrder()).toList())
+				Files.delete(f);
+		}
+	}
+
+	private static void dropDatabase() throws IOException, InterruptedException {
+		try (MongoClient client = MongoClients.create(mongoUri())) {
+			client.getDatabase(DATABASE).drop();
+		}
+	}
+
+	/**
+	 * @return -Dbench.mongo.uri, or the uri of a mongod started for this JVM when -Dbench.mongod is set
+	 */
+	static synchronized String mongoUri() throws IOException, InterruptedException {
+		String binary = System.getProperty("bench.mongod");
+		if (binary == null)
+			return System.getProperty("bench.mongo.uri", "mongodb://localhost:27017/");
+		String uri = "mongodb://localhost:" + LOCAL_MONGOD_PORT + "/";
+		if (mongod == null) {
+			File dbPath = Files.createTempDirectory("todo-bench-mongod").toFile();
+			mongod = new ProcessBuilder(binary, "--port", Integer.toString(LOCAL_MONGOD_PORT), "--dbpath", dbPath.getAbsolutePath(), "--quiet")
+					.redirectErrorStream(true).redirectOutput(new File(dbPath, "mongod.log")).start();
+			Runtime.getRuntime().addShutdownHook(new Thread(mongod::destroy));
+			waitForPing(uri);
+		}
+		return uri;
+	}
+
+	private static void waitForPing(String uri) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 30_000;
+		while (true) {
+			try (MongoClient client = MongoClients.create(uri + "?serverSelectionTimeoutMS=500")) {
+				client.getDatabase("admin").runCommand(new Document("ping", 1));
+				return;
+			} catch (RuntimeException x) {
+				if (System.currentTimeMillis() > deadline || !mongod.isAlive())
+					throw new IllegalStateException("mongod didn't start", x);
+				Thread.sleep(200);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package fr.uha.ensisa.ff.todo_auto.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import fr.uha.ensisa.ff.todo_auto.dao.BatchOperation;
+import fr.uha.ensisa.ff.todo_auto.dao.BatchResult;
+import fr.uha.ensisa.ff.todo_auto.dao.TodoDAO;
+
+/**
+ * A populated DAO shared by all benchmark threads.
+ * dataset is "users x tasks per list": each user owns one list of that many tasks,
+ * plus DEFAULT_TASKS tasks in the default list.
+ */
+@State(Scope.Benchmark)
+public class DatasetState {
+
+	static final int DEFAULT_TASKS = 10;
+	private static final int LOAD_BATCH = 1000;
+
+	@Param({ "dummy", "memory", "memory-journal", "mongo", "list-document" })
+	public String dao;
+
+	@Param({ "1x10", "1x1000", "1x100000", "1000x10", "1000x1000" })
+	public String dataset;
+
+	public TodoDAO todo;
+	public String[] users;
+	public String[] lists;
+	public String[][] tasks;
+
+	@Setup(Level.Trial)
+	public void load() throws Exception {
+		String[] size = dataset.split("x");
+		int userCount = Integer.parseInt(size[0]), listSize = Integer.parseInt(size[1]);
+		todo = Daos.open(dao);
+		users = new String[userCount];
+		lists = new String[userCount];
+		tasks = new String[userCount][];
+		for (int u = 0; u < userCount; u++) {
+			users[u] = "bench-" + u;
+			todo.registerUser(users[u], "{noop}bench");
+			lists[u] = todo.createList(users[u], "List of " + users[u]);
+			tasks[u] = createTasks(users[u], lists[u], listSize);
+			createTasks(users[u], null, DEFAULT_TASKS);
+		}
+	}
+
+	private String[] createTasks(String user, String list, int count) {
+		String[] ids = new String[count];
+		List<BatchOperation> batch = new ArrayList<>(LOAD_BATCH);
+		int created = 0;
+		while (created < count) {
+			batch.clear();
+			for (int i = created; i < Math.min(count, created + LOAD_BATCH); i++)
+				batch.add(new BatchOperation(BatchOperation.Type.CREATE_TASK, list, null, "Task " + i, null));
+			for (BatchResult result : todo.applyBatch(user, batch, false)) {
+				if (!"ok".equals(result.status()))
+					throw new IllegalStateException("Cannot load dataset: " + result.error());
+				ids[created++] = result.id();
+			}
+		}
+		return ids;
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws Exception {
+		Daos.close(dao, todo);
+	}
+
+	public int randomUser() {
+		return ThreadLocalRandom.current().nextInt(users.length);
+	}
+
+	public String randomTask(int user) {
+		return tasks[user][ThreadLocalRandom.current().nextInt(tasks[user].length)];
+	}
+
+}
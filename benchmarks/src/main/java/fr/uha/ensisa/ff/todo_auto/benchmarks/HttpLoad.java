@@ -0,0 +1,148 @@
+package fr.uha.ensisa.ff.todo_auto.benchmarks;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed loop HTTP load on a running server, to compare thread models (e.g. jetty:run with and without -Pjava21):
+ * java -cp benchmarks.jar fr.uha.ensisa.ff.todo_auto.benchmarks.HttpLoad http://localhost:8080 1000 30
+ * Each of the clients sends a request as soon as its previous one completed, for the given number of seconds
+ * (after a warmup of the same length / 3). 10% of the requests mark a task done, the others read the default tasks.
+ * Clients share -Dload.sessions logged in users (default 100), so that logins don't dominate.
+ * Prints one line: clients, requests/s, p50 / p99 / max latency in ms, errors.
+ * For 10k clients, raise the open files limit of both processes (ulimit -n).
+ */
+public class HttpLoad {
+
+	/** Latencies are counted in 10µs buckets, up to 10s */
+	private static final int BUCKET_NANOS = 10_000;
+	private static final int BUCKETS = 1_000_000;
+	private static final int TASKS_PER_SESSION = 10;
+
+	private record Session(String cookie, List<String> tasks) {
+	}
+
+	private final HttpClient http = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NEVER)
+			.connectTimeout(Duration.ofSeconds(10)).build();
+	private final String base;
+	private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+	private final LongAdder errors = new LongAdder();
+	private volatile boolean recording;
+	private volatile long deadline;
+
+	HttpLoad(String base) {
+		this.base = base;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: HttpLoad baseUrl clients seconds");
+			System.exit(2);
+		}
+		HttpLoad load = new HttpLoad(args[0]);
+		int clients = Integer.parseInt(args[1]);
+		long seconds = Long.parseLong(args[2]);
+		List<Session> sessions = new ArrayList<>();
+		for (int i = 0, n = Integer.getInteger("load.sessions", 100); i < n; i++)
+			sessions.add(load.login("load-" + i));
+		load.run(sessions, clients, Math.max(1, seconds / 3), false);
+		load.run(sessions, clients, seconds, true);
+		load.report(clients, seconds);
+	}
+
+	private static String form(String... pairs) {
+		StringBuilder ret = new StringBuilder();
+		for (int i = 0; i < pairs.length; i += 2)
+			ret.append(i == 0 ? "" : "&").append(pairs[i]).append('=').append(URLEncoder.encode(pairs[i + 1], StandardCharsets.UTF_8));
+		return ret.toString();
+	}
+
+	private HttpResponse<String> post(String path, String cookie, String body) throws Exception {
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(base + path))
+				.header("Content-Type", "application/x-www-form-urlencoded")
+				.POST(HttpRequest.BodyPublishers.ofString(body));
+		if (cookie != null)
+			request.header("Cookie", cookie);
+		return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+	}
+
+	/**
+	 * Registers the user if needed, logs in and creates a few tasks to read and update.
+	 */
+	private Session login(String user) throws Exception {
+		post("/register", null, form("username", user, "password", user, "password2", user));
+		HttpResponse<String> rsp = post("/perform_login", null, form("username", user, "password", user));
+		String cookie = rsp.headers().allValues("Set-Cookie").stream()
+				.filter(c -> c.startsWith("JSESSIONID=")).map(c -> c.split(";", 2)[0]).findFirst()
+				.orElseThrow(() -> new IllegalStateException("Login of " + user + " failed: " + rsp.statusCode()));
+		List<String> tasks = new ArrayList<>();
+		for (int i = 0; i < TASKS_PER_SESSION; i++)
+			tasks.add(post("/api/tasks/new", cookie, form("name", "Task " + i)).body());
+		return new Session(cookie, tasks);
+	}
+
+	private HttpRequest next(Session session) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		String path = random.nextInt(10) == 0 ?
+				"/api/tasks/done/" + URLEncoder.encode(session.tasks().get(random.nextInt(session.tasks().size())), StandardCharsets.UTF_8)
+						+ "?done=" + random.nextBoolean() :
+				"/api/tasks";
+		return HttpRequest.newBuilder(URI.create(base + path)).header("Cookie", session.cookie()).build();
+	}
+
+	private void run(List<Session> sessions, int clients, long seconds, boolean record) throws InterruptedException {
+		this.recording = record;
+		this.deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		CountDownLatch done = new CountDownLatch(clients);
+		for (int c = 0; c < clients; c++)
+			send(sessions.get(c % sessions.size()), done);
+		done.await();
+	}
+
+	private void send(Session session, CountDownLatch done) {
+		long start = System.nanoTime();
+		if (start >= deadline) {
+			done.countDown();
+			return;
+		}
+		http.sendAsync(next(session), HttpResponse.BodyHandlers.discarding()).whenComplete((rsp, error) -> {
+			if (recording) {
+				if (error != null || rsp.statusCode() != 200)
+					errors.increment();
+				else
+					latencies.incrementAndGet((int) Math.min(BUCKETS - 1, (System.nanoTime() - start) / BUCKET_NANOS));
+			}
+			send(session, done);
+		});
+	}
+
+	private double percentile(long count, double p) {
+		long rank = (long) Math.ceil(count * p), seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += latencies.get(i);
+			if (seen >= rank)
+				return (i + 1) * BUCKET_NANOS / 1e6;
+		}
+		return Double.NaN;
+	}
+
+	private void report(int clients, long seconds) {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			count += latencies.get(i);
+		System.out.printf("clients=%d throughput=%.0f req/s p50=%.2fms p99=%.2fms max=%.2fms errors=%d%n",
+				clients, count / (double) seconds, percentile(count, 0.5), percentile(count, 0.99), percentile(count, 1), errors.sum());
+	}
+
+}
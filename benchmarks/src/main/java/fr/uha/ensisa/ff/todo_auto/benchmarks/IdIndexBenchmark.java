@@ -0,0 +1,73 @@
+package fr.uha.ensisa.ff.todo_auto.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+
+import fr.uha.ensisa.ff.todo_auto.dao.IdGenerator;
+
+/**
+ * Insert throughput and index sizes of the tasks collection for each id format:
+ * legacy (owner + '_' + Math.random(), as MongoDAO used to do) and the {@link IdGenerator}s.
+ * Tasks are inserted one by one, as by MongoDAO.createDefaultTask, round robin over users,
+ * in a collection indexed as MongoDAO does.
+ *
+ * Usage: IdIndexBenchmark [tasks (default 200000)] [users (default 100)]
+ * with -Dbench.mongo.uri or -Dbench.mongod as the other Mongo suites.
+ */
+public class IdIndexBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		int users = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		try (MongoClient client = MongoClients.create(Daos.mongoUri())) {
+			MongoDatabase database = client.getDatabase(Daos.DATABASE);
+			database.drop();
+			System.out.printf("%-10s %8s %12s %14s %14s%n", "ids", "id chars", "inserts/s", "_id index KB", "owner idx KB");
+			run(client, database, "legacy", tasks, users, u -> "bench-" + u + '_' + Math.random());
+			for (String name : new String[] { "compact", "objectid", "ulid" }) {
+				IdGenerator ids = IdGenerator.named(name);
+				run(client, database, name, tasks, users, u -> ids.nextId());
+			}
+			database.drop();
+		}
+	}
+
+	private static void run(MongoClient client, MongoDatabase database, String name, int tasks, int users, IntFunction<String> ids) {
+		MongoCollection<Document> collection = database.getCollection("tasks_" + name);
+		collection.createIndex(Indexes.ascending("owner", "listId", "_id"), new IndexOptions().name("owner_listId"));
+		long idChars = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < tasks; i++) {
+			int user = i % users;
+			String id = ids.apply(user);
+			idChars += id.length();
+			collection.insertOne(new Document("_id", id).append("owner", "bench-" + user).append("listId", "default")
+					.append("name", "Task " + i).append("done", false));
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		// Index sizes are only up to date after a checkpoint
+		client.getDatabase("admin").runCommand(new Document("fsync", 1));
+		Document sizes = indexSizes(collection);
+		System.out.printf("%-10s %8.1f %12.0f %14d %14d%n", name, (double) idChars / tasks, tasks / seconds,
+				sizes.get("_id_", Number.class).longValue() / 1024, sizes.get("owner_listId", Number.class).longValue() / 1024);
+		collection.drop();
+	}
+
+	private static Document indexSizes(MongoCollection<Document> collection) {
+		List<Document> pipeline = new ArrayList<>();
+		pipeline.add(new Document("$collStats", new Document("storageStats", new Document())));
+		Document stats = collection.aggregate(pipeline).first();
+		return stats.get("storageStats", Document.class).get("indexSizes", Document.class);
+	}
+
+}
@@ -0,0 +1,67 @@
+package fr.uha.ensisa.ff.todo_auto.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.uha.ensisa.ff.todo_auto.dao.TaskView;
+
+/**
+ * Concurrent readers and writers on the same dataset, in the proportions of the group names.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixedBenchmark {
+
+	private static List<TaskView> read(DatasetState s) throws Exception {
+		int u = s.randomUser();
+		return s.todo.getTasksOfList(s.users[u], s.lists[u]);
+	}
+
+	private static void write(DatasetState s) throws Exception {
+		int u = s.randomUser();
+		s.todo.setListTaskDone(s.users[u], s.lists[u], s.randomTask(u), ThreadLocalRandom.current().nextBoolean());
+	}
+
+	@Benchmark
+	@Group("read90write10")
+	@GroupThreads(9)
+	public List<TaskView> read90(DatasetState s) throws Exception {
+		return read(s);
+	}
+
+	@Benchmark
+	@Group("read90write10")
+	@GroupThreads(1)
+	public void write10(DatasetState s) throws Exception {
+		write(s);
+	}
+
+	@Benchmark
+	@Group("read50write50")
+	@GroupThreads(2)
+	public List<TaskView> read50(DatasetState s) throws Exception {
+		return read(s);
+	}
+
+	@Benchmark
+	@Group("read50write50")
+	@GroupThreads(2)
+	public void write50(DatasetState s) throws Exception {
+		write(s);
+	}
+
+}
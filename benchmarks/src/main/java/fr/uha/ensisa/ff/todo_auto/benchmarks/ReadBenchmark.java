@@ -0,0 +1,63 @@
+package fr.uha.ensisa.ff.todo_auto.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.uha.ensisa.ff.todo_auto.dao.ListView;
+import fr.uha.ensisa.ff.todo_auto.dao.TaskView;
+
+/**
+ * Read operations of TodoDAO, each on a random user of the dataset.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+
+	static final int PAGE_SIZE = 100;
+
+	@Benchmark
+	public String getUserPassword(DatasetState s) throws Exception {
+		return s.todo.getUserPassword(s.users[s.randomUser()]);
+	}
+
+	@Benchmark
+	public List<ListView> getLists(DatasetState s) throws Exception {
+		return s.todo.getLists(s.users[s.randomUser()]);
+	}
+
+	@Benchmark
+	public List<TaskView> getDefaultTasks(DatasetState s) throws Exception {
+		return s.todo.getDefaultTasks(s.users[s.randomUser()]);
+	}
+
+	@Benchmark
+	public List<TaskView> getTasksOfList(DatasetState s) throws Exception {
+		int u = s.randomUser();
+		return s.todo.getTasksOfList(s.users[u], s.lists[u]);
+	}
+
+	@Benchmark
+	public List<TaskView> getTasksPage(DatasetState s) throws Exception {
+		int u = s.randomUser();
+		return s.todo.getTasksPage(s.users[u], s.lists[u], null, PAGE_SIZE);
+	}
+
+	@Benchmark
+	public void streamTasks(DatasetState s, Blackhole bh) throws Exception {
+		int u = s.randomUser();
+		s.todo.streamTasks(s.users[u], s.lists[u], bh::consume);
+	}
+
+}
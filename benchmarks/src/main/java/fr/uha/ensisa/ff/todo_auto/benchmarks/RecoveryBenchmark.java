@@ -0,0 +1,108 @@
+package fr.uha.ensisa.ff.todo_auto.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.uha.ensisa.ff.todo_auto.dao.memory.FsyncPolicy;
+import fr.uha.ensisa.ff.todo_auto.dao.memory.InMemoryTodoDAO;
+
+/**
+ * Startup time of a journaled InMemoryTodoDAO holding a number of modifications,
+ * recovered either from the journal alone or from a snapshot.
+ * Journal throughput is measured by the other suites with -p dao=memory-journal (and -Dbench.fsync).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+
+	private static final int USERS = 100;
+
+	@Param({ "100000", "1000000" })
+	public int records;
+
+	@Param({ "journal", "snapshot" })
+	public String from;
+
+	private Path template;
+	private Path copy;
+	private InMemoryTodoDAO recovered;
+
+	/**
+	 * Records are task creations and updates, spread over USERS users.
+	 */
+	@Setup(Level.Trial)
+	public void write() throws Exception {
+		template = Files.createTempDirectory("todo-bench-recovery");
+		Path journal = Files.createTempDirectory("todo-bench-recovery-journal");
+		InMemoryTodoDAO dao = new InMemoryTodoDAO(journal, FsyncPolicy.NEVER, 0, 0);
+		String[][] tasks = new String[USERS][];
+		for (int u = 0; u < USERS; u++) {
+			dao.registerUser("bench-" + u, "{noop}bench");
+			tasks[u] = new String[records / USERS / 2];
+			for (int t = 0; t < tasks[u].length; t++)
+				tasks[u][t] = dao.createDefaultTask("bench-" + u, "Task " + t);
+		}
+		for (int u = 0; u < USERS; u++)
+			for (int t = 0; t < tasks[u].length; t++)
+				dao.setDefaultTaskDone("bench-" + u, tasks[u][t], true);
+		if ("journal".equals(from)) {
+			// Before close() replaces the journal with a snapshot
+			copyFiles(journal, template);
+			dao.close();
+		} else {
+			dao.close();
+			copyFiles(journal, template);
+		}
+		Daos.deleteDirectory(journal);
+	}
+
+	private static void copyFiles(Path from, Path to) throws IOException {
+		try (var files = Files.list(from)) {
+			for (Path f : files.toList())
+				Files.copy(f, to.resolve(f.getFileName()));
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void copy() throws IOException {
+		copy = Files.createTempDirectory("todo-bench-recovery-run");
+		copyFiles(template, copy);
+	}
+
+	@Benchmark
+	public InMemoryTodoDAO recover() throws IOException {
+		return recovered = new InMemoryTodoDAO(copy, FsyncPolicy.NEVER, 0, 0);
+	}
+
+	@TearDown(Level.Invocation)
+	public void closeCopy() throws Exception {
+		recovered.close();
+		Daos.deleteDirectory(copy);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteTemplate() throws IOException {
+		Daos.deleteDirectory(template);
+	}
+
+}
@@ -0,0 +1,75 @@
+package fr.uha.ensisa.ff.todo_auto.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.uha.ensisa.ff.todo_auto.dao.BatchOperation;
+import fr.uha.ensisa.ff.todo_auto.dao.BatchResult;
+
+/**
+ * Write operations of TodoDAO, each on a random user of the dataset.
+ * Creations are paired with a deletion so that the dataset keeps its size across iterations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+
+	static final int BATCH_SIZE = 100;
+
+	@Benchmark
+	public void setListTaskDone(DatasetState s) throws Exception {
+		int u = s.randomUser();
+		s.todo.setListTaskDone(s.users[u], s.lists[u], s.randomTask(u), ThreadLocalRandom.current().nextBoolean());
+	}
+
+	@Benchmark
+	public void renameListTask(DatasetState s) throws Exception {
+		int u = s.randomUser();
+		s.todo.renameListTask(s.users[u], s.lists[u], s.randomTask(u), "Renamed " + ThreadLocalRandom.current().nextInt());
+	}
+
+	@Benchmark
+	public void createThenDeleteListTask(DatasetState s) throws Exception {
+		int u = s.randomUser();
+		String id = s.todo.createListTask(s.users[u], s.lists[u], "Transient task");
+		s.todo.deleteListTask(s.users[u], s.lists[u], id);
+	}
+
+	@Benchmark
+	public void createThenDeleteDefaultTask(DatasetState s) throws Exception {
+		int u = s.randomUser();
+		String id = s.todo.createDefaultTask(s.users[u], "Transient task");
+		s.todo.deleteDefaultTask(s.users[u], id);
+	}
+
+	@Benchmark
+	public void createRenameDeleteList(DatasetState s) throws Exception {
+		int u = s.randomUser();
+		String id = s.todo.createList(s.users[u], "Transient list");
+		s.todo.renameList(s.users[u], id, "Renamed list");
+		s.todo.deleteList(s.users[u], id);
+	}
+
+	@Benchmark
+	public List<BatchResult> applyBatchOfToggles(DatasetState s) {
+		int u = s.randomUser();
+		List<BatchOperation> batch = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++)
+			batch.add(new BatchOperation(BatchOperation.Type.SET_TASK_DONE, s.lists[u], s.randomTask(u), null, ThreadLocalRandom.current().nextBoolean()));
+		return s.todo.applyBatch(s.users[u], batch, false);
+	}
+
+}
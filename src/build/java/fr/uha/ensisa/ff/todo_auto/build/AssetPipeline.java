@@ -0,0 +1,190 @@
+package fr.uha.ensisa.ff.todo_auto.build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Build step (generate-resources, see pom.xml) writing the assets of the pages under resources/assets/
+ * of a generated web application directory, overlaid on src/main/webapp by the war and jetty:run:
+ * <ul>
+ * <li>icons.css: only the Font Awesome icons the pages use, as SVG masks, instead of all.min.css and its
+ * webfonts (the icons take the text color and size, as with the font);</li>
+ * <li>the stylesheets and scripts, minified when not already, named after a hash of their content so that
+ * they can be cached forever (MvcConfiguration serves /assets/ as immutable);</li>
+ * <li>index.html and login_page.html, referencing them;</li>
+ * <li>a .gz of each, served to the browsers accepting gzip.</li>
+ * </ul>
+ * Pages edited while jetty:run is running need a new mvn generate-resources.
+ *
+ * Usage: java AssetPipeline.java webappDirectory outputDirectory
+ */
+public final class AssetPipeline {
+
+	private static final String[] PAGES = { "index.html", "login_page.html" };
+	/** Asset links of the pages, replaced by the generated assets */
+	private static final Map<String, String> ASSETS = new LinkedHashMap<>();
+	static {
+		ASSETS.put("./awsome/css/all.min.css", "icons.css");
+		ASSETS.put("./bootstrap/css/bootstrap.min.css", "bootstrap/css/bootstrap.min.css");
+		ASSETS.put("./bootstrap/js/bootstrap.min.js", "bootstrap/js/bootstrap.min.js");
+		ASSETS.put("./style.css", "style.css");
+	}
+	/** Style classes of Font Awesome 5, and the directory of their SVGs */
+	private static final Map<String, String> STYLES = Map.of("fa", "solid", "fas", "solid", "far", "regular", "fab", "brands");
+	/** Font Awesome classes that are not icons, written by {@link #icons} */
+	private static final Pattern UTILITIES = Pattern.compile("fa-(xs|sm|lg|fw|spin)");
+	private static final Pattern CLASSES = Pattern.compile("class=\"([^\"]*)\"");
+	private static final Pattern VIEW_BOX = Pattern.compile("viewBox=\"0 0 (\\d+) (\\d+)\"");
+
+	private final Path resources;
+	private final Path assets;
+
+	private AssetPipeline(Path webapp, Path output) {
+		this.resources = webapp.resolve("resources");
+		this.assets = output.resolve("resources/assets");
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2)
+			throw new IllegalArgumentException("Usage: AssetPipeline webappDirectory outputDirectory");
+		new AssetPipeline(Path.of(args[0]), Path.of(args[1])).run();
+	}
+
+	private void run() throws IOException {
+		Files.createDirectories(assets);
+		Map<String, String> pages = new LinkedHashMap<>();
+		for (String page : PAGES)
+			pages.put(page, Files.readString(resources.resolve(page)));
+
+		Map<String, String> links = new LinkedHashMap<>();
+		for (Map.Entry<String, String> asset : ASSETS.entrySet()) {
+			String name = asset.getValue();
+			String content;
+			if (name.equals("icons.css"))
+				content = icons(pages.values());
+			else if (name.endsWith(".css") && !name.endsWith(".min.css"))
+				content = minifyCss(Files.readString(resources.resolve(name)));
+			else
+				content = Files.readString(resources.resolve(name));
+			links.put(asset.getKey(), "./assets/" + write(hashed(name.substring(name.lastIndexOf('/') + 1), content), content));
+		}
+
+		for (Map.Entry<String, String> page : pages.entrySet()) {
+			String content = page.getValue();
+			for (Map.Entry<String, String> link : links.entrySet())
+				content = content.replace("\"" + link.getKey() + "\"", "\"" + link.getValue() + "\"");
+			write(page.getKey(), minifyHtml(content));
+		}
+		System.out.println("Assets written to " + assets + ": " + links.values());
+	}
+
+	/**
+	 * The icons of the pages (class="fas fa-edit"), as masks colored by the text color and sized as the
+	 * font glyphs (an em high, as wide as their view box).
+	 */
+	private String icons(Iterable<String> pages) throws IOException {
+		Map<String, String> used = new TreeMap<>();
+		for (String page : pages) {
+			Matcher classes = CLASSES.matcher(page);
+			while (classes.find()) {
+				String style = null;
+				for (String c : classes.group(1).trim().split("\\s+"))
+					if (STYLES.containsKey(c))
+						style = STYLES.get(c);
+				if (style == null)
+					continue;
+				for (String c : classes.group(1).trim().split("\\s+"))
+					if (c.startsWith("fa-") && !UTILITIES.matcher(c).matches()) {
+						String previous = used.put(c, style);
+						if (previous != null && !previous.equals(style))
+							throw new IllegalStateException(c + " is used in both the " + previous + " and " + style + " styles");
+					}
+			}
+		}
+
+		StringBuilder css = new StringBuilder();
+		css.append("/*!\n * Font Awesome Free 5.6.1 by @fontawesome - https://fontawesome.com\n"
+				+ " * License - https://fontawesome.com/license/free (Icons: CC BY 4.0, Fonts: SIL OFL 1.1, Code: MIT License)\n"
+				+ " * Subset: ").append(String.join(", ", used.keySet())).append("\n */\n");
+		css.append(".fa,.fas,.far,.fab{display:inline-block;height:1em;vertical-align:-.125em;background-color:currentColor;"
+				+ "-webkit-mask:var(--fa-icon) no-repeat center/contain;mask:var(--fa-icon) no-repeat center/contain}\n");
+		css.append(".fa-xs{font-size:.75em}.fa-sm{font-size:.875em}.fa-lg{font-size:1.33333em;vertical-align:-.2em}.fa-fw{width:1.25em!important}\n");
+		for (Map.Entry<String, String> icon : used.entrySet()) {
+			Path file = resources.resolve("awsome/svgs/" + icon.getValue() + "/" + icon.getKey().substring(3) + ".svg");
+			if (!Files.exists(file))
+				throw new IllegalStateException("Unknown icon " + icon.getKey() + " (" + file + ")");
+			String svg = Files.readString(file).trim();
+			Matcher box = VIEW_BOX.matcher(svg);
+			if (!box.find())
+				throw new IllegalStateException("No view box in " + file);
+			BigDecimal width = new BigDecimal(box.group(1)).divide(new BigDecimal(box.group(2)), 4, RoundingMode.HALF_UP);
+			css.append('.').append(icon.getKey()).append("{width:").append(width.stripTrailingZeros().toPlainString())
+					.append("em;--fa-icon:url(\"data:image/svg+xml,").append(svg.replace("\"", "'").replace("%", "%25")
+							.replace("#", "%23").replace("<", "%3C").replace(">", "%3E"))
+					.append("\")}\n");
+		}
+		return css.toString();
+	}
+
+	/**
+	 * Removes comments (but /*! license headers) and the white space that CSS ignores.
+	 */
+	static String minifyCss(String css) {
+		String ret = css.replaceAll("(?s)/\\*(?!!).*?\\*/", "")
+				.replaceAll("\\s+", " ")
+				.replaceAll(" ?([{};,>]) ?", "$1")
+				.replaceAll(": ", ":")
+				.replace(";}", "}");
+		return ret.trim() + "\n";
+	}
+
+	/**
+	 * Removes the indentation and blank lines only: inline scripts have // comments, so lines are kept.
+	 */
+	static String minifyHtml(String html) {
+		return html.replaceAll("(?m)^[ \\t]+", "").replaceAll("(?m)[ \\t]+$", "").replaceAll("\\n{2,}", "\n");
+	}
+
+	private static String hashed(String name, String content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+			int dot = name.lastIndexOf('.');
+			return name.substring(0, dot) + '.' + HexFormat.of().formatHex(digest, 0, 6) + name.substring(dot);
+		} catch (NoSuchAlgorithmException x) {
+			throw new IllegalStateException(x);
+		}
+	}
+
+	/**
+	 * Writes the file and its .gz, compressed at the best level since it is done once.
+	 * @return the name of the file
+	 */
+	private String write(String name, String content) throws IOException {
+		byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		Files.write(assets.resolve(name), bytes);
+		try (OutputStream gz = new GZIPOutputStream(Files.newOutputStream(assets.resolve(name + ".gz"))) {
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		}) {
+			gz.write(bytes);
+		}
+		return name;
+	}
+
+}
@@ -0,0 +1,137 @@
+package fr.uha.ensisa.ff.todo_auto.admission;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import fr.uha.ensisa.ff.todo_auto.dao.MongoConfig;
+import fr.uha.ensisa.ff.todo_auto.dao.MongoPoolStats;
+import fr.uha.ensisa.ff.todo_auto.metrics.MetricsRegistry;
+
+/**
+ * Admission of the API requests, answering at once rather than letting them queue for a MongoDB connection:
+ * <ul>
+ * <li>429 Too Many Requests past -Dtodo.admission.rate requests per second of a user (default 20), in bursts of at most
+ * -Dtodo.admission.burst (default 40), kept in -Dtodo.admission.buckets shared token buckets (default 16384,
+ * see {@link RateLimiter});</li>
+ * <li>503 Service Unavailable past -Dtodo.admission.maxConcurrent requests in progress (default twice the MongoDB
+ * maxPoolSize), or while -Dtodo.admission.maxPoolWaiting requests wait for a connection (default maxPoolSize).</li>
+ * </ul>
+ * Both with a Retry-After. A limit of 0 is none. Event streams (GET /api/events) are not counted as in progress: they hold no
+ * connection, and are limited by -Dtodo.events.maxConnections.
+ * Installed in web.xml on /api/*, after Spring Security for the user, through a DelegatingFilterProxy.
+ */
+@Component("admissionFilter")
+public class AdmissionFilter extends OncePerRequestFilter {
+
+	/** Route of the event streams of EventsController */
+	private static final String EVENTS_PATH = "/api/events";
+
+	private final RateLimiter rateLimiter;
+	private final int maxConcurrent;
+	private final int maxPoolWaiting;
+	private final MongoPoolStats pool;
+	private final AtomicInteger inProgress = new AtomicInteger();
+	private final LongAdder shedRate;
+	private final LongAdder shedConcurrency;
+	private final LongAdder shedPool;
+
+	@Autowired
+	public AdmissionFilter(MongoConfig mongoConfig, MongoPoolStats pool, MetricsRegistry metrics) {
+		int rate = Integer.getInteger("todo.admission.rate", 20);
+		this.rateLimiter = rate <= 0 ? null : new RateLimiter(rate, Integer.getInteger("todo.admission.burst", 2 * rate),
+				Integer.getInteger("todo.admission.buckets", 16384));
+		this.maxConcurrent = Integer.getInteger("todo.admission.maxConcurrent", 2 * mongoConfig.getMaxPoolSize());
+		this.maxPoolWaiting = Integer.getInteger("todo.admission.maxPoolWaiting", mongoConfig.getMaxPoolSize());
+		this.pool = pool;
+		String help = "API requests refused by admission control";
+		this.shedRate = metrics.counter("todo_http_shed_requests", help, "reason", "rate");
+		this.shedConcurrency = metrics.counter("todo_http_shed_requests", help, "reason", "concurrency");
+		this.shedPool = metrics.counter("todo_http_shed_requests", help, "reason", "pool");
+		metrics.register(out -> out.family("todo_http_requests_in_progress", "gauge", "API requests admitted and not completed")
+				.sample("todo_http_requests_in_progress", inProgress.get()));
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		if (rateLimiter != null) {
+			String user = request.getRemoteUser();
+			long waitMs = rateLimiter.acquire(user != null ? user : request.getRemoteAddr());
+			if (waitMs > 0) {
+				shedRate.increment();
+				reject(response, 429, "Too many requests", waitMs);
+				return;
+			}
+		}
+		if (isEventStream(request)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		if (maxPoolWaiting > 0 && pool.getWaitQueueSize() >= maxPoolWaiting) {
+			shedPool.increment();
+			reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Overloaded", 1000);
+			return;
+		}
+		if (maxConcurrent > 0 && inProgress.incrementAndGet() > maxConcurrent) {
+			inProgress.decrementAndGet();
+			shedConcurrency.increment();
+			reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Overloaded", 1000);
+			return;
+		}
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			if (maxConcurrent > 0) {
+				if (request.isAsyncStarted()) {
+					request.getAsyncContext().addListener(new AsyncListener() {
+						@Override
+						public void onComplete(AsyncEvent event) {
+							// Also after a time out or an error
+							inProgress.decrementAndGet();
+						}
+
+						@Override
+						public void onTimeout(AsyncEvent event) {
+						}
+
+						@Override
+						public void onError(AsyncEvent event) {
+						}
+
+						@Override
+						public void onStartAsync(AsyncEvent event) {
+						}
+					});
+				} else {
+					inProgress.decrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * By route rather than by Accept header, which any client could set to skip the limits.
+	 */
+	private static boolean isEventStream(HttpServletRequest request) {
+		return "GET".equals(request.getMethod()) && EVENTS_PATH.equals(UrlPathHelper.defaultInstance.getPathWithinApplication(request));
+	}
+
+	private static void reject(HttpServletResponse response, int status, String message, long retryAfterMs) throws IOException {
+		response.setHeader("Retry-After", Long.toString((retryAfterMs + 999) / 1000));
+		response.sendError(status, message);
+	}
+
+}
@@ -0,0 +1,61 @@
+package fr.uha.ensisa.ff.todo_auto.admission;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token buckets of the users, in a fixed table of longs indexed by a hash of the user: memory doesn't grow with
+ * the users, and a request takes a compare-and-set, no lock. Users sharing a slot share their bucket, so the table
+ * is to be some times larger than the users active within a refill of the bucket.
+ *
+ * A slot packs the time of its last refill (milliseconds since the limiter was made, 40 bits) and its tokens
+ * (in thousandths, 24 bits, so bursts of at most 16777 requests). An empty slot is a full bucket.
+ */
+final class RateLimiter {
+
+	private static final int TOKEN_BITS = 24;
+	private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+	private static final long ONE = 1000;
+
+	private final AtomicLongArray slots;
+	private final int mask;
+	/** Thousandths of a token per millisecond, so tokens per second */
+	private final long rate;
+	private final long capacity;
+	private final long origin = System.nanoTime();
+
+	/**
+	 * @param rate requests per second
+	 * @param burst requests allowed at once, after burst / rate seconds without any
+	 * @param slots rounded up to a power of 2
+	 */
+	RateLimiter(int rate, int burst, int slots) {
+		if (rate <= 0 || burst <= 0 || burst * ONE > TOKEN_MASK)
+			throw new IllegalArgumentException("Invalid rate limit: " + rate + "/s, bursts of " + burst);
+		int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+		this.slots = new AtomicLongArray(size);
+		this.mask = size - 1;
+		this.rate = rate;
+		this.capacity = burst * ONE;
+	}
+
+	/**
+	 * Takes a token of the bucket of the key.
+	 * @return 0 if there was one, else the milliseconds until there is one
+	 */
+	long acquire(String key) {
+		int h = key.hashCode();
+		int i = (h ^ (h >>> 16)) & mask;
+		// Starting from 1, so that an empty slot never looks like a refill at time 0
+		long now = (System.nanoTime() - origin) / 1_000_000 + 1;
+		for (;;) {
+			long state = slots.get(i);
+			long tokens = state == 0 ? capacity
+					: Math.min(capacity, (state & TOKEN_MASK) + Math.max(0, now - (state >>> TOKEN_BITS)) * rate);
+			if (tokens < ONE)
+				return (ONE - tokens + rate - 1) / rate;
+			if (slots.compareAndSet(i, state, (now << TOKEN_BITS) | (tokens - ONE)))
+				return 0;
+		}
+	}
+
+}
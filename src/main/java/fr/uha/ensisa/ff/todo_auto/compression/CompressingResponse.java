@@ -0,0 +1,454 @@
+package fr.uha.ensisa.ff.todo_auto.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response compressed if its body reaches the threshold: the first bytes are kept until then, so that
+ * a small body goes out as is (with its Content-Length), and a large one compressed from its first byte.
+ * Bodies of other types than text and JSON (event streams included) are written as is.
+ *
+ * Flushes are ignored while the body is kept, then compress what was written so far (sync flush),
+ * so that streamed responses still go out in parts. ETags are weakened: the compressed body is not the
+ * same bytes as the one the strong tag was computed for.
+ */
+class CompressingResponse extends HttpServletResponseWrapper {
+
+	enum Encoding {
+		GZIP("gzip"), DEFLATE("deflate");
+
+		final String token;
+
+		Encoding(String token) {
+			this.token = token;
+		}
+	}
+
+	private enum State {
+		/** Keeping the first bytes, up to the threshold */
+		PENDING,
+		/** Written as is */
+		IDENTITY,
+		COMPRESSING,
+		FINISHED
+	}
+
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final Encoding encoding;
+	private final DeflaterPool pool;
+	private final int threshold;
+	private final LongAdder bytesIn;
+	private final LongAdder bytesOut;
+
+	private State state = State.PENDING;
+	private byte[] pending;
+	private int pendingCount;
+	/** Content-Length set by the application, -1 if none */
+	private long declaredLength = -1;
+	private Deflater deflater;
+	private DeflaterOutputStream compressed;
+	private ServletOutputStream stream;
+	private PrintWriter writer;
+
+	CompressingResponse(HttpServletResponse response, Encoding encoding, DeflaterPool pool, int threshold,
+			LongAdder bytesIn, LongAdder bytesOut) {
+		super(response);
+		this.encoding = encoding;
+		this.pool = pool;
+		this.threshold = threshold;
+		this.bytesIn = bytesIn;
+		this.bytesOut = bytesOut;
+	}
+
+	static boolean isCompressible(String contentType) {
+		if (contentType == null)
+			return false;
+		String type = contentType.toLowerCase();
+		int params = type.indexOf(';');
+		if (params >= 0)
+			type = type.substring(0, params).trim();
+		if (type.equals("text/event-stream"))
+			return false;
+		return type.startsWith("text/") || type.equals("application/json") || type.endsWith("+json")
+				|| type.equals("application/javascript") || type.equals("application/xml") || type.endsWith("+xml");
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (writer != null)
+			throw new IllegalStateException("getWriter() has already been called");
+		if (stream == null)
+			stream = new Stream();
+		return stream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null) {
+			if (stream != null)
+				throw new IllegalStateException("getOutputStream() has already been called");
+			stream = new Stream();
+			writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+		}
+		return writer;
+	}
+
+	@Override
+	public void setContentLength(int len) {
+		setContentLengthLong(len);
+	}
+
+	@Override
+	public void setContentLengthLong(long len) {
+		if (state == State.IDENTITY)
+			super.setContentLengthLong(len);
+		else
+			declaredLength = len;
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		if (!header(name, value))
+			super.setHeader(name, weakened(name, value));
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		if (!header(name, value))
+			super.addHeader(name, weakened(name, value));
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		if (!header(name, Integer.toString(value)))
+			super.setIntHeader(name, value);
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		if (!header(name, Integer.toString(value)))
+			super.addIntHeader(name, value);
+	}
+
+	/**
+	 * @return whether the header is a Content-Length kept until the body is compressed or not
+	 */
+	private boolean header(String name, String value) {
+		if (!"Content-Length".equalsIgnoreCase(name) || state == State.IDENTITY)
+			return false;
+		declaredLength = value == null ? -1 : Long.parseLong(value.trim());
+		return true;
+	}
+
+	private static String weakened(String name, String value) {
+		return value != null && "ETag".equalsIgnoreCase(name) && value.startsWith("\"") ? "W/" + value : value;
+	}
+
+	@Override
+	public void sendError(int sc, String msg) throws IOException {
+		abandonPending();
+		super.sendError(sc, msg);
+	}
+
+	@Override
+	public void sendError(int sc) throws IOException {
+		abandonPending();
+		super.sendError(sc);
+	}
+
+	@Override
+	public void sendRedirect(String location) throws IOException {
+		abandonPending();
+		super.sendRedirect(location);
+	}
+
+	/** The container writes the body itself */
+	private void abandonPending() {
+		if (state == State.PENDING) {
+			pendingCount = 0;
+			state = State.IDENTITY;
+		}
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		dropCompressed();
+		pendingCount = 0;
+		declaredLength = -1;
+		state = State.PENDING;
+	}
+
+	@Override
+	public void resetBuffer() {
+		super.resetBuffer();
+		pendingCount = 0;
+		// Compressing again from the start, with a new gzip header
+		dropCompressed();
+	}
+
+	@Override
+	public void flushBuffer() throws IOException {
+		if (writer != null)
+			writer.flush();
+		if (state == State.PENDING)
+			decideBeforeWrite();
+		if (state == State.COMPRESSING && compressed != null)
+			compressed.flush();
+		if (state != State.PENDING)
+			super.flushBuffer();
+	}
+
+	/**
+	 * Writes what is kept, and ends the compressed body. To be called after the last dispatch of the request.
+	 */
+	synchronized void finish() throws IOException {
+		if (writer != null)
+			writer.flush();
+		switch (state) {
+		case PENDING:
+			state = State.IDENTITY;
+			if (pendingCount > 0) {
+				super.setContentLengthLong(pendingCount);
+				super.getOutputStream().write(pending, 0, pendingCount);
+			} else if (declaredLength >= 0) {
+				super.setContentLengthLong(declaredLength);
+			}
+			break;
+		case COMPRESSING:
+			compressedStream().finish();
+			dropCompressed();
+			break;
+		default:
+		}
+		state = State.FINISHED;
+	}
+
+	/**
+	 * Gives the deflater back without ending the body, when the request failed.
+	 */
+	synchronized void release() {
+		dropCompressed();
+		state = State.FINISHED;
+	}
+
+	/**
+	 * Forgets the deflater of an asynchronous response that timed out or failed without its last dispatch:
+	 * a thread may still be writing, so it is left to the garbage collector rather than pooled.
+	 */
+	synchronized void abandon() {
+		deflater = null;
+		compressed = null;
+		state = State.FINISHED;
+	}
+
+	private void dropCompressed() {
+		if (deflater != null) {
+			pool.release(deflater);
+			deflater = null;
+			compressed = null;
+		}
+	}
+
+	/**
+	 * Decides what can be told before the body: an event stream or a binary type is not compressed,
+	 * neither is a body of a known length under the threshold, while a longer one is compressed.
+	 */
+	private void decideBeforeWrite() {
+		int status = getStatus();
+		if (!isCompressible(getContentType()) || status < 200 || status == SC_NO_CONTENT || status == SC_NOT_MODIFIED
+				|| containsHeader("Content-Encoding") || (declaredLength >= 0 && declaredLength < threshold)) {
+			state = State.IDENTITY;
+			if (declaredLength >= 0)
+				super.setContentLengthLong(declaredLength);
+		} else if (declaredLength >= threshold) {
+			startCompressing();
+		}
+	}
+
+	private void startCompressing() {
+		state = State.COMPRESSING;
+		super.setHeader("Content-Encoding", encoding.token);
+		super.addHeader("Vary", "Accept-Encoding");
+	}
+
+	private DeflaterOutputStream compressedStream() throws IOException {
+		if (compressed == null) {
+			deflater = pool.acquire();
+			OutputStream out = new CountingStream(super.getOutputStream(), bytesOut);
+			compressed = encoding == Encoding.GZIP ? new GzipStream(out, deflater) : new DeflaterOutputStream(out, deflater, 8192, true);
+		}
+		return compressed;
+	}
+
+	private void write(byte[] b, int off, int len) throws IOException {
+		if (state == State.PENDING && pending == null)
+			decideBeforeWrite();
+		switch (state) {
+		case PENDING:
+			if (pendingCount + len < threshold) {
+				if (pending == null)
+					pending = new byte[threshold];
+				System.arraycopy(b, off, pending, pendingCount, len);
+				pendingCount += len;
+				return;
+			}
+			startCompressing();
+			if (pendingCount > 0) {
+				bytesIn.add(pendingCount);
+				compressedStream().write(pending, 0, pendingCount);
+				pendingCount = 0;
+			}
+			// fall through
+		case COMPRESSING:
+			bytesIn.add(len);
+			compressedStream().write(b, off, len);
+			return;
+		case IDENTITY:
+			super.getOutputStream().write(b, off, len);
+			return;
+		default:
+			throw new IOException("Response already finished");
+		}
+	}
+
+	private void flush() throws IOException {
+		switch (state) {
+		case COMPRESSING:
+			if (compressed != null)
+				compressed.flush();
+			else
+				super.getOutputStream().flush();
+			break;
+		case IDENTITY:
+			super.getOutputStream().flush();
+			break;
+		default:
+		}
+	}
+
+	private final class Stream extends ServletOutputStream {
+
+		private final byte[] one = new byte[1];
+
+		@Override
+		public void write(int b) throws IOException {
+			one[0] = (byte) b;
+			CompressingResponse.this.write(one, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			CompressingResponse.this.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (state == State.PENDING)
+				decideBeforeWrite();
+			CompressingResponse.this.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			// Ended by finish(), after the last dispatch
+			flush();
+		}
+
+		@Override
+		public boolean isReady() {
+			try {
+				return CompressingResponse.super.getOutputStream().isReady();
+			} catch (IOException x) {
+				return false;
+			}
+		}
+
+		@Override
+		public void setWriteListener(WriteListener listener) {
+			try {
+				CompressingResponse.super.getOutputStream().setWriteListener(listener);
+			} catch (IOException x) {
+				throw new IllegalStateException(x);
+			}
+		}
+	}
+
+	/**
+	 * Raw deflate between a gzip header and trailer (GZIPOutputStream can't use a given deflater).
+	 */
+	private static final class GzipStream extends DeflaterOutputStream {
+
+		private final CRC32 crc = new CRC32();
+		private boolean finished;
+
+		GzipStream(OutputStream out, Deflater deflater) throws IOException {
+			super(out, deflater, 8192, true);
+			out.write(GZIP_HEADER);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			super.write(b, off, len);
+			crc.update(b, off, len);
+		}
+
+		@Override
+		public void finish() throws IOException {
+			if (finished)
+				return;
+			finished = true;
+			super.finish();
+			writeInt((int) crc.getValue());
+			writeInt((int) def.getBytesRead());
+		}
+
+		private void writeInt(int i) throws IOException {
+			out.write(i & 0xff);
+			out.write((i >> 8) & 0xff);
+			out.write((i >> 16) & 0xff);
+			out.write((i >> 24) & 0xff);
+		}
+	}
+
+	private static final class CountingStream extends OutputStream {
+
+		private final OutputStream out;
+		private final LongAdder count;
+
+		CountingStream(OutputStream out, LongAdder count) {
+			this.out = out;
+			this.count = count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count.increment();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count.add(len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+package fr.uha.ensisa.ff.todo_auto.compression;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.WebUtils;
+
+import fr.uha.ensisa.ff.todo_auto.compression.CompressingResponse.Encoding;
+import fr.uha.ensisa.ff.todo_auto.metrics.MetricsRegistry;
+
+/**
+ * Compresses the API responses (gzip, or deflate, as the client's Accept-Encoding prefers) of
+ * -Dtodo.compression.minSize bytes (default 1024) or more, at -Dtodo.compression.level (default 6);
+ * smaller ones would hardly shrink and cost a deflater each.
+ *
+ * Deflaters come from pools of -Dtodo.compression.pool idle instances (default 2 per processor).
+ * Asynchronous responses are ended after their last dispatch: the filter runs on ASYNC dispatches too.
+ * Installed in web.xml, last before the DispatcherServlet, through a DelegatingFilterProxy.
+ */
+@Component("compressionFilter")
+public class CompressionFilter extends OncePerRequestFilter {
+
+	private final int threshold = Integer.getInteger("todo.compression.minSize", 1024);
+	private final DeflaterPool gzipPool;
+	private final DeflaterPool deflatePool;
+	private final LongAdder bytesIn;
+	private final LongAdder bytesOut;
+
+	@Autowired
+	public CompressionFilter(MetricsRegistry metrics) {
+		int level = Integer.getInteger("todo.compression.level", Deflater.DEFAULT_COMPRESSION);
+		int poolSize = Integer.getInteger("todo.compression.pool", 2 * Runtime.getRuntime().availableProcessors());
+		this.gzipPool = new DeflaterPool(level, true, poolSize);
+		this.deflatePool = new DeflaterPool(level, false, poolSize);
+		this.bytesIn = metrics.counter("todo_http_compression_bytes", "Bytes of the compressed responses, before and after compression", "stage", "uncompressed");
+		this.bytesOut = metrics.counter("todo_http_compression_bytes", "Bytes of the compressed responses, before and after compression", "stage", "compressed");
+		metrics.register(out -> out.family("todo_http_compression_idle_deflaters", "gauge", "Pooled deflaters")
+				.sample("todo_http_compression_idle_deflaters", gzipPool.getIdleCount(), "encoding", "gzip")
+				.sample("todo_http_compression_idle_deflaters", deflatePool.getIdleCount(), "encoding", "deflate"));
+	}
+
+	@Override
+	protected boolean shouldNotFilterAsyncDispatch() {
+		return false;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		CompressingResponse compressing;
+		if (isAsyncDispatch(request)) {
+			// The response given to startAsync, so the one of the first dispatch
+			compressing = WebUtils.getNativeResponse(response, CompressingResponse.class);
+		} else {
+			Encoding encoding = "HEAD".equals(request.getMethod()) ? null : negotiate(request.getHeader("Accept-Encoding"));
+			compressing = encoding == null ? null : new CompressingResponse(response, encoding,
+					encoding == Encoding.GZIP ? gzipPool : deflatePool, threshold, bytesIn, bytesOut);
+		}
+		if (compressing == null) {
+			chain.doFilter(request, response);
+			return;
+		}
+		boolean completed = false;
+		try {
+			chain.doFilter(request, isAsyncDispatch(request) ? response : compressing);
+			completed = true;
+		} finally {
+			if (request.isAsyncStarted()) {
+				if (!isAsyncDispatch(request))
+					request.getAsyncContext().addListener(new AsyncListener() {
+						@Override
+						public void onComplete(AsyncEvent event) {
+							// Ended by the last dispatch, unless it timed out or failed
+							compressing.abandon();
+						}
+
+						@Override
+						public void onTimeout(AsyncEvent event) {
+						}
+
+						@Override
+						public void onError(AsyncEvent event) {
+						}
+
+						@Override
+						public void onStartAsync(AsyncEvent event) {
+						}
+					});
+			} else if (completed) {
+				compressing.finish();
+			} else {
+				compressing.release();
+			}
+		}
+	}
+
+	/**
+	 * gzip unless deflate has a greater q value, null if neither is accepted
+	 */
+	static Encoding negotiate(String acceptEncoding) {
+		if (acceptEncoding == null)
+			return null;
+		double gzip = 0, deflate = 0, any = -1;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] params = coding.split(";");
+			double q = 1;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						q = Double.parseDouble(param.substring(2).trim());
+					} catch (NumberFormatException x) {
+						q = 0;
+					}
+				}
+			}
+			switch (params[0].trim().toLowerCase()) {
+			case "gzip":
+			case "x-gzip":
+				gzip = q;
+				break;
+			case "deflate":
+				deflate = q;
+				break;
+			case "*":
+				any = q;
+				break;
+			default:
+			}
+		}
+		if (any >= 0 && !acceptEncoding.toLowerCase().contains("gzip"))
+			gzip = any;
+		if (gzip > 0 && gzip >= deflate)
+			return Encoding.GZIP;
+		return deflate > 0 ? Encoding.DEFLATE : null;
+	}
+
+}
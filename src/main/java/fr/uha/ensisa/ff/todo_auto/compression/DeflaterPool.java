@@ -0,0 +1,43 @@
+package fr.uha.ensisa.ff.todo_auto.compression;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Idle deflaters of a level and format, so that a response doesn't allocate (and the GC later free)
+ * the some 256 kB of native zlib state a deflater holds. When the pool is empty, a new deflater is made;
+ * when it is full, the released deflater is ended.
+ */
+final class DeflaterPool {
+
+	private final int level;
+	private final boolean nowrap;
+	private final BlockingQueue<Deflater> idle;
+
+	/**
+	 * @param nowrap raw deflate (for gzip, which has its own header), rather than zlib (deflate content encoding)
+	 * @param size maximum idle deflaters
+	 */
+	DeflaterPool(int level, boolean nowrap, int size) {
+		this.level = level;
+		this.nowrap = nowrap;
+		this.idle = new ArrayBlockingQueue<>(size);
+	}
+
+	Deflater acquire() {
+		Deflater ret = idle.poll();
+		return ret != null ? ret : new Deflater(level, nowrap);
+	}
+
+	void release(Deflater deflater) {
+		deflater.reset();
+		if (!idle.offer(deflater))
+			deflater.end();
+	}
+
+	int getIdleCount() {
+		return idle.size();
+	}
+
+}
@@ -16,13 +16,18 @@ import org.springframework.stereotype.Component;
 
 import fr.uha.ensisa.ff.todo_auto.dao.TodoDAO;
 import fr.uha.ensisa.ff.todo_auto.dao.UnknownUserException;
+import fr.uha.ensisa.ff.todo_auto.log.Log;
 
 @Component
 public class AuthProvider implements AuthenticationProvider {
+
+	private static final Log log = Log.get(AuthProvider.class);
 	
 	@Autowired private TodoDAO dao;
 	
 	@Autowired private PasswordEncoder passwordEncoder;
+	
+	@Autowired private PasswordVerifier verifier;
 
 	public static GrantedAuthority USER_AUTHORITY = new SimpleGrantedAuthority("USER");
 	
@@ -38,21 +43,39 @@ public class AuthProvider implements AuthenticationProvider {
 			if (actualPassword == null) {
 				throw new InternalAuthenticationServiceException("Cannot use stored password (null)");
 			}
-			if (passwordEncoder.matches(password, actualPassword)) {
-				return new UsernamePasswordAuthenticationToken(name, passwordEncoder.encode(password), Arrays.asList(USER_AUTHORITY));
+			if (verifier.verify(() -> matchAndUpgrade(name, password, actualPassword))) {
+				// Credentials are not needed once authenticated, no point hashing the password again
+				return UsernamePasswordAuthenticationToken.authenticated(name, null, Arrays.asList(USER_AUTHORITY));
 			}
 			throw new BadCredentialsException("Bad password");
 		} catch (UnknownUserException e) {
 			throw new BadCredentialsException(e.getMessage(), e);
 		} catch (IllegalArgumentException e) {
 			throw new InternalAuthenticationServiceException("Cannot used stored password");
-		} catch (InternalAuthenticationServiceException x) {
+		} catch (AuthenticationException x) {
 			throw x;
 		} catch (Exception x) {
 			throw new InternalAuthenticationServiceException(x.getMessage(), x);
 		}
 	}
 
+	/**
+	 * Runs on the verifier pool. When the stored hash was made with a lower cost than the one
+	 * of {@link SecurityConfig#passwordEncoder()}, the password is rehashed and stored, so that a cost increase
+	 * reaches every user at their next login. Failing to store the new hash doesn't fail the login.
+	 */
+	private boolean matchAndUpgrade(String name, String password, String actualPassword) {
+		if (!passwordEncoder.matches(password, actualPassword)) return false;
+		if (passwordEncoder.upgradeEncoding(actualPassword)) {
+			try {
+				dao.updateUserPassword(name, passwordEncoder.encode(password));
+			} catch (Exception x) {
+				log.error("Cannot rehash password of {}", name, x);
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public boolean supports(Class<?> authentication) {
 		return authentication.equals(UsernamePasswordAuthenticationToken.class);
@@ -0,0 +1,242 @@
+package fr.uha.ensisa.ff.todo_auto.config;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+
+import fr.uha.ensisa.ff.todo_auto.log.Log;
+import fr.uha.ensisa.ff.todo_auto.metrics.MetricsRegistry;
+
+/**
+ * Signed tokens of the stateless authentication mode (-Dtodo.auth.mode=token), standing for a session:
+ * keyId.base64url(user).expiry.base64url(HMAC-SHA256 of what precedes), the expiry in base 36 epoch seconds.
+ * Checking one takes a MAC, so no session, DAO call nor bcrypt per request; any node knowing the key accepts it.
+ *
+ * Keys: -Dtodo.auth.keys=id1:base64Key,id2:base64Key (32 bytes or more each), the first one signing and all of them
+ * verifying. To rotate, put the new key first, then remove the old one once its last tokens expired, or at once
+ * to reject them. Without keys, a random one is made, so that tokens are only valid on this node until it restarts.
+ *
+ * Tokens live -Dtodo.auth.tokenTtlMinutes (default 30, as the sessions of web.xml), and are renewed after half of it
+ * (see {@link #shouldRenew(String)}). A token ended by a logout is kept in an in-memory deny list until its expiry,
+ * which keeps the list small; it is local to the node, as is the logout.
+ */
+@Component
+public class AuthTokens {
+
+	private static final Log log = Log.get(AuthTokens.class);
+
+	public static final String COOKIE = "todo_token";
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final int MIN_KEY_BYTES = 32;
+	/** Size of the deny list over which expired entries are dropped when a token is revoked */
+	private static final int PRUNE_THRESHOLD = 1024;
+
+	private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+	private static final Base64.Decoder B64_DECODER = Base64.getUrlDecoder();
+
+	private final boolean enabled;
+	private final long ttlSeconds;
+	private final String signingKey;
+	private final Map<String, SecretKeySpec> keys;
+	/** MACs of the revoked tokens, with their expiry */
+	private final Map<String, Long> denied = new ConcurrentHashMap<>();
+
+	private final LongAdder issued = new LongAdder();
+	private final LongAdder rejectedInvalid = new LongAdder();
+	private final LongAdder rejectedExpired = new LongAdder();
+	private final LongAdder rejectedRevoked = new LongAdder();
+
+	public AuthTokens() {
+		this("token".equalsIgnoreCase(System.getProperty("todo.auth.mode", "session")),
+				System.getProperty("todo.auth.keys"),
+				TimeUnit.MINUTES.toSeconds(Long.getLong("todo.auth.tokenTtlMinutes", 30)));
+	}
+
+	/**
+	 * @param keys id1:base64Key,id2:base64Key, null for a random key
+	 */
+	public AuthTokens(boolean enabled, String keys, long ttlSeconds) {
+		if (ttlSeconds <= 0)
+			throw new IllegalArgumentException("Token lifetime must be positive: " + ttlSeconds + "s");
+		this.enabled = enabled;
+		this.ttlSeconds = ttlSeconds;
+		this.keys = new LinkedHashMap<>();
+		if (keys == null || keys.isBlank()) {
+			byte[] key = new byte[MIN_KEY_BYTES];
+			new SecureRandom().nextBytes(key);
+			this.keys.put("local", new SecretKeySpec(key, ALGORITHM));
+			if (enabled)
+				log.warn("No -Dtodo.auth.keys, tokens are signed with a random key: only valid on this node until it restarts");
+		} else {
+			for (String entry : keys.split(",")) {
+				int colon = entry.indexOf(':');
+				String id = colon < 0 ? "" : entry.substring(0, colon).trim();
+				if (!id.matches("[A-Za-z0-9_-]+"))
+					throw new IllegalArgumentException("Keys are to be given as id:base64Key, with an alphanumeric id");
+				byte[] key;
+				try {
+					key = Base64.getDecoder().decode(entry.substring(colon + 1).trim());
+				} catch (IllegalArgumentException x) {
+					throw new IllegalArgumentException("Key " + id + " is not base64", x);
+				}
+				if (key.length < MIN_KEY_BYTES)
+					throw new IllegalArgumentException("Key " + id + " is shorter than " + MIN_KEY_BYTES + " bytes");
+				if (this.keys.put(id, new SecretKeySpec(key, ALGORITHM)) != null)
+					throw new IllegalArgumentException("Key " + id + " is given twice");
+			}
+		}
+		this.signingKey = this.keys.keySet().iterator().next();
+	}
+
+	/**
+	 * @return whether authentication is by tokens rather than by sessions
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public String issue(String user) {
+		String payload = signingKey + '.' + B64.encodeToString(user.getBytes(StandardCharsets.UTF_8)) + '.'
+				+ Long.toString(now() + ttlSeconds, 36);
+		issued.increment();
+		return payload + '.' + B64.encodeToString(mac(keys.get(signingKey), payload));
+	}
+
+	/**
+	 * @return the user of the token, null if it is malformed, not signed by a known key, expired or revoked
+	 */
+	public String verify(String token) {
+		String[] parts = token == null ? null : token.split("\\.", -1);
+		if (parts == null || parts.length != 4) {
+			rejectedInvalid.increment();
+			return null;
+		}
+		SecretKeySpec key = keys.get(parts[0]);
+		try {
+			if (key == null || !MessageDigest.isEqual(mac(key, token.substring(0, token.lastIndexOf('.'))), B64_DECODER.decode(parts[3]))) {
+				rejectedInvalid.increment();
+				return null;
+			}
+			if (Long.parseLong(parts[2], 36) <= now()) {
+				rejectedExpired.increment();
+				return null;
+			}
+			if (denied.containsKey(parts[3])) {
+				rejectedRevoked.increment();
+				return null;
+			}
+			return new String(B64_DECODER.decode(parts[1]), StandardCharsets.UTF_8);
+		} catch (IllegalArgumentException x) {
+			rejectedInvalid.increment();
+			return null;
+		}
+	}
+
+	/**
+	 * @return whether a valid token is past half of its lifetime, so that a new one is to be issued
+	 */
+	public boolean shouldRenew(String token) {
+		String[] parts = token.split("\\.");
+		try {
+			return parts.length == 4 && Long.parseLong(parts[2], 36) - now() < ttlSeconds / 2;
+		} catch (NumberFormatException x) {
+			return false;
+		}
+	}
+
+	/**
+	 * Rejects the token until it expires.
+	 */
+	public void revoke(String token) {
+		if (verify(token) == null)
+			return;
+		String[] parts = token.split("\\.");
+		long expiry = Long.parseLong(parts[2], 36);
+		if (denied.size() >= PRUNE_THRESHOLD) {
+			long now = now();
+			denied.values().removeIf(e -> e <= now);
+		}
+		denied.put(parts[3], expiry);
+	}
+
+	/**
+	 * @return the token of the request: its Authorization bearer token, or else its cookie
+	 */
+	public static String fromRequest(HttpServletRequest request) {
+		String authorization = request.getHeader("Authorization");
+		if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7))
+			return authorization.substring(7).trim();
+		Cookie[] cookies = request.getCookies();
+		if (cookies != null)
+			for (Cookie cookie : cookies)
+				if (COOKIE.equals(cookie.getName()))
+					return cookie.getValue();
+		return null;
+	}
+
+	/**
+	 * Sets the cookie of a new token of the user, out of the reach of scripts and of cross-site requests.
+	 */
+	public void setCookie(HttpServletRequest request, HttpServletResponse response, String user) {
+		addCookie(request, response, issue(user), ttlSeconds);
+	}
+
+	public void clearCookie(HttpServletRequest request, HttpServletResponse response) {
+		addCookie(request, response, "", 0);
+	}
+
+	private static void addCookie(HttpServletRequest request, HttpServletResponse response, String value, long maxAge) {
+		String path = request.getContextPath();
+		response.addHeader("Set-Cookie", ResponseCookie.from(COOKIE, value).path(path.isEmpty() ? "/" : path)
+				.maxAge(maxAge).httpOnly(true).secure(request.isSecure()).sameSite("Lax").build().toString());
+	}
+
+	private static byte[] mac(SecretKeySpec key, String payload) {
+		try {
+			// Macs are not thread safe, and cheap to make next to the MAC itself
+			Mac mac = Mac.getInstance(ALGORITHM);
+			mac.init(key);
+			return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException x) {
+			throw new IllegalStateException(x);
+		}
+	}
+
+	private static long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+
+	@Autowired(required = false)
+	public void exportTo(MetricsRegistry metrics) {
+		if (!enabled)
+			return;
+		metrics.register(out -> {
+			out.family("todo_auth_tokens_issued_total", "counter", "Authentication tokens issued, at login or renewal")
+					.sample("todo_auth_tokens_issued_total", issued.sum());
+			out.family("todo_auth_tokens_rejected_total", "counter", "Authentication tokens refused")
+					.sample("todo_auth_tokens_rejected_total", rejectedInvalid.sum(), "reason", "invalid")
+					.sample("todo_auth_tokens_rejected_total", rejectedExpired.sum(), "reason", "expired")
+					.sample("todo_auth_tokens_rejected_total", rejectedRevoked.sum(), "reason", "revoked");
+			out.family("todo_auth_tokens_denied", "gauge", "Revoked tokens in the deny list, until they expire")
+					.sample("todo_auth_tokens_denied", denied.size());
+		});
+	}
+
+}
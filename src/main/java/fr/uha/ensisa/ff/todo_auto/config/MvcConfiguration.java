@@ -1,31 +1,87 @@
 package fr.uha.ensisa.ff.todo_auto.config;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.http.CacheControl;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.multipart.MultipartResolver;
 import org.springframework.web.multipart.commons.CommonsMultipartResolver;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.PathMatchConfigurer;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.EncodedResourceResolver;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import fr.uha.ensisa.ff.todo_auto.dao.CachingTodoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.EventPublishingReactiveTodoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.EventPublishingTodoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.ForwardingTodoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.IdGenerator;
+import fr.uha.ensisa.ff.todo_auto.dao.ListDocumentMongoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.MeteredTodoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.MongoCommandStats;
+import fr.uha.ensisa.ff.todo_auto.dao.MongoConfig;
 import fr.uha.ensisa.ff.todo_auto.dao.MongoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.MongoOrphanCollector;
+import fr.uha.ensisa.ff.todo_auto.dao.MongoPoolStats;
+import fr.uha.ensisa.ff.todo_auto.dao.MongoSlowCommandLog;
+import fr.uha.ensisa.ff.todo_auto.dao.ReactiveMongoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.ReactiveTodoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.SyncReactiveTodoDAO;
 import fr.uha.ensisa.ff.todo_auto.dao.TodoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.TodoEventBus;
 import fr.uha.ensisa.ff.todo_auto.dao.dummy.DummyTodoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.memory.FsyncPolicy;
+import fr.uha.ensisa.ff.todo_auto.dao.memory.InMemoryTodoDAO;
+import fr.uha.ensisa.ff.todo_auto.log.AsyncLog;
+import fr.uha.ensisa.ff.todo_auto.log.Log;
+import fr.uha.ensisa.ff.todo_auto.metrics.MetricsRegistry;
 
 @Configuration
 @ComponentScan(basePackages="fr.uha.ensisa.ff.todo_auto")
 @EnableWebMvc
 public class MvcConfiguration implements WebMvcConfigurer {
-	
+
+	private static final Log log = Log.get(MvcConfiguration.class);
+
+	/**
+	 * Content-hashed assets never change under a name: browsers may keep them a year without revalidating.
+	 * CacheControl has no immutable directive before Spring 6.
+	 */
+	private static final CacheControl IMMUTABLE = new CacheControl() {
+		@Override
+		public String getHeaderValue() {
+			return "public, max-age=31536000, immutable";
+		}
+	};
+
+	/**
+	 * The pages and /assets/ come from the asset pipeline of the build (see AssetPipeline), .gz variants
+	 * being served to the browsers accepting gzip. The pages are revalidated at each load, so that a new
+	 * version picks the new assets. Without the pipeline output (IDE deployments), the source pages are served,
+	 * with the full Font Awesome.
+	 */
 	@Override
 	public void addResourceHandlers(ResourceHandlerRegistry registry) {
-		registry.addResourceHandler("/", "/index.html").addResourceLocations("/resources/index.html");
-		registry.addResourceHandler("/login*").addResourceLocations("/resources/login_page.html");
+		registry.addResourceHandler("/", "/index.html").addResourceLocations("/resources/assets/index.html", "/resources/index.html")
+				.setCacheControl(CacheControl.noCache()).resourceChain(true).addResolver(new EncodedResourceResolver());
+		registry.addResourceHandler("/login*").addResourceLocations("/resources/assets/login_page.html", "/resources/login_page.html")
+				.setCacheControl(CacheControl.noCache()).resourceChain(true).addResolver(new EncodedResourceResolver());
+		registry.addResourceHandler("/assets/**").addResourceLocations("/resources/assets/")
+				.setCacheControl(IMMUTABLE).resourceChain(true).addResolver(new EncodedResourceResolver());
 		registry.addResourceHandler("/*.css").addResourceLocations("/resources/");
 		registry.addResourceHandler("/bootstrap/**").addResourceLocations("/resources/bootstrap/").setCacheControl(CacheControl.maxAge(1, TimeUnit.DAYS));
 		registry.addResourceHandler("/awsome/**").addResourceLocations("/resources/awsome/").setCacheControl(CacheControl.maxAge(1, TimeUnit.DAYS));
@@ -36,14 +92,211 @@ public class MvcConfiguration implements WebMvcConfigurer {
 		configurer.setUseSuffixPatternMatch(false);
 	}
 
+	/**
+	 * Streamed responses (StreamingResponseBody) are written by at most -Dtodo.stream.threads threads (default twice
+	 * the processors), -Dtodo.stream.queue more waiting (default 100), rather than by a new thread each;
+	 * past that they are refused. Asynchronous requests time out after -Dtodo.async.timeoutMs (default 60s),
+	 * event streams having their own timeout.
+	 */
+	@Override
+	public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+		configurer.setTaskExecutor(getStreamingExecutor()).setDefaultTimeout(Long.getLong("todo.async.timeoutMs", 60_000L));
+	}
+
+	@Bean
+	public ThreadPoolTaskExecutor getStreamingExecutor() {
+		int threads = Integer.getInteger("todo.stream.threads", 2 * Runtime.getRuntime().availableProcessors());
+		ThreadPoolTaskExecutor ret = new ThreadPoolTaskExecutor();
+		ret.setCorePoolSize(threads);
+		ret.setMaxPoolSize(threads);
+		ret.setQueueCapacity(Integer.getInteger("todo.stream.queue", 100));
+		ret.setThreadNamePrefix("stream-");
+		ret.setDaemon(true);
+		return ret;
+	}
+
 	@Bean
 	public MultipartResolver multipartResolver(){
 		return new CommonsMultipartResolver();
 	}
 	
+	/**
+	 * Served at /metrics, see MetricsController.
+	 */
+	@Bean
+	public MetricsRegistry getMetricsRegistry() {
+		MetricsRegistry ret = new MetricsRegistry();
+		ret.register(out -> out.family("todo_log_dropped_total", "counter", "Log events dropped because the log buffer was full")
+				.sample("todo_log_dropped_total", AsyncLog.getDroppedCount()));
+		return ret;
+	}
+
+	/**
+	 * At most -Dtodo.events.maxConnections event streams per node,
+	 * each disconnected when it falls -Dtodo.events.queueSize events behind
+	 * or a send to it blocks for more than -Dtodo.events.sendTimeoutMs.
+	 */
+	@Bean(destroyMethod = "close")
+	public TodoEventBus getTodoEventBus(MetricsRegistry metrics) {
+		TodoEventBus ret = new TodoEventBus(
+				Integer.getInteger("todo.events.maxConnections", TodoEventBus.DEFAULT_MAX_SUBSCRIPTIONS),
+				Integer.getInteger("todo.events.queueSize", TodoEventBus.DEFAULT_QUEUE_SIZE),
+				TodoEventBus.DEFAULT_HEARTBEAT_MS,
+				Long.getLong("todo.events.sendTimeoutMs", TodoEventBus.DEFAULT_SEND_TIMEOUT_MS));
+		metrics.register(out -> out.family("todo_events_subscriptions", "gauge", "Open event streams")
+				.sample("todo_events_subscriptions", ret.getSubscriptionCount()));
+		return ret;
+	}
+
+	/**
+	 * todo.mongo.* system properties, environment variables or -Dtodo.config file, see {@link MongoConfig}.
+	 * Every blocking DAO call holds a pooled connection: maxPoolSize should follow the number of requests
+	 * served concurrently (see the java21 profile), and requests waiting longer than waitQueueTimeoutMs
+	 * for a connection fail rather than pile up. An invalid configuration fails the startup.
+	 */
+	@Bean
+	public MongoConfig getBaseMongoConfig() {
+		MongoConfig config = MongoConfig.load();
+		log.info("MongoDB configuration: {}", config);
+		return config;
+	}
+
+	/**
+	 * The configuration of the DAOs: the base one, with the listeners of the metrics and the slow command log.
+	 */
+	@Bean
+	@Primary
+	public MongoConfig getMongoConfig(@Qualifier("getBaseMongoConfig") MongoConfig base, MongoPoolStats poolStats,
+			MongoSlowCommandLog slowCommands, MetricsRegistry metrics) {
+		return base.withPoolListener(poolStats).withCommandListener(new MongoCommandStats(metrics)).withCommandListener(slowCommands);
+	}
+
+	/**
+	 * Explains go through a client of their own, on the base configuration, so they are neither logged nor metered.
+	 */
+	@Bean(destroyMethod = "close")
+	public MongoSlowCommandLog getMongoSlowCommandLog(@Qualifier("getBaseMongoConfig") MongoConfig base) {
+		return new MongoSlowCommandLog(base);
+	}
+
+	/**
+	 * Shared by the blocking and reactive clients, which have a pool each.
+	 */
+	@Bean
+	public MongoPoolStats getMongoPoolStats(MetricsRegistry metrics) {
+		MongoPoolStats ret = new MongoPoolStats();
+		metrics.register(out -> {
+			out.family("todo_mongo_pool_wait_seconds", "histogram", "Wait for a pooled MongoDB connection, failed check outs included")
+					.histogram("todo_mongo_pool_wait_seconds", ret.getWaitHistogram());
+			out.family("todo_mongo_pool_checkout_failures_total", "counter", "Check outs that gave up waiting for a connection")
+					.sample("todo_mongo_pool_checkout_failures_total", ret.getFailedCount());
+			out.family("todo_mongo_pool_waiting", "gauge", "Requests waiting for a connection")
+					.sample("todo_mongo_pool_waiting", ret.getWaitQueueSize());
+			out.family("todo_mongo_pool_in_use", "gauge", "Connections checked out")
+					.sample("todo_mongo_pool_in_use", ret.getInUseCount());
+			out.family("todo_mongo_pool_open", "gauge", "Open connections")
+					.sample("todo_mongo_pool_open", ret.getOpenCount());
+		});
+		return ret;
+	}
+
+	/**
+	 * -Dtodo.ids=compact|objectid|ulid chooses the format of new list and task ids, see {@link IdGenerator}.
+	 */
+	@Bean
+	public TodoDAO getTodoDAO(TodoEventBus events, MongoConfig mongoConfig, MetricsRegistry metrics) {
+		TodoDAO dao;
+		switch (System.getProperty("todo.storage", "mongo")) {
+		case "list-document":
+			// Each list is stored with its tasks in a single document
+			dao = newCachingTodoDAO(new ListDocumentMongoDAO(mongoConfig, ListDocumentMongoDAO.DEFAULT_MAX_TASKS_PER_DOCUMENT,
+					ListDocumentMongoDAO.DEFAULT_MAX_DOCUMENT_BYTES, IdGenerator.fromProperty()));
+			break;
+		case "memory":
+			// Embedded nodes, without MongoDB: persistent when given -Dtodo.memory.dir
+			dao = newInMemoryTodoDAO();
+			break;
+		default:
+			MongoDAO mongo = new MongoDAO(mongoConfig, IdGenerator.fromProperty());
+			// Writes of the other nodes, when MongoDB is a replica set
+			events.setFeed(mongo.watchEvents(events::publish)::isLive);
+			if (mongo.getOrphanCollector() != null)
+				exportOrphanStats(mongo.getOrphanCollector(), metrics);
+			dao = newCachingTodoDAO(mongo);
+		}
+		if (dao instanceof CachingTodoDAO)
+			exportCacheStats((CachingTodoDAO) dao, metrics);
+		return new EventPublishingTodoDAO(new MeteredTodoDAO(dao, metrics), events);
+	}
+
+	/**
+	 * Each of its caches holds at most -Dtodo.cache.maxWeight characters of ids and names,
+	 * for -Dtodo.cache.ttlMs at most.
+	 */
+	private static CachingTodoDAO newCachingTodoDAO(TodoDAO dao) {
+		return new CachingTodoDAO(dao,
+				Long.getLong("todo.cache.maxWeight", CachingTodoDAO.DEFAULT_MAXIMUM_WEIGHT),
+				Duration.ofMillis(Long.getLong("todo.cache.ttlMs", CachingTodoDAO.DEFAULT_TTL.toMillis())));
+	}
+
+	private static void exportCacheStats(CachingTodoDAO cache, MetricsRegistry metrics) {
+		metrics.register(out -> {
+			Map<String, CacheStats> stats = cache.stats();
+			out.family("todo_cache_hits_total", "counter", "Reads served by the DAO cache");
+			stats.forEach((name, s) -> out.sample("todo_cache_hits_total", s.hitCount(), "cache", name));
+			out.family("todo_cache_misses_total", "counter", "Reads that went to the database");
+			stats.forEach((name, s) -> out.sample("todo_cache_misses_total", s.missCount(), "cache", name));
+			out.family("todo_cache_evictions_total", "counter", "Entries evicted by size or age");
+			stats.forEach((name, s) -> out.sample("todo_cache_evictions_total", s.evictionCount(), "cache", name));
+		});
+	}
+
+	private static void exportOrphanStats(MongoOrphanCollector collector, MetricsRegistry metrics) {
+		metrics.register(out -> {
+			out.family("todo_mongo_orphans_scanned_total", "counter", "Tasks read by the orphan collector")
+					.sample("todo_mongo_orphans_scanned_total", collector.getScannedCount());
+			out.family("todo_mongo_orphans_deleted_total", "counter", "Tasks of deleted lists deleted by the orphan collector")
+					.sample("todo_mongo_orphans_deleted_total", collector.getDeletedCount());
+			out.family("todo_mongo_orphans_reclaimed_bytes_total", "counter", "BSON bytes of the deleted orphan tasks")
+					.sample("todo_mongo_orphans_reclaimed_bytes_total", collector.getReclaimedBytes());
+		});
+	}
+
+	/**
+	 * -Dtodo.memory.fsync=never|interval|always (default interval, every -Dtodo.memory.fsyncIntervalMs)
+	 * and -Dtodo.memory.snapshotIntervalMs tune the durability of the journal.
+	 */
+	private static TodoDAO newInMemoryTodoDAO() {
+		String dir = System.getProperty("todo.memory.dir");
+		if (dir == null)
+			return new InMemoryTodoDAO();
+		try {
+			return new InMemoryTodoDAO(Paths.get(dir),
+					FsyncPolicy.valueOf(System.getProperty("todo.memory.fsync", "interval").toUpperCase()),
+					Long.getLong("todo.memory.fsyncIntervalMs", InMemoryTodoDAO.DEFAULT_FSYNC_INTERVAL_MS),
+					Long.getLong("todo.memory.snapshotIntervalMs", InMemoryTodoDAO.DEFAULT_SNAPSHOT_INTERVAL_MS));
+		} catch (IOException x) {
+			throw new UncheckedIOException("Cannot recover " + dir, x);
+		}
+	}
+
+	/**
+	 * -Dtodo.dao=reactive serves list and task requests with the non-blocking driver,
+	 * so that they don't hold a request thread while waiting for MongoDB.
+	 * By default they go through the blocking DAO above.
+	 */
 	@Bean
-	public TodoDAO getTodoDAO() {
-		// Change to real DAO
-		return new MongoDAO("mongodb://localhost:27017/");
+	public ReactiveTodoDAO getReactiveTodoDAO(TodoDAO dao, TodoEventBus events, MongoConfig mongoConfig) {
+		if (!"reactive".equals(System.getProperty("todo.dao")))
+			return new SyncReactiveTodoDAO(dao);
+		if (!"mongo".equals(System.getProperty("todo.storage", "mongo"))) {
+			log.warn("todo.dao=reactive only supports the default storage, using the blocking DAO");
+			return new SyncReactiveTodoDAO(dao);
+		}
+		TodoDAO cached = dao;
+		while (!(cached instanceof CachingTodoDAO) && cached instanceof ForwardingTodoDAO)
+			cached = ((ForwardingTodoDAO) cached).getDelegate();
+		return new EventPublishingReactiveTodoDAO(new ReactiveMongoDAO(mongoConfig,
+				cached instanceof CachingTodoDAO ? ((CachingTodoDAO) cached)::onChange : change -> {}, IdGenerator.fromProperty()), events);
 	}
 }
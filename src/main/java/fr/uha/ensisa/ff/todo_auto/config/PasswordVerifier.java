@@ -0,0 +1,154 @@
+package fr.uha.ensisa.ff.todo_auto.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.stereotype.Component;
+
+import fr.uha.ensisa.ff.todo_auto.metrics.LatencyHistogram;
+import fr.uha.ensisa.ff.todo_auto.metrics.MetricsRegistry;
+
+/**
+ * Runs password hashing (bcrypt is deliberately CPU bound) on a dedicated, bounded pool,
+ * so that a burst of logins queues here rather than on request threads.
+ * When the queue is full, or a verification waits too long, logins fail fast with an
+ * {@link AuthenticationServiceException} instead of piling up.
+ *
+ * Sizing: -Dtodo.auth.threads (default: number of cores), -Dtodo.auth.queue (default: 64 per thread),
+ * -Dtodo.auth.timeoutMs (default: 5000).
+ */
+@Component
+public class PasswordVerifier implements DisposableBean {
+
+	private final ThreadPoolExecutor executor;
+	private final long timeoutMs;
+
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder timedOut = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	public PasswordVerifier() {
+		this(Integer.getInteger("todo.auth.threads", Runtime.getRuntime().availableProcessors()),
+				Integer.getInteger("todo.auth.queue", 64 * Runtime.getRuntime().availableProcessors()),
+				Long.getLong("todo.auth.timeoutMs", 5000));
+	}
+
+	public PasswordVerifier(int threads, int queueCapacity, long timeoutMs) {
+		this.timeoutMs = timeoutMs;
+		AtomicInteger counter = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), r -> {
+					Thread t = new Thread(r, "password-verifier-" + counter.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Runs the hashing work on the pool and waits for it.
+	 * Latency is measured from submission, so it includes the time spent queued,
+	 * and recorded whatever the outcome; completed, failed and timed out verifications are counted apart.
+	 */
+	public <T> T verify(Callable<T> work) throws Exception {
+		long start = System.nanoTime();
+		Future<T> future;
+		try {
+			future = executor.submit(work);
+		} catch (RejectedExecutionException x) {
+			rejected.increment();
+			throw new AuthenticationServiceException("Too many concurrent logins, retry later");
+		}
+		try {
+			T ret = future.get(timeoutMs, TimeUnit.MILLISECONDS);
+			completed.increment();
+			return ret;
+		} catch (TimeoutException x) {
+			future.cancel(true);
+			timedOut.increment();
+			throw new AuthenticationServiceException("Login timed out, retry later");
+		} catch (ExecutionException x) {
+			failed.increment();
+			if (x.getCause() instanceof Exception)
+				throw (Exception) x.getCause();
+			throw x;
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			totalNanos.add(elapsed);
+			maxNanos.accumulateAndGet(elapsed, Math::max);
+			latency.record(elapsed);
+		}
+	}
+
+	@Autowired(required = false)
+	public void exportTo(MetricsRegistry metrics) {
+		metrics.register(out -> {
+			out.family("todo_auth_verify_duration_seconds", "histogram", "Duration of the password verifications, queueing included")
+					.histogram("todo_auth_verify_duration_seconds", latency);
+			out.family("todo_auth_verify_rejected_total", "counter", "Password verifications refused because the queue was full")
+					.sample("todo_auth_verify_rejected_total", getRejectedCount());
+			out.family("todo_auth_verify_failures_total", "counter", "Password verifications that failed with an error")
+					.sample("todo_auth_verify_failures_total", getFailedCount());
+			out.family("todo_auth_verify_timeouts_total", "counter", "Password verifications that timed out")
+					.sample("todo_auth_verify_timeouts_total", getTimedOutCount());
+			out.family("todo_auth_verify_queue_depth", "gauge", "Password verifications waiting for a thread")
+					.sample("todo_auth_verify_queue_depth", getQueueDepth());
+			out.family("todo_auth_verify_active", "gauge", "Password verifications running")
+					.sample("todo_auth_verify_active", getActiveCount());
+		});
+	}
+
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public long getCompletedCount() {
+		return completed.sum();
+	}
+
+	public long getFailedCount() {
+		return failed.sum();
+	}
+
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	public long getTimedOutCount() {
+		return timedOut.sum();
+	}
+
+	public double getMeanLatencyMs() {
+		long n = completed.sum() + failed.sum() + timedOut.sum();
+		return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+	}
+
+	public double getMaxLatencyMs() {
+		return maxNanos.get() / 1e6;
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+
+}
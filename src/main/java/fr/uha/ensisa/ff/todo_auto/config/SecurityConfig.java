@@ -18,25 +18,35 @@ import org.springframework.security.config.annotation.authentication.builders.Au
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.authentication.AuthenticationFailureHandler;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+
+import fr.uha.ensisa.ff.todo_auto.log.Log;
 
 @Configuration
 @EnableWebSecurity
 @ComponentScan("fr.uha.ensisa.ff.todo_auto.config")
 public class SecurityConfig extends WebSecurityConfigurerAdapter {
 
+	private static final Log log = Log.get(SecurityConfig.class);
+
 	@Autowired
 	private AuthProvider authProvider;
 
+	@Autowired
+	private AuthTokens tokens;
+
     @Bean
     public PasswordEncoder passwordEncoder() {
     	String idForEncode = "bcrypt";
     	Map<String, PasswordEncoder> encoders = new TreeMap<>();
-    	encoders.put(idForEncode, new BCryptPasswordEncoder());
+    	// -Dtodo.bcrypt.cost trades login throughput for hash strength, existing hashes are upgraded on login
+    	encoders.put(idForEncode, new BCryptPasswordEncoder(Integer.getInteger("todo.bcrypt.cost", 10)));
 
     	return new DelegatingPasswordEncoder(idForEncode, encoders);
     }
@@ -68,7 +78,7 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
                 try {
                     error = URLEncoder.encode(error, "UTF-8");
                 } catch (UnsupportedEncodingException ee) {
-                    ee.printStackTrace();
+                    log.error("Cannot encode {}", error, ee);
                 }
                 response.sendRedirect("/login?error=" + error);
             }
@@ -80,5 +90,25 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
           .deleteCookies("JSESSIONID")
           ;
         http.exceptionHandling().authenticationEntryPoint(new RestAuthenticationEntryPoint());
+        if (tokens.isEnabled()) {
+            // -Dtodo.auth.mode=token: no session, the user is in a signed cookie (see AuthTokens), so any node serves any request
+            http
+              .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+              .and()
+              .addFilterBefore(new TokenAuthenticationFilter(tokens), UsernamePasswordAuthenticationFilter.class)
+              .formLogin()
+              .successHandler((request, response, authentication) -> {
+                  tokens.setCookie(request, response, authentication.getName());
+                  response.sendRedirect(request.getContextPath() + "/");
+              })
+              .and()
+              .logout()
+              .addLogoutHandler((request, response, authentication) -> {
+                  String token = AuthTokens.fromRequest(request);
+                  if (token != null)
+                      tokens.revoke(token);
+                  tokens.clearCookie(request, response);
+              });
+        }
     }
 }
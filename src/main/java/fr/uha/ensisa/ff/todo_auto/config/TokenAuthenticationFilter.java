@@ -0,0 +1,55 @@
+package fr.uha.ensisa.ff.todo_auto.config;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Authenticates the requests carrying a valid {@link AuthTokens} token, in the token mode of {@link SecurityConfig}.
+ * A cookie token past half of its lifetime is renewed, as a session would be by its use; an invalid one is cleared.
+ * Asynchronous dispatches are authenticated again, there being no session to take the user from.
+ */
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+
+	private final AuthTokens tokens;
+
+	public TokenAuthenticationFilter(AuthTokens tokens) {
+		this.tokens = tokens;
+	}
+
+	@Override
+	protected boolean shouldNotFilterAsyncDispatch() {
+		return false;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		String token = AuthTokens.fromRequest(request);
+		if (token != null) {
+			String user = tokens.verify(token);
+			boolean cookie = request.getHeader("Authorization") == null;
+			if (user == null) {
+				if (cookie && !isAsyncDispatch(request))
+					tokens.clearCookie(request, response);
+			} else {
+				SecurityContext context = SecurityContextHolder.createEmptyContext();
+				context.setAuthentication(UsernamePasswordAuthenticationToken.authenticated(user, null, Arrays.asList(AuthProvider.USER_AUTHORITY)));
+				SecurityContextHolder.setContext(context);
+				if (cookie && !isAsyncDispatch(request) && tokens.shouldRenew(token))
+					tokens.setCookie(request, response, user);
+			}
+		}
+		chain.doFilter(request, response);
+	}
+
+}
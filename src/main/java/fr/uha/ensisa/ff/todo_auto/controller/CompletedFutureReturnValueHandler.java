@@ -0,0 +1,111 @@
+package fr.uha.ensisa.ff.todo_auto.controller;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandlerComposite;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+/**
+ * Handles the futures returned already complete, as those of SyncReactiveTodoDAO (the default DAO), as if their
+ * result had been returned: Spring MVC would otherwise start an asynchronous request and dispatch it again
+ * through the filters to write a result that was there from the start. Pending futures, those of
+ * -Dtodo.dao=reactive, are left to Spring.
+ * Installed first among the handlers of the {@link RequestMappingHandlerAdapter}, which only take custom handlers
+ * after their own.
+ */
+@Component
+public class CompletedFutureReturnValueHandler implements HandlerMethodReturnValueHandler, InitializingBean {
+
+	@Autowired private RequestMappingHandlerAdapter adapter;
+
+	private final HandlerMethodReturnValueHandlerComposite handlers = new HandlerMethodReturnValueHandlerComposite();
+
+	@Override
+	public void afterPropertiesSet() {
+		List<HandlerMethodReturnValueHandler> own = adapter.getReturnValueHandlers();
+		handlers.addHandlers(own);
+		List<HandlerMethodReturnValueHandler> all = new ArrayList<>(own.size() + 1);
+		all.add(this);
+		all.addAll(own);
+		adapter.setReturnValueHandlers(all);
+	}
+
+	@Override
+	public boolean supportsReturnType(MethodParameter returnType) {
+		return CompletableFuture.class.isAssignableFrom(returnType.getParameterType());
+	}
+
+	@Override
+	public void handleReturnValue(Object returnValue, MethodParameter returnType, ModelAndViewContainer mavContainer,
+			NativeWebRequest webRequest) throws Exception {
+		CompletableFuture<?> future = (CompletableFuture<?>) returnValue;
+		if (future == null || !future.isDone()) {
+			handlers.handleReturnValue(returnValue, returnType, mavContainer, webRequest);
+			return;
+		}
+		Object result;
+		try {
+			result = future.join();
+		} catch (CompletionException x) {
+			// To the exception handlers, as the asynchronous dispatch would have
+			throw x.getCause() instanceof Exception ? (Exception) x.getCause() : x;
+		}
+		handlers.handleReturnValue(result, new ResultType(returnType), mavContainer, webRequest);
+	}
+
+	/**
+	 * The return type of the handler method, seen as the type of the result of its future.
+	 */
+	private static final class ResultType extends MethodParameter {
+
+		private final ResolvableType type;
+
+		ResultType(MethodParameter returnType) {
+			super(returnType);
+			this.type = ResolvableType.forMethodParameter(returnType).getGeneric();
+		}
+
+		private ResultType(ResultType original) {
+			super(original);
+			this.type = original.type;
+		}
+
+		@Override
+		public Class<?> getParameterType() {
+			return type.toClass();
+		}
+
+		@Override
+		public Type getGenericParameterType() {
+			return type.getType();
+		}
+
+		@Override
+		public Class<?> getNestedParameterType() {
+			return getParameterType();
+		}
+
+		@Override
+		public Type getNestedGenericParameterType() {
+			return getGenericParameterType();
+		}
+
+		@Override
+		public ResultType clone() {
+			return new ResultType(this);
+		}
+	}
+
+}
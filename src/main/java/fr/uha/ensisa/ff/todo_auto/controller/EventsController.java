@@ -0,0 +1,64 @@
+package fr.uha.ensisa.ff.todo_auto.controller;
+
+import java.io.IOException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import fr.uha.ensisa.ff.todo_auto.dao.TodoEvent;
+import fr.uha.ensisa.ff.todo_auto.dao.TodoEventBus;
+
+/**
+ * Pushes the changes of the tasks and lists of the user as Server-Sent Events,
+ * so that open pages don't have to poll. Each event is a {@link TodoEvent} in JSON.
+ *
+ * Connections are closed after -Dtodo.events.timeoutMs (EventSource then reconnects by itself),
+ * and when the client is too slow to keep up; the client should reload what it displays on reconnection.
+ */
+@RestController
+@RequestMapping("/api")
+public class EventsController {
+
+	static final long TIMEOUT_MS = Long.getLong("todo.events.timeoutMs", 30 * 60 * 1000L);
+	/** Advised to the clients refused because the node serves too many connections */
+	static final String RETRY_AFTER_SECONDS = "30";
+
+	@Autowired private TodoEventBus events;
+
+	@RequestMapping(value = "/events", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public ResponseEntity<SseEmitter> events() {
+		String user = SecurityContextHolder.getContext().getAuthentication().getName();
+		SseEmitter emitter = new SseEmitter(TIMEOUT_MS);
+		TodoEventBus.Subscription subscription = events.subscribe(user, new TodoEventBus.Sink() {
+			@Override
+			public void send(TodoEvent event) throws IOException {
+				emitter.send(SseEmitter.event().data(event, MediaType.APPLICATION_JSON));
+			}
+
+			@Override
+			public void heartbeat() throws IOException {
+				emitter.send(SseEmitter.event().comment(""));
+			}
+
+			@Override
+			public void closed(boolean overflow) {
+				emitter.complete();
+			}
+		});
+		if (subscription == null)
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS).build();
+		emitter.onCompletion(subscription::close);
+		emitter.onTimeout(subscription::close);
+		emitter.onError(x -> subscription.close());
+		return ResponseEntity.ok().header(HttpHeaders.CACHE_CONTROL, "no-store").body(emitter);
+	}
+
+}
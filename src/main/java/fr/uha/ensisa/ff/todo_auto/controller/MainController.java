@@ -4,6 +4,9 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Arrays;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -14,15 +17,21 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import fr.uha.ensisa.ff.todo_auto.config.AuthProvider;
+import fr.uha.ensisa.ff.todo_auto.config.AuthTokens;
 import fr.uha.ensisa.ff.todo_auto.dao.TodoDAO;
 import fr.uha.ensisa.ff.todo_auto.dao.UserAlreadyExistsException;
+import fr.uha.ensisa.ff.todo_auto.log.Log;
 
 @Controller
 public class MainController {
+
+	private static final Log log = Log.get(MainController.class);
 	
 	@Autowired private TodoDAO dao;
 	
 	@Autowired private PasswordEncoder passwordEncoder;
+	
+	@Autowired private AuthTokens tokens;
 
 	@RequestMapping(value = "/login")
 	public String login() {
@@ -35,7 +44,8 @@ public class MainController {
 	}
 	
 	@RequestMapping(value = "/register", method = RequestMethod.POST)
-	public String register(@RequestParam(required = true) String username, @RequestParam(required = true) String password, @RequestParam(required = true) String password2) {
+	public String register(@RequestParam(required = true) String username, @RequestParam(required = true) String password, @RequestParam(required = true) String password2,
+			HttpServletRequest request, HttpServletResponse response) {
 
 		if (password == null || password2 == null || !password.equals(password2)) {
 			return "redirect:/login?error=Passwords%20don%27t%20match";
@@ -45,21 +55,25 @@ public class MainController {
 		
 		try {
 			dao.registerUser(username, password);
-			SecurityContextHolder.getContext().setAuthentication(
-					new UsernamePasswordAuthenticationToken(username, password, Arrays.asList(AuthProvider.USER_AUTHORITY))
-				);
-			return "redirect:/";
 		} catch (UserAlreadyExistsException x) {
 			return "redirect:/login?error=User%20exists";
 		} catch (Exception x) {
-			x.printStackTrace();
+			log.error("Cannot register {}", username, x);
 			String error = x.getMessage();
 			try {
 				error = URLEncoder.encode(error, "UTF-8");
 			} catch (UnsupportedEncodingException ee) {
-				ee.printStackTrace();
+				log.error("Cannot encode {}", error, ee);
 			}
 			return "redirect:/login?error=" + error;
 		}
+
+		// Only once the user was inserted: a failed registration logs no one in
+		SecurityContextHolder.getContext().setAuthentication(
+				new UsernamePasswordAuthenticationToken(username, password, Arrays.asList(AuthProvider.USER_AUTHORITY))
+			);
+		if (tokens.isEnabled())
+			tokens.setCookie(request, response, username);
+		return "redirect:/";
 	}
 }
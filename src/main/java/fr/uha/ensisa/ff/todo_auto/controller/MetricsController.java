@@ -0,0 +1,39 @@
+package fr.uha.ensisa.ff.todo_auto.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import fr.uha.ensisa.ff.todo_auto.metrics.MetricsRegistry;
+import fr.uha.ensisa.ff.todo_auto.metrics.PrometheusWriter;
+
+/**
+ * The metrics of the node, for Prometheus to scrape. Out of /api, so not behind the login:
+ * when -Dtodo.metrics.token is set, scrapers must send it as a bearer token.
+ */
+@RestController
+public class MetricsController {
+
+	private static final String TOKEN = System.getProperty("todo.metrics.token");
+
+	@Autowired private MetricsRegistry metrics;
+
+	@RequestMapping(value = "/metrics", method = RequestMethod.GET)
+	public ResponseEntity<String> metrics(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+		if (TOKEN != null && (authorization == null || !MessageDigest.isEqual(
+				("Bearer " + TOKEN).getBytes(StandardCharsets.UTF_8), authorization.getBytes(StandardCharsets.UTF_8))))
+			return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+		return ResponseEntity.ok().contentType(MediaType.parseMediaType(PrometheusWriter.CONTENT_TYPE))
+				.header(HttpHeaders.CACHE_CONTROL, "no-store").body(metrics.scrape());
+	}
+
+}
@@ -1,37 +1,71 @@
 package fr.uha.ensisa.ff.todo_auto.controller;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.uha.ensisa.ff.todo_auto.dao.BatchOperation;
+import fr.uha.ensisa.ff.todo_auto.dao.BatchResult;
+import fr.uha.ensisa.ff.todo_auto.dao.Bootstrap;
 import fr.uha.ensisa.ff.todo_auto.dao.DisplayableException;
+import fr.uha.ensisa.ff.todo_auto.dao.ListView;
+import fr.uha.ensisa.ff.todo_auto.dao.ReactiveTodoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.TaskView;
 import fr.uha.ensisa.ff.todo_auto.dao.TodoDAO;
 import fr.uha.ensisa.ff.todo_auto.dao.UnknownListException;
 import fr.uha.ensisa.ff.todo_auto.dao.UnknownUserException;
+import fr.uha.ensisa.ff.todo_auto.log.Log;
 
 @RestController
 @RequestMapping("/api")
 public class TasksController {
+
+	private static final Log log = Log.get(TasksController.class);
+	
+	static final int MAX_BATCH_SIZE = 1000;
+	static final int MAX_PAGE_SIZE = 1000;
+	
+	private static final ObjectMapper JSON = new ObjectMapper();
+	/** Versioned responses may be stored, but are to be revalidated with their ETag before each use */
+	private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
 	
 	@Autowired private TodoDAO dao;
+	/** Serves the single list / task requests, which complete asynchronously unless the future is already done */
+	@Autowired private ReactiveTodoDAO asyncDao;
 	
 	private String getUser() {
 		return SecurityContextHolder.getContext().getAuthentication().getName();
@@ -65,80 +99,204 @@ public class TasksController {
 		try {
 			ret.put("lists", dao.getLists(user));
 		} catch (Exception x) {
-			x.printStackTrace();
+			log.error("Cannot get the lists of {}", user, x);
 			ret.put("error", x.getMessage());
 		}
 		
 		return ret;
 	}
 
+	/**
+	 * What the page loads first, in a single request (and DAO call): {@link #mainInfo(String)}, the tasks of the list
+	 * and their versions. The list is null if it is the default one, or unknown, which then gives the default tasks.
+	 * The ETag covers both versions, read before the content: a 304 saves the transfer, not the read.
+	 */
+	@RequestMapping(value = "/bootstrap", method = RequestMethod.GET)
+	public ResponseEntity<Bootstrap> bootstrap(@RequestParam(required = false, defaultValue = "") String list,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws UnknownUserException, UnknownListException {
+		String user = getUser();
+		Bootstrap ret = dao.getBootstrap(user, listOrNull(list));
+		if (ret.listsVersion() == TodoDAO.UNVERSIONED || ret.tasksVersion() == TodoDAO.UNVERSIONED)
+			return ResponseEntity.ok(ret);
+		String etag = etag(user, "bootstrap:" + (ret.list() == null ? "" : ret.list()) + ':' + ret.listsVersion(), ret.tasksVersion());
+		if (matches(ifNoneMatch, etag))
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(REVALIDATE).build();
+		return ResponseEntity.ok().eTag(etag).cacheControl(REVALIDATE).body(ret);
+	}
+
+	/**
+	 * Answers with the version of the requested content as ETag, or with 304 Not Modified
+	 * if it is the one given in If-None-Match (without reading the content).
+	 * The version is read before the content, so that the content is never older than its tag.
+	 */
+	private <T> CompletableFuture<ResponseEntity<T>> versioned(String user, String scope, String ifNoneMatch,
+			CompletableFuture<Long> version, Supplier<CompletableFuture<T>> content) {
+		return version.thenCompose(v -> {
+			if (v == TodoDAO.UNVERSIONED)
+				return content.get().thenApply(body -> ResponseEntity.ok().body(body));
+			String etag = etag(user, scope, v);
+			if (matches(ifNoneMatch, etag))
+				return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(REVALIDATE).<T>build());
+			return content.get().thenApply(body -> ResponseEntity.ok().eTag(etag).cacheControl(REVALIDATE).body(body));
+		});
+	}
+
+	/**
+	 * Versions are only unique per user and list, and browsers keep a cache across logins: the tag covers both.
+	 */
+	static String etag(String user, String scope, long version) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(user.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(scope.getBytes(StandardCharsets.UTF_8));
+			String owner = Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest.digest(), 9));
+			return '"' + Long.toString(version, 36) + '-' + owner + '"';
+		} catch (NoSuchAlgorithmException x) {
+			throw new IllegalStateException(x);
+		}
+	}
+
+	/**
+	 * Weak comparison, as If-None-Match requires: a compressing proxy may have weakened the tag.
+	 */
+	static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null)
+			return false;
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if (tag.equals(etag) || tag.equals("*"))
+				return true;
+		}
+		return false;
+	}
+
 	@RequestMapping(value = "/lists")
-	public List<Map<String, ?>> lists() throws UnknownUserException {
-		return dao.getLists(getUser());
+	public CompletableFuture<ResponseEntity<List<ListView>>> lists(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		String user = getUser();
+		return versioned(user, "lists", ifNoneMatch, asyncDao.getListsVersion(user), () -> asyncDao.getLists(user));
 	}
 
 	@RequestMapping(value = "/lists/new", method = RequestMethod.POST)
-	public String newList(@RequestParam(required = true) String name) throws UnknownUserException {
-		return dao.createList(getUser(), name);
+	public CompletableFuture<String> newList(@RequestParam(required = true) String name) {
+		return asyncDao.createList(getUser(), name);
 	}
 
 	@RequestMapping(value = "/lists/{id:.*}", method = RequestMethod.DELETE)
-	public void deleteList(@PathVariable String id) throws UnknownUserException, UnknownListException {
-		dao.deleteList(getUser(), id);
+	public CompletableFuture<Void> deleteList(@PathVariable String id) {
+		return asyncDao.deleteList(getUser(), id);
 	}
 
 	@RequestMapping(value = "/lists/{id:.*}", method = RequestMethod.PUT)
-	public void updateList(@PathVariable String id, @RequestBody Map<String, String> data) throws UnknownUserException, UnknownListException {
+	public CompletableFuture<Void> updateList(@PathVariable String id, @RequestBody Map<String, String> data) {
 		if (!data.containsKey("name")) throw new IllegalArgumentException("Missing new name");
-		dao.renameList(getUser(), id, data.get("name"));
+		return asyncDao.renameList(getUser(), id, data.get("name"));
 	}
 
 	@RequestMapping(value = "/tasks", method = RequestMethod.GET)
-	public List<Map<String, Object>> tasks(@RequestParam(required = false, defaultValue = "") String list) throws UnknownUserException, UnknownListException {
-		return list == null || (list = list.trim()).length() == 0 ?
-				dao.getDefaultTasks(getUser()) :
-				dao.getTasksOfList(getUser(), list);
+	public CompletableFuture<ResponseEntity<List<TaskView>>> tasks(@RequestParam(required = false, defaultValue = "") String list,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		String user = getUser();
+		String listId = listOrNull(list);
+		return versioned(user, listId == null ? "" : "list:" + listId, ifNoneMatch, asyncDao.getTasksVersion(user, listId),
+				() -> listId == null ? asyncDao.getDefaultTasks(user) : asyncDao.getTasksOfList(user, listId));
+	}
+
+	/**
+	 * Paginated variant of {@link #tasks(String, String)}: {tasks: [...], next: "lastId"},
+	 * next being null on the last page and to be passed as after to get the following page.
+	 */
+	@RequestMapping(value = "/tasks", method = RequestMethod.GET, params = "limit")
+	public Map<String, Object> tasksPage(@RequestParam(required = false, defaultValue = "") String list,
+			@RequestParam int limit, @RequestParam(required = false) String after) throws UnknownUserException, UnknownListException {
+		if (limit <= 0 || limit > MAX_PAGE_SIZE) throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+		List<TaskView> tasks = dao.getTasksPage(getUser(), listOrNull(list), after, limit);
+		Map<String, Object> ret = new LinkedHashMap<>();
+		ret.put("tasks", tasks);
+		ret.put("next", tasks.size() < limit ? null : tasks.get(tasks.size() - 1).id());
+		return ret;
+	}
+
+	/**
+	 * Same payload as {@link #tasks(String, String)}, written while reading the tasks instead of once they are all loaded.
+	 */
+	@RequestMapping(value = "/tasks", method = RequestMethod.GET, params = "stream=true")
+	public ResponseEntity<StreamingResponseBody> streamTasks(@RequestParam(required = false, defaultValue = "") String list) {
+		String user = getUser();
+		String listId = listOrNull(list);
+		StreamingResponseBody body = out -> {
+			try (JsonGenerator json = JSON.getFactory().createGenerator(out)) {
+				json.writeStartArray();
+				dao.streamTasks(user, listId, task -> {
+					try {
+						json.writeObject(task);
+					} catch (IOException x) {
+						throw new UncheckedIOException(x);
+					}
+				});
+				json.writeEndArray();
+			} catch (UncheckedIOException x) {
+				throw x.getCause();
+			} catch (UnknownUserException | UnknownListException x) {
+				throw new IOException(x.getMessage(), x);
+			}
+		};
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+	}
+
+	private static String listOrNull(String list) {
+		return list == null || (list = list.trim()).length() == 0 ? null : list;
 	}
 
 	@RequestMapping(value = "/tasks/new", method = RequestMethod.POST)
-	public String newTask(@RequestParam(required = true) String name, @RequestParam(required = false, defaultValue = "") String list) throws UnknownUserException, UnknownListException {
+	public CompletableFuture<String> newTask(@RequestParam(required = true) String name, @RequestParam(required = false, defaultValue = "") String list) {
 		return list == null || (list = list.trim()).length() == 0 ?
-				dao.createDefaultTask(getUser(), name) :
-				dao.createListTask(getUser(), list, name);
+				asyncDao.createDefaultTask(getUser(), name) :
+				asyncDao.createListTask(getUser(), list, name);
 	}
 
 	@RequestMapping(value = "/tasks/{id:.*}", method = { RequestMethod.PUT})
-	public void updateTask(@PathVariable String id, @RequestBody Map<String, String> data)
-			throws UnknownUserException, UnknownListException {
+	public CompletableFuture<Void> updateTask(@PathVariable String id, @RequestBody Map<String, String> data) {
 		String list = data.getOrDefault("list", null);
 		String task = data.get("task");
 		if (task == null) throw new IllegalArgumentException("Missing name");
 		if (list == null || (list = list.trim()).length() == 0 ) {
-			dao.renameDefaultTask(getUser(), id, task);
+			return asyncDao.renameDefaultTask(getUser(), id, task);
 		} else {
-			dao.renameListTask(getUser(), list, id, task);
+			return asyncDao.renameListTask(getUser(), list, id, task);
 		}
 	}
 
 	@RequestMapping(value = "/tasks/done/{id:.*}", method = { RequestMethod.GET})
-	public void setDoneTask(@PathVariable String id,
+	public CompletableFuture<Void> setDoneTask(@PathVariable String id,
 			@RequestParam(required = true) boolean done,
-			@RequestParam(required = false, defaultValue = "") String list)
-			throws UnknownUserException, UnknownListException {
+			@RequestParam(required = false, defaultValue = "") String list) {
 				if (list == null || (list = list.trim()).length() == 0 ) {
-					dao.setDefaultTaskDone(getUser(), id, done);
+					return asyncDao.setDefaultTaskDone(getUser(), id, done);
 				} else {
-					dao.setListTaskDone(getUser(), list, id, done);
+					return asyncDao.setListTaskDone(getUser(), list, id, done);
 				}
 	}
 
 	@RequestMapping(value = "/tasks", method = RequestMethod.DELETE)
-	public void deleteTask(@RequestParam(required = true) String id, @RequestParam(required = false, defaultValue = "") String list)
-			throws UnknownUserException, UnknownListException {
+	public CompletableFuture<Void> deleteTask(@RequestParam(required = true) String id, @RequestParam(required = false, defaultValue = "") String list) {
 		if (list == null || (list = list.trim()).length() == 0 ) {
-			dao.deleteDefaultTask(getUser(), id);
+			return asyncDao.deleteDefaultTask(getUser(), id);
 		} else {
-			dao.deleteListTask(getUser(), list, id);
+			return asyncDao.deleteListTask(getUser(), list, id);
 		}
 	}
+
+	/**
+	 * Applies a sequence of task / list mutations in one request, see {@link BatchOperation}.
+	 * With ordered=false, operations are independent and a failure doesn't prevent the others.
+	 */
+	@RequestMapping(value = "/batch", method = RequestMethod.POST)
+	public List<BatchResult> batch(@RequestBody List<BatchOperation> operations,
+			@RequestParam(required = false, defaultValue = "true") boolean ordered) {
+		if (operations.size() > MAX_BATCH_SIZE) throw new IllegalArgumentException("Batch larger than " + MAX_BATCH_SIZE + " operations");
+		return dao.applyBatch(getUser(), operations, ordered);
+	}
 }
@@ -0,0 +1,96 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One mutation of a batch, e.g. {op: "renameTask", list: "l1", id: "t1", name: "new name"}.
+ * list is empty or absent for the default list.
+ * id is the task id for task operations and the list id for list operations (except creations).
+ */
+public record BatchOperation(Type op, String list, String id, String name, Boolean done) {
+
+	public enum Type {
+		@JsonProperty("createTask") CREATE_TASK,
+		@JsonProperty("renameTask") RENAME_TASK,
+		@JsonProperty("setTaskDone") SET_TASK_DONE,
+		@JsonProperty("deleteTask") DELETE_TASK,
+		@JsonProperty("createList") CREATE_LIST,
+		@JsonProperty("renameList") RENAME_LIST,
+		@JsonProperty("deleteList") DELETE_LIST;
+
+		public boolean isListOperation() {
+			return this == CREATE_LIST || this == RENAME_LIST || this == DELETE_LIST;
+		}
+	}
+
+	public boolean isDefaultList() {
+		return list == null || list.trim().isEmpty();
+	}
+
+	/**
+	 * @throws IllegalArgumentException if a field needed by the operation is missing
+	 */
+	public void validate() {
+		if (op == null) throw new IllegalArgumentException("Missing op");
+		switch (op) {
+		case CREATE_TASK:
+		case CREATE_LIST:
+			require(name, "name");
+			break;
+		case RENAME_TASK:
+		case RENAME_LIST:
+			require(id, "id");
+			require(name, "name");
+			break;
+		case SET_TASK_DONE:
+			require(id, "id");
+			if (done == null) throw new IllegalArgumentException("Missing done for " + op);
+			break;
+		case DELETE_TASK:
+			require(id, "id");
+			break;
+		case DELETE_LIST:
+			require(id, "id");
+			break;
+		}
+	}
+
+	private void require(String value, String field) {
+		if (value == null) throw new IllegalArgumentException("Missing " + field + " for " + op);
+	}
+
+	/**
+	 * Applies this operation with the single-operation methods of the DAO.
+	 * @return the id of the created task or list, null for other operations
+	 */
+	public String applyTo(TodoDAO dao, String user) throws Exception {
+		validate();
+		String listId = isDefaultList() ? null : list.trim();
+		switch (op) {
+		case CREATE_TASK:
+			return listId == null ? dao.createDefaultTask(user, name) : dao.createListTask(user, listId, name);
+		case RENAME_TASK:
+			if (listId == null) dao.renameDefaultTask(user, id, name);
+			else dao.renameListTask(user, listId, id, name);
+			return null;
+		case SET_TASK_DONE:
+			if (listId == null) dao.setDefaultTaskDone(user, id, done);
+			else dao.setListTaskDone(user, listId, id, done);
+			return null;
+		case DELETE_TASK:
+			if (listId == null) dao.deleteDefaultTask(user, id);
+			else dao.deleteListTask(user, listId, id);
+			return null;
+		case CREATE_LIST:
+			return dao.createList(user, name);
+		case RENAME_LIST:
+			dao.renameList(user, id, name);
+			return null;
+		case DELETE_LIST:
+			dao.deleteList(user, id);
+			return null;
+		}
+		throw new IllegalArgumentException("Unknown op " + op);
+	}
+
+}
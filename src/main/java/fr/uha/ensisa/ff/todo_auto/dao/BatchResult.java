@@ -0,0 +1,32 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Outcome of one {@link BatchOperation}: status is "ok", "failed" or "skipped"
+ * (not attempted because an earlier operation of an ordered batch failed).
+ * id is set for successful creations, error for failures.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchResult(String status, String id, String error) {
+
+	private static final BatchResult OK = new BatchResult("ok", null, null);
+	private static final BatchResult SKIPPED = new BatchResult("skipped", null, null);
+
+	public static BatchResult ok(String id) {
+		return id == null ? OK : new BatchResult("ok", id, null);
+	}
+
+	public static BatchResult failed(Exception x) {
+		return failed(x.getMessage() == null ? x.getClass().getSimpleName() : x.getMessage());
+	}
+
+	public static BatchResult failed(String error) {
+		return new BatchResult("failed", null, error);
+	}
+
+	public static BatchResult skipped() {
+		return SKIPPED;
+	}
+
+}
@@ -0,0 +1,12 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.List;
+
+/**
+ * What the page needs to show up, as returned by {@link TodoDAO#getBootstrap(String, String)}:
+ * {userName: "user", lists: [...], listsVersion: 3, list: "l1Id", tasks: [...], tasksVersion: 7}.
+ * @param list the list whose tasks are given, null for the default list
+ */
+public record Bootstrap(String userName, List<ListView> lists, long listsVersion, String list, List<TaskView> tasks, long tasksVersion) {
+
+}
@@ -0,0 +1,426 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import fr.uha.ensisa.ff.todo_auto.log.Log;
+
+/**
+ * Read-through cache in front of another {@link TodoDAO}.
+ * Caches are bounded by weight, the characters of the ids and names they hold (W-TinyLFU eviction): an entry
+ * holds a whole task list, so a count of entries would not bound the heap. Entries expire after a TTL,
+ * which bounds staleness when writes from other nodes cannot be observed.
+ * Writes through this DAO invalidate exactly the entries they affect;
+ * writes from other nodes are applied through {@link #onChange(TodoChange)}.
+ * Cached values are unmodifiable lists of immutable views.
+ *
+ * Lists and tasks are cached with the version read before them, and their versions are answered from the same
+ * entry: a version never runs ahead of the content served with it, which would be cached by clients under a tag
+ * that no longer changes. A stale entry is thus stale in both, until invalidated or expired.
+ * Bumps made by other nodes reach {@link #onChange(TodoChange)} after the content they cover and evict the entry
+ * again, so an entry reloaded in between (old version, new content) does not outlive them.
+ */
+public class CachingTodoDAO extends ForwardingTodoDAO {
+
+	private static final Log log = Log.get(CachingTodoDAO.class);
+
+	/** Characters per cache, so some tens of MB for the four of them */
+	public static final long DEFAULT_MAXIMUM_WEIGHT = 4_000_000;
+	/** Weight of a view besides its id and name */
+	private static final int VIEW_WEIGHT = 16;
+	public static final Duration DEFAULT_TTL = Duration.ofMinutes(1);
+
+	private record ListKey(String user, String listId) {
+	}
+
+	private record Versioned<T>(long version, List<T> content) {
+	}
+
+	private interface VersionLoader {
+		long load() throws Exception;
+	}
+
+	private final Cache<String, String> passwords;
+	private final Cache<String, Versioned<ListView>> lists;
+	private final Cache<String, Versioned<TaskView>> defaultTasks;
+	private final Cache<ListKey, Versioned<TaskView>> listTasks;
+	private AutoCloseable changeWatcher;
+
+	public CachingTodoDAO(TodoDAO delegate) {
+		this(delegate, DEFAULT_MAXIMUM_WEIGHT, DEFAULT_TTL);
+	}
+
+	/**
+	 * @param maximumWeight bound of each cache, in characters of the ids and names it holds
+	 */
+	public CachingTodoDAO(TodoDAO delegate, long maximumWeight, Duration ttl) {
+		super(delegate);
+		this.passwords = newCache(maximumWeight, ttl, (user, password) -> length(user) + length(password));
+		this.lists = newCache(maximumWeight, ttl, (user, entry) -> length(user) + listsWeight(entry.content()));
+		this.defaultTasks = newCache(maximumWeight, ttl, (user, entry) -> length(user) + tasksWeight(entry.content()));
+		this.listTasks = newCache(maximumWeight, ttl,
+				(key, entry) -> length(key.user()) + length(key.listId()) + tasksWeight(entry.content()));
+		if (delegate instanceof TodoChangeSource)
+			this.changeWatcher = ((TodoChangeSource) delegate).watchChanges(this::onChange);
+	}
+
+	private static <K, V> Cache<K, V> newCache(long maximumWeight, Duration ttl, Weigher<K, V> weigher) {
+		return Caffeine.newBuilder().maximumWeight(maximumWeight).weigher(weigher).expireAfterWrite(ttl).recordStats().build();
+	}
+
+	private static int length(String s) {
+		return s == null ? 0 : s.length();
+	}
+
+	private static int listsWeight(List<ListView> lists) {
+		long ret = 0;
+		for (ListView list : lists)
+			ret += VIEW_WEIGHT + length(list.id()) + length(list.name());
+		return (int) Math.min(ret, Integer.MAX_VALUE);
+	}
+
+	private static int tasksWeight(List<TaskView> tasks) {
+		long ret = 0;
+		for (TaskView task : tasks)
+			ret += VIEW_WEIGHT + length(task.id()) + length(task.name());
+		return (int) Math.min(ret, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return hit / miss / eviction counts per cache
+	 */
+	public Map<String, CacheStats> stats() {
+		Map<String, CacheStats> ret = new LinkedHashMap<>();
+		ret.put("passwords", passwords.stats());
+		ret.put("lists", lists.stats());
+		ret.put("defaultTasks", defaultTasks.stats());
+		ret.put("listTasks", listTasks.stats());
+		return ret;
+	}
+
+	/**
+	 * Evicts what a write, possibly made by another node, made stale.
+	 */
+	public void onChange(TodoChange change) {
+		switch (change.type()) {
+		case ALL:
+			passwords.invalidateAll();
+			lists.invalidateAll();
+			defaultTasks.invalidateAll();
+			listTasks.invalidateAll();
+			break;
+		case USER:
+			// A write to the user document may have moved the versions it holds
+			passwords.invalidate(change.user());
+			lists.invalidate(change.user());
+			defaultTasks.invalidate(change.user());
+			listTasks.asMap().keySet().removeIf(k -> k.user().equals(change.user()));
+			break;
+		case LIST:
+			if (change.user() == null) {
+				lists.invalidateAll();
+				// Owner unknown (a deletion seen by the change stream): the only case needing a scan
+				listTasks.asMap().keySet().removeIf(k -> k.listId().equals(change.listId()));
+			} else if (change.listId() == null) {
+				lists.invalidate(change.user());
+			} else {
+				lists.invalidate(change.user());
+				listTasks.invalidate(new ListKey(change.user(), change.listId()));
+			}
+			break;
+		case TASK:
+			if (change.user() == null) {
+				defaultTasks.invalidateAll();
+				listTasks.invalidateAll();
+			} else if (change.listId() == null) {
+				defaultTasks.invalidate(change.user());
+			} else {
+				listTasks.invalidate(new ListKey(change.user(), change.listId()));
+			}
+			break;
+		}
+	}
+
+	private interface Loader<V> {
+		V load() throws Exception;
+	}
+
+	/** Carries checked exceptions of the delegate out of the cache loader. */
+	private static class LoaderException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		LoaderException(Exception cause) {
+			super(cause);
+		}
+	}
+
+	private static <K, V> V get(Cache<K, V> cache, K key, Loader<V> loader) throws Exception {
+		try {
+			return cache.get(key, k -> {
+				try {
+					return loader.load();
+				} catch (Exception x) {
+					throw new LoaderException(x);
+				}
+			});
+		} catch (LoaderException x) {
+			throw (Exception) x.getCause();
+		}
+	}
+
+	private static <T> List<T> unmodifiable(List<T> list) {
+		return list == null ? null : Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @return null, so not cached, if there is no content
+	 */
+	private static <T> Versioned<T> versioned(VersionLoader version, Loader<List<T>> content) throws Exception {
+		long v = version.load();
+		List<T> list = content.load();
+		return list == null ? null : new Versioned<>(v, unmodifiable(list));
+	}
+
+	private static <T> List<T> content(Versioned<T> entry) {
+		return entry == null ? null : entry.content();
+	}
+
+	private static long version(Versioned<?> entry) {
+		return entry == null ? UNVERSIONED : entry.version();
+	}
+
+	@Override
+	public String getUserPassword(String user) throws UnknownUserException {
+		try {
+			return get(passwords, user, () -> delegate.getUserPassword(user));
+		} catch (UnknownUserException | RuntimeException x) {
+			throw x;
+		} catch (Exception x) {
+			throw new IllegalStateException(x);
+		}
+	}
+
+	@Override
+	public List<ListView> getLists(String user) throws UnknownUserException {
+		try {
+			return content(lists(user));
+		} catch (UnknownUserException | RuntimeException x) {
+			throw x;
+		} catch (Exception x) {
+			throw new IllegalStateException(x);
+		}
+	}
+
+	@Override
+	public List<TaskView> getDefaultTasks(String user) throws UnknownUserException {
+		try {
+			return content(defaultTasks(user));
+		} catch (UnknownUserException | RuntimeException x) {
+			throw x;
+		} catch (Exception x) {
+			throw new IllegalStateException(x);
+		}
+	}
+
+	@Override
+	public List<TaskView> getTasksOfList(String user, String listId) throws UnknownUserException, UnknownListException {
+		try {
+			return content(listTasks(user, listId));
+		} catch (UnknownUserException | UnknownListException | RuntimeException x) {
+			throw x;
+		} catch (Exception x) {
+			throw new IllegalStateException(x);
+		}
+	}
+
+	@Override
+	public long getListsVersion(String user) throws UnknownUserException {
+		try {
+			return version(lists(user));
+		} catch (UnknownUserException | RuntimeException x) {
+			throw x;
+		} catch (Exception x) {
+			throw new IllegalStateException(x);
+		}
+	}
+
+	@Override
+	public long getTasksVersion(String user, String listId) throws UnknownUserException, UnknownListException {
+		try {
+			return version(listId == null ? defaultTasks(user) : listTasks(user, listId));
+		} catch (UnknownUserException | UnknownListException | RuntimeException x) {
+			throw x;
+		} catch (Exception x) {
+			throw new IllegalStateException(x);
+		}
+	}
+
+	private Versioned<ListView> lists(String user) throws Exception {
+		return get(lists, user, () -> versioned(() -> delegate.getListsVersion(user), () -> delegate.getLists(user)));
+	}
+
+	private Versioned<TaskView> defaultTasks(String user) throws Exception {
+		return get(defaultTasks, user, () -> versioned(() -> delegate.getTasksVersion(user, null), () -> delegate.getDefaultTasks(user)));
+	}
+
+	private Versioned<TaskView> listTasks(String user, String listId) throws Exception {
+		return get(listTasks, new ListKey(user, listId),
+				() -> versioned(() -> delegate.getTasksVersion(user, listId), () -> delegate.getTasksOfList(user, listId)));
+	}
+
+	@Override
+	public void registerUser(String user, String password) throws UserAlreadyExistsException {
+		try {
+			delegate.registerUser(user, password);
+		} finally {
+			passwords.invalidate(user);
+		}
+	}
+
+	@Override
+	public void updateUserPassword(String user, String password) throws UnknownUserException {
+		try {
+			delegate.updateUserPassword(user, password);
+		} finally {
+			passwords.invalidate(user);
+		}
+	}
+
+	@Override
+	public String createDefaultTask(String user, String taskName) throws UnknownUserException {
+		try {
+			return delegate.createDefaultTask(user, taskName);
+		} finally {
+			defaultTasks.invalidate(user);
+		}
+	}
+
+	@Override
+	public void setDefaultTaskDone(String user, String taskId, boolean done) throws UnknownUserException {
+		try {
+			delegate.setDefaultTaskDone(user, taskId, done);
+		} finally {
+			defaultTasks.invalidate(user);
+		}
+	}
+
+	@Override
+	public void renameDefaultTask(String user, String taskId, String newName) throws UnknownUserException {
+		try {
+			delegate.renameDefaultTask(user, taskId, newName);
+		} finally {
+			defaultTasks.invalidate(user);
+		}
+	}
+
+	@Override
+	public void deleteDefaultTask(String user, String taskId) throws UnknownUserException {
+		try {
+			delegate.deleteDefaultTask(user, taskId);
+		} finally {
+			defaultTasks.invalidate(user);
+		}
+	}
+
+	@Override
+	public String createList(String user, String name) throws UnknownUserException {
+		try {
+			return delegate.createList(user, name);
+		} finally {
+			lists.invalidate(user);
+		}
+	}
+
+	@Override
+	public void deleteList(String user, String listId) throws UnknownUserException, UnknownListException {
+		try {
+			delegate.deleteList(user, listId);
+		} finally {
+			lists.invalidate(user);
+			listTasks.invalidate(new ListKey(user, listId));
+		}
+	}
+
+	@Override
+	public void renameList(String user, String listId, String newName) throws UnknownUserException, UnknownListException {
+		try {
+			delegate.renameList(user, listId, newName);
+		} finally {
+			lists.invalidate(user);
+		}
+	}
+
+	@Override
+	public String createListTask(String user, String listId, String taskName) throws UnknownUserException, UnknownListException {
+		try {
+			return delegate.createListTask(user, listId, taskName);
+		} finally {
+			listTasks.invalidate(new ListKey(user, listId));
+		}
+	}
+
+	@Override
+	public void renameListTask(String user, String listId, String taskId, String newTaskName) throws UnknownUserException, UnknownListException {
+		try {
+			delegate.renameListTask(user, listId, taskId, newTaskName);
+		} finally {
+			listTasks.invalidate(new ListKey(user, listId));
+		}
+	}
+
+	@Override
+	public void setListTaskDone(String user, String listId, String taskId, boolean done) throws UnknownUserException, UnknownListException {
+		try {
+			delegate.setListTaskDone(user, listId, taskId, done);
+		} finally {
+			listTasks.invalidate(new ListKey(user, listId));
+		}
+	}
+
+	@Override
+	public void deleteListTask(String user, String listId, String taskId) throws UnknownUserException, UnknownListException {
+		try {
+			delegate.deleteListTask(user, listId, taskId);
+		} finally {
+			listTasks.invalidate(new ListKey(user, listId));
+		}
+	}
+
+	@Override
+	public List<BatchResult> applyBatch(String user, List<BatchOperation> operations, boolean ordered) {
+		try {
+			return delegate.applyBatch(user, operations, ordered);
+		} finally {
+			for (BatchOperation op : operations) {
+				if (op.op() == null) continue;
+				if (op.op().isListOperation()) {
+					lists.invalidate(user);
+					if (op.id() != null) listTasks.invalidate(new ListKey(user, op.id()));
+				} else if (op.isDefaultList()) {
+					defaultTasks.invalidate(user);
+				} else {
+					listTasks.invalidate(new ListKey(user, op.list().trim()));
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() throws Exception {
+		if (changeWatcher != null) {
+			changeWatcher.close();
+			changeWatcher = null;
+		}
+		log.info("Closing cache, stats: {}", stats());
+		super.close();
+	}
+
+}
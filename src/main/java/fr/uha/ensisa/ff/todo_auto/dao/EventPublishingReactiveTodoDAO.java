@@ -0,0 +1,116 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Publishes every successful write to a {@link TodoEventBus}, once the wrapped DAO completed it.
+ * The asynchronous counterpart of {@link EventPublishingTodoDAO}.
+ */
+public class EventPublishingReactiveTodoDAO implements ReactiveTodoDAO {
+
+	private final ReactiveTodoDAO delegate;
+	private final TodoEventBus events;
+
+	public EventPublishingReactiveTodoDAO(ReactiveTodoDAO delegate, TodoEventBus events) {
+		this.delegate = delegate;
+		this.events = events;
+	}
+
+	@Override
+	public void close() throws Exception {
+		delegate.close();
+	}
+
+	@Override
+	public CompletableFuture<String> createDefaultTask(String user, String taskName) {
+		return delegate.createDefaultTask(user, taskName)
+				.thenApply(id -> { events.publishLocal(TodoEvent.taskCreated(user, null, id, taskName)); return id; });
+	}
+
+	@Override
+	public CompletableFuture<List<TaskView>> getDefaultTasks(String user) {
+		return delegate.getDefaultTasks(user);
+	}
+
+	@Override
+	public CompletableFuture<Void> setDefaultTaskDone(String user, String taskId, boolean done) {
+		return delegate.setDefaultTaskDone(user, taskId, done)
+				.thenRun(() -> events.publishLocal(TodoEvent.taskDone(user, null, taskId, done)));
+	}
+
+	@Override
+	public CompletableFuture<Void> renameDefaultTask(String user, String taskId, String newName) {
+		return delegate.renameDefaultTask(user, taskId, newName)
+				.thenRun(() -> events.publishLocal(TodoEvent.taskRenamed(user, null, taskId, newName)));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteDefaultTask(String user, String taskId) {
+		return delegate.deleteDefaultTask(user, taskId)
+				.thenRun(() -> events.publishLocal(TodoEvent.taskDeleted(user, null, taskId)));
+	}
+
+	@Override
+	public CompletableFuture<Long> getListsVersion(String user) {
+		return delegate.getListsVersion(user);
+	}
+
+	@Override
+	public CompletableFuture<Long> getTasksVersion(String user, String listId) {
+		return delegate.getTasksVersion(user, listId);
+	}
+
+	@Override
+	public CompletableFuture<String> createList(String user, String name) {
+		return delegate.createList(user, name)
+				.thenApply(id -> { events.publishLocal(TodoEvent.listCreated(user, id, name)); return id; });
+	}
+
+	@Override
+	public CompletableFuture<List<ListView>> getLists(String user) {
+		return delegate.getLists(user);
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteList(String user, String listId) {
+		return delegate.deleteList(user, listId)
+				.thenRun(() -> events.publishLocal(TodoEvent.listDeleted(user, listId)));
+	}
+
+	@Override
+	public CompletableFuture<Void> renameList(String user, String listId, String newName) {
+		return delegate.renameList(user, listId, newName)
+				.thenRun(() -> events.publishLocal(TodoEvent.listRenamed(user, listId, newName)));
+	}
+
+	@Override
+	public CompletableFuture<List<TaskView>> getTasksOfList(String user, String listId) {
+		return delegate.getTasksOfList(user, listId);
+	}
+
+	@Override
+	public CompletableFuture<String> createListTask(String user, String listId, String taskName) {
+		return delegate.createListTask(user, listId, taskName)
+				.thenApply(id -> { events.publishLocal(TodoEvent.taskCreated(user, listId, id, taskName)); return id; });
+	}
+
+	@Override
+	public CompletableFuture<Void> renameListTask(String user, String listId, String taskId, String newTaskName) {
+		return delegate.renameListTask(user, listId, taskId, newTaskName)
+				.thenRun(() -> events.publishLocal(TodoEvent.taskRenamed(user, listId, taskId, newTaskName)));
+	}
+
+	@Override
+	public CompletableFuture<Void> setListTaskDone(String user, String listId, String taskId, boolean done) {
+		return delegate.setListTaskDone(user, listId, taskId, done)
+				.thenRun(() -> events.publishLocal(TodoEvent.taskDone(user, listId, taskId, done)));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteListTask(String user, String listId, String taskId) {
+		return delegate.deleteListTask(user, listId, taskId)
+				.thenRun(() -> events.publishLocal(TodoEvent.taskDeleted(user, listId, taskId)));
+	}
+
+}
@@ -0,0 +1,97 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.List;
+
+/**
+ * Publishes every successful write to a {@link TodoEventBus}, once the wrapped DAO returned.
+ */
+public class EventPublishingTodoDAO extends ForwardingTodoDAO {
+
+	private final TodoEventBus events;
+
+	public EventPublishingTodoDAO(TodoDAO delegate, TodoEventBus events) {
+		super(delegate);
+		this.events = events;
+	}
+
+	@Override
+	public String createDefaultTask(String user, String taskName) throws UnknownUserException {
+		String ret = delegate.createDefaultTask(user, taskName);
+		events.publishLocal(TodoEvent.taskCreated(user, null, ret, taskName));
+		return ret;
+	}
+
+	@Override
+	public void setDefaultTaskDone(String user, String taskId, boolean done) throws UnknownUserException {
+		delegate.setDefaultTaskDone(user, taskId, done);
+		events.publishLocal(TodoEvent.taskDone(user, null, taskId, done));
+	}
+
+	@Override
+	public void renameDefaultTask(String user, String taskId, String newName) throws UnknownUserException {
+		delegate.renameDefaultTask(user, taskId, newName);
+		events.publishLocal(TodoEvent.taskRenamed(user, null, taskId, newName));
+	}
+
+	@Override
+	public void deleteDefaultTask(String user, String taskId) throws UnknownUserException {
+		delegate.deleteDefaultTask(user, taskId);
+		events.publishLocal(TodoEvent.taskDeleted(user, null, taskId));
+	}
+
+	@Override
+	public String createList(String user, String name) throws UnknownUserException {
+		String ret = delegate.createList(user, name);
+		events.publishLocal(TodoEvent.listCreated(user, ret, name));
+		return ret;
+	}
+
+	@Override
+	public void deleteList(String user, String listId) throws UnknownUserException, UnknownListException {
+		delegate.deleteList(user, listId);
+		events.publishLocal(TodoEvent.listDeleted(user, listId));
+	}
+
+	@Override
+	public void renameList(String user, String listId, String newName) throws UnknownUserException, UnknownListException {
+		delegate.renameList(user, listId, newName);
+		events.publishLocal(TodoEvent.listRenamed(user, listId, newName));
+	}
+
+	@Override
+	public String createListTask(String user, String listId, String taskName) throws UnknownUserException, UnknownListException {
+		String ret = delegate.createListTask(user, listId, taskName);
+		events.publishLocal(TodoEvent.taskCreated(user, listId, ret, taskName));
+		return ret;
+	}
+
+	@Override
+	public void renameListTask(String user, String listId, String taskId, String newTaskName) throws UnknownUserException, UnknownListException {
+		delegate.renameListTask(user, listId, taskId, newTaskName);
+		events.publishLocal(TodoEvent.taskRenamed(user, listId, taskId, newTaskName));
+	}
+
+	@Override
+	public void setListTaskDone(String user, String listId, String taskId, boolean done) throws UnknownUserException, UnknownListException {
+		delegate.setListTaskDone(user, listId, taskId, done);
+		events.publishLocal(TodoEvent.taskDone(user, listId, taskId, done));
+	}
+
+	@Override
+	public void deleteListTask(String user, String listId, String taskId) throws UnknownUserException, UnknownListException {
+		delegate.deleteListTask(user, listId, taskId);
+		events.publishLocal(TodoEvent.taskDeleted(user, listId, taskId));
+	}
+
+	@Override
+	public List<BatchResult> applyBatch(String user, List<BatchOperation> operations, boolean ordered) {
+		List<BatchResult> ret = delegate.applyBatch(user, operations, ordered);
+		for (int i = 0; i < ret.size(); i++) {
+			TodoEvent event = TodoEvent.of(user, operations.get(i), ret.get(i));
+			if (event != null)
+				events.publishLocal(event);
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,141 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Base for {@link TodoDAO} decorators: forwards every call to the wrapped DAO.
+ */
+public abstract class ForwardingTodoDAO implements TodoDAO {
+
+	protected final TodoDAO delegate;
+
+	protected ForwardingTodoDAO(TodoDAO delegate) {
+		this.delegate = delegate;
+	}
+
+	public TodoDAO getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public void close() throws Exception {
+		delegate.close();
+	}
+
+	@Override
+	public void registerUser(String user, String password) throws UserAlreadyExistsException {
+		delegate.registerUser(user, password);
+	}
+
+	@Override
+	public String getUserPassword(String user) throws UnknownUserException {
+		return delegate.getUserPassword(user);
+	}
+
+	@Override
+	public void updateUserPassword(String user, String password) throws UnknownUserException {
+		delegate.updateUserPassword(user, password);
+	}
+
+	@Override
+	public String createDefaultTask(String user, String taskName) throws UnknownUserException {
+		return delegate.createDefaultTask(user, taskName);
+	}
+
+	@Override
+	public List<TaskView> getDefaultTasks(String user) throws UnknownUserException {
+		return delegate.getDefaultTasks(user);
+	}
+
+	@Override
+	public void setDefaultTaskDone(String user, String taskId, boolean done) throws UnknownUserException {
+		delegate.setDefaultTaskDone(user, taskId, done);
+	}
+
+	@Override
+	public void renameDefaultTask(String user, String taskId, String newName) throws UnknownUserException {
+		delegate.renameDefaultTask(user, taskId, newName);
+	}
+
+	@Override
+	public void deleteDefaultTask(String user, String taskId) throws UnknownUserException {
+		delegate.deleteDefaultTask(user, taskId);
+	}
+
+	@Override
+	public String createList(String user, String name) throws UnknownUserException {
+		return delegate.createList(user, name);
+	}
+
+	@Override
+	public List<ListView> getLists(String user) throws UnknownUserException {
+		return delegate.getLists(user);
+	}
+
+	@Override
+	public void deleteList(String user, String listId) throws UnknownUserException, UnknownListException {
+		delegate.deleteList(user, listId);
+	}
+
+	@Override
+	public void renameList(String user, String listId, String newName) throws UnknownUserException, UnknownListException {
+		delegate.renameList(user, listId, newName);
+	}
+
+	@Override
+	public List<TaskView> getTasksOfList(String user, String listId) throws UnknownUserException, UnknownListException {
+		return delegate.getTasksOfList(user, listId);
+	}
+
+	@Override
+	public String createListTask(String user, String listId, String taskName) throws UnknownUserException, UnknownListException {
+		return delegate.createListTask(user, listId, taskName);
+	}
+
+	@Override
+	public void renameListTask(String user, String listId, String taskId, String newTaskName) throws UnknownUserException, UnknownListException {
+		delegate.renameListTask(user, listId, taskId, newTaskName);
+	}
+
+	@Override
+	public void setListTaskDone(String user, String listId, String taskId, boolean done) throws UnknownUserException, UnknownListException {
+		delegate.setListTaskDone(user, listId, taskId, done);
+	}
+
+	@Override
+	public void deleteListTask(String user, String listId, String taskId) throws UnknownUserException, UnknownListException {
+		delegate.deleteListTask(user, listId, taskId);
+	}
+
+	@Override
+	public long getListsVersion(String user) throws UnknownUserException {
+		return delegate.getListsVersion(user);
+	}
+
+	@Override
+	public long getTasksVersion(String user, String listId) throws UnknownUserException, UnknownListException {
+		return delegate.getTasksVersion(user, listId);
+	}
+
+	@Override
+	public List<TaskView> getTasksPage(String user, String listId, String after, int limit) throws UnknownUserException, UnknownListException {
+		return delegate.getTasksPage(user, listId, after, limit);
+	}
+
+	@Override
+	public Bootstrap getBootstrap(String user, String listId) throws UnknownUserException, UnknownListException {
+		return delegate.getBootstrap(user, listId);
+	}
+
+	@Override
+	public void streamTasks(String user, String listId, Consumer<TaskView> sink) throws UnknownUserException, UnknownListException {
+		delegate.streamTasks(user, listId, sink);
+	}
+
+	@Override
+	public List<BatchResult> applyBatch(String user, List<BatchOperation> operations, boolean ordered) {
+		return delegate.applyBatch(user, operations, ordered);
+	}
+
+}
@@ -0,0 +1,128 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.security.SecureRandom;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Generates the ids of new lists and tasks: unique without coordination between nodes,
+ * and increasing with time, so that inserts land on the right edge of the _id index
+ * (and of the (owner, listId, _id) index) instead of on random pages, and sorting by _id
+ * gives creation order.
+ *
+ * Ids don't carry their owner: documents have owner / listId fields for that
+ * (only ids written before those fields existed are owner-prefixed, see MongoDAO).
+ */
+public interface IdGenerator {
+
+	String nextId();
+
+	/**
+	 * The 12 bytes of an ObjectId (seconds, per-process random, counter) as 16 characters of an
+	 * order-preserving base 64 alphabet (URL safe).
+	 */
+	IdGenerator COMPACT = () -> Base64Sortable.encode(new ObjectId().toByteArray());
+
+	/** 24 hexadecimal characters, as ObjectId.toHexString() */
+	IdGenerator OBJECT_ID = () -> new ObjectId().toHexString();
+
+	/** 26 characters: milliseconds then 80 random bits, incremented within a millisecond */
+	IdGenerator ULID = new Ulid();
+
+	/**
+	 * @param name compact, objectid or ulid
+	 */
+	static IdGenerator named(String name) {
+		switch (name.toLowerCase()) {
+		case "compact":
+			return COMPACT;
+		case "objectid":
+			return OBJECT_ID;
+		case "ulid":
+			return ULID;
+		default:
+			throw new IllegalArgumentException("Unknown id generator " + name);
+		}
+	}
+
+	/**
+	 * -Dtodo.ids (default compact)
+	 */
+	static IdGenerator fromProperty() {
+		return named(System.getProperty("todo.ids", "compact"));
+	}
+
+	final class Base64Sortable {
+
+		/** Ascending ASCII order, so that comparing strings compares the encoded bytes */
+		private static final char[] ALPHABET = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+		private Base64Sortable() {
+		}
+
+		/**
+		 * @param bytes a multiple of 3 bytes
+		 */
+		static String encode(byte[] bytes) {
+			char[] ret = new char[bytes.length / 3 * 4];
+			for (int i = 0, o = 0; i < bytes.length; i += 3) {
+				int v = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+				ret[o++] = ALPHABET[v >>> 18];
+				ret[o++] = ALPHABET[(v >>> 12) & 0x3f];
+				ret[o++] = ALPHABET[(v >>> 6) & 0x3f];
+				ret[o++] = ALPHABET[v & 0x3f];
+			}
+			return new String(ret);
+		}
+	}
+
+	final class Ulid implements IdGenerator {
+
+		private static final char[] CROCKFORD = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+		private final SecureRandom random = new SecureRandom();
+		// Guarded by this
+		private long lastTime;
+		private long randomHigh; // 16 bits
+		private long randomLow; // 64 bits
+
+		private Ulid() {
+		}
+
+		@Override
+		public String nextId() {
+			long time, high, low;
+			synchronized (this) {
+				time = System.currentTimeMillis();
+				if (time <= lastTime) {
+					// Same (or earlier, clock stepped back) millisecond: stay monotonic
+					time = lastTime;
+					if (++randomLow == 0 && ++randomHigh > 0xffff) {
+						time = ++lastTime;
+						randomHigh = 0;
+					}
+				} else {
+					lastTime = time;
+					randomHigh = random.nextInt() & 0xffff;
+					randomLow = random.nextLong();
+				}
+				high = randomHigh;
+				low = randomLow;
+			}
+			char[] ret = new char[26];
+			// 48 bits of time in 10 characters (the first one holds 3 bits, so the top 2 are 0)
+			for (int i = 9; i >= 0; i--) {
+				ret[i] = CROCKFORD[(int) (time & 0x1f)];
+				time >>>= 5;
+			}
+			// 80 random bits in 16 characters: high 16 bits then low 64 bits
+			for (int i = 25; i >= 10; i--) {
+				ret[i] = CROCKFORD[(int) (low & 0x1f)];
+				low = (low >>> 5) | (high << 59);
+				high >>>= 5;
+			}
+			return new String(ret);
+		}
+	}
+
+}
@@ -0,0 +1,638 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.UpdateResult;
+
+import fr.uha.ensisa.ff.todo_auto.log.Log;
+
+/**
+ * Stores a list and its tasks in a single document of the "todolists" collection,
+ * so that loading a list is a point read on _id.
+ *
+ * A list document looks like
+ * {_id: "l1", list: "l1", owner: "user", name: "List 1", def: false, bucket: 0, tail: 0, count: 2, size: 120,
+ *  tasks: [{id: "t1", name: "name task 1", done: false}, ...]}.
+ * The default list of a user is stored the same way, with def: true and an _id derived from the user name.
+ *
+ * When the head document reaches maxTasksPerDocument tasks or an estimated maxDocumentBytes,
+ * new tasks go to bucket documents {_id: "l1#1", list: "l1", owner: "user", def: false, bucket: 1, ...}
+ * and the head's tail field points to the last bucket.
+ * The size field is an upper bound (renames and deletions move it by the estimates of the names involved,
+ * which overestimate what the pushes added), so the guard is conservative.
+ *
+ * The version of the tasks of a list is a version field of its head, incremented after each task write
+ * (whichever bucket it went to); the version of the lists of a user is a listsVersion field of the user document.
+ * As in MongoDAO, versions are also bumped after failed writes, which may have been applied.
+ */
+public class ListDocumentMongoDAO implements TodoDAO, TodoChangeSource {
+
+	private static final Log log = Log.get(ListDocumentMongoDAO.class);
+
+	public static final int DEFAULT_MAX_TASKS_PER_DOCUMENT = 1000;
+	/** A quarter of the 16MB BSON limit, leaving room for the estimation error of taskSize. */
+	public static final int DEFAULT_MAX_DOCUMENT_BYTES = 4 * 1024 * 1024;
+
+	private static final int TASK_OVERHEAD_BYTES = 64;
+	private static final int MIGRATION_BATCH_SIZE = 100;
+	/** _id of the record of the migration to this layout in the "migrations" collection */
+	private static final String MIGRATION = "todolists";
+
+	private MongoClient client;
+	private final MongoDatabase database;
+	private final MongoCollection<Document> lists;
+	private final MongoCollection<RawBsonDocument> buckets;
+	private final MongoCollection<ListView> listViews;
+	private final int maxTasksPerDocument;
+	private final int maxDocumentBytes;
+	private final IdGenerator ids;
+	private final MongoConfig config;
+
+	public ListDocumentMongoDAO(String uri) {
+		this(uri, "todo", DEFAULT_MAX_TASKS_PER_DOCUMENT, DEFAULT_MAX_DOCUMENT_BYTES);
+	}
+
+	public ListDocumentMongoDAO(String uri, String databaseName, int maxTasksPerDocument, int maxDocumentBytes) {
+		this(uri, databaseName, maxTasksPerDocument, maxDocumentBytes, IdGenerator.OBJECT_ID);
+	}
+
+	public ListDocumentMongoDAO(String uri, String databaseName, int maxTasksPerDocument, int maxDocumentBytes, IdGenerator ids) {
+		this(MongoConfig.of(uri, databaseName), maxTasksPerDocument, maxDocumentBytes, ids);
+	}
+
+	/**
+	 * Profiles only apply to the operations on users: a task write touches a head and a bucket,
+	 * which must not be acknowledged differently, so they use the default profile.
+	 */
+	public ListDocumentMongoDAO(MongoConfig config, int maxTasksPerDocument, int maxDocumentBytes, IdGenerator ids) {
+		this.ids = ids;
+		this.config = config;
+		this.maxTasksPerDocument = maxTasksPerDocument;
+		this.maxDocumentBytes = maxDocumentBytes;
+		client = MongoClients.create(config.toClientSettings());
+		database = client.getDatabase(config.getDatabase());
+		lists = database.getCollection("todolists");
+		CodecRegistry views = CodecRegistries.fromRegistries(
+				CodecRegistries.fromCodecs(new ViewCodecs.ListViewCodec()),
+				MongoClientSettings.getDefaultCodecRegistry());
+		buckets = database.getCollection("todolists", RawBsonDocument.class);
+		listViews = database.withCodecRegistry(views).getCollection("todolists", ListView.class);
+
+		// Enforcing connection is up and running
+		Bson command = new BsonDocument("ping", new BsonInt64(1));
+		Document commandResult = database.runCommand(command);
+		log.info("Reached MongoDB: {}", commandResult);
+
+		ensureIndexes();
+		migrateLegacyLayout();
+	}
+
+	private void ensureIndexes() {
+		lists.createIndex(Indexes.ascending("owner", "def", "bucket"), new IndexOptions().name("owner_def_bucket"));
+		lists.createIndex(Indexes.ascending("list", "bucket"), new IndexOptions().name("list_bucket"));
+		lists.createIndex(Indexes.ascending("list", "tasks.id"), new IndexOptions().name("list_taskId"));
+	}
+
+	private static String defaultListId(String user) {
+		return user + "#default";
+	}
+
+	private static String bucketId(String listId, int bucket) {
+		return bucket == 0 ? listId : listId + '#' + bucket;
+	}
+
+	private static int taskSize(String name) {
+		// 3 bytes per char is the UTF-8 worst case for the BMP
+		return TASK_OVERHEAD_BYTES + 3 * name.length();
+	}
+
+	/**
+	 * Pulls the task out of its bucket and takes its taskSize estimate off the size, in a single write
+	 * (an update pipeline, MongoDB 4.2+). The estimate counts code points where taskSize counts chars,
+	 * so it never takes off more than was added: the size stays an upper bound.
+	 */
+	private static List<Bson> pullTask(String taskId) {
+		Document removed = new Document("$filter", new Document("input", "$tasks")
+				.append("cond", new Document("$eq", Arrays.asList("$$this.id", new Document("$literal", taskId)))));
+		Document nameLength = new Document("$strLenCP", new Document("$ifNull", Arrays.asList("$$this.name", "")));
+		Document removedSize = new Document("$sum", new Document("$map", new Document("input", removed)
+				.append("in", new Document("$add", Arrays.asList(TASK_OVERHEAD_BYTES, new Document("$multiply", Arrays.asList(3, nameLength)))))));
+		return List.of(new Document("$set", new Document()
+				.append("tasks", new Document("$filter", new Document("input", "$tasks")
+						.append("cond", new Document("$ne", Arrays.asList("$$this.id", new Document("$literal", taskId))))))
+				.append("count", new Document("$subtract", Arrays.asList("$count", new Document("$size", removed))))
+				.append("size", new Document("$subtract", Arrays.asList("$size", removedSize)))));
+	}
+
+	/**
+	 * Renames the task and moves the size by the difference between the estimates of the new and the old name,
+	 * in a single write as pullTask.
+	 */
+	private static List<Bson> renameTask(String taskId, String newName) {
+		Document matches = new Document("$eq", Arrays.asList("$$this.id", new Document("$literal", taskId)));
+		Document renamed = new Document("$filter", new Document("input", "$tasks").append("cond", matches));
+		Document oldLength = new Document("$strLenCP", new Document("$ifNull", Arrays.asList("$$this.name", "")));
+		Document growth = new Document("$sum", new Document("$map", new Document("input", renamed)
+				.append("in", new Document("$multiply", Arrays.asList(3, new Document("$subtract", Arrays.asList(newName.length(), oldLength)))))));
+		Document name = new Document("$mergeObjects", Arrays.asList("$$this", new Document("name", new Document("$literal", newName))));
+		return List.of(new Document("$set", new Document()
+				.append("tasks", new Document("$map", new Document("input", "$tasks")
+						.append("in", new Document("$cond", Arrays.asList(matches, name, "$$this")))))
+				.append("size", new Document("$add", Arrays.asList("$size", growth)))));
+	}
+
+	private static Bson ownedHead(String user, String listId) {
+		return and(eq("_id", listId), eq("owner", user));
+	}
+
+	private static Bson ownedTask(String user, String listId, String taskId) {
+		return and(eq("list", listId), eq("owner", user), eq("tasks.id", taskId));
+	}
+
+	private static UpdateOptions taskFilter(String taskId) {
+		return new UpdateOptions().arrayFilters(Arrays.asList(eq("t.id", taskId)));
+	}
+
+	@Override
+	public AutoCloseable watchChanges(Consumer<TodoChange> listener) {
+		return new MongoChangeWatcher<>(this.database, Arrays.asList("users", "todolists"), event -> {
+			if (event.getDocumentKey() == null)
+				return null;
+			String id = event.getDocumentKey().getString("_id").getValue();
+			if ("users".equals(event.getNamespace().getCollectionName()))
+				return MongoDAO.userChange(event, id);
+			Document doc = event.getFullDocument() != null ? event.getFullDocument() : event.getFullDocumentBeforeChange();
+			if (doc == null)
+				return new TodoChange(TodoChange.Type.TASK, null, null, null);
+			String owner = doc.getString("owner");
+			if (doc.getBoolean("def", false))
+				return new TodoChange(TodoChange.Type.TASK, owner, null, null);
+			// Either the list itself or its tasks changed, a list change covers both
+			String listId = doc.getString("list");
+			return new TodoChange(TodoChange.Type.LIST, owner, listId, listId);
+		}, listener, TodoChange.ALL);
+	}
+
+	@Override
+	public void close() throws Exception {
+		if (this.client != null) {
+			this.client.close();
+			this.client = null;
+		}
+	}
+
+	private MongoCollection<Document> users(String operation) {
+		return this.config.profile(operation).apply(this.database.getCollection("users"));
+	}
+
+	@Override
+	public void registerUser(String user, String password) throws UserAlreadyExistsException {
+		Document userDoc = new Document().append("_id", user).append("pwd", password);
+		try {
+			users("registerUser").insertOne(userDoc);
+		} catch (MongoWriteException error) {
+			if (error.getError().getCategory() == ErrorCategory.DUPLICATE_KEY)
+				throw new UserAlreadyExistsException(user);
+			throw error;
+		}
+	}
+
+	@Override
+	public String getUserPassword(String user) throws UnknownUserException {
+		Document userDoc = users("getUserPassword").find(eq("_id", user))
+				.projection(fields(include("pwd"), excludeId())).first();
+		if (userDoc == null)
+			throw new UnknownUserException(user);
+		return userDoc.getString("pwd");
+	}
+
+	/**
+	 * @return the tasks of the list in insertion order, or null if the list doesn't exist
+	 */
+	private List<TaskView> loadTasks(String user, String listId) {
+		RawBsonDocument raw = buckets.find(ownedHead(user, listId)).projection(include("tasks", "tail")).first();
+		if (raw == null)
+			return null;
+		TaskBucket head = raw.decode(BUCKET_DECODER);
+		if (head.tail() == 0)
+			return head.tasks();
+		List<TaskView> res = new ArrayList<>(head.tasks());
+		for (RawBsonDocument bucket : buckets.find(and(eq("list", listId), eq("owner", user), gt("bucket", 0)))
+				.projection(include("tasks")).sort(Sorts.ascending("bucket")))
+			res.addAll(bucket.decode(BUCKET_DECODER).tasks());
+		return res;
+	}
+
+	private record TaskBucket(List<TaskView> tasks, int tail) {
+	}
+
+	private static final TaskBucketDecoder BUCKET_DECODER = new TaskBucketDecoder();
+
+	/**
+	 * Decodes the tasks array (and tail) of a list document straight into views.
+	 */
+	private static class TaskBucketDecoder implements Decoder<TaskBucket> {
+
+		private final ViewCodecs.TaskViewCodec taskCodec = new ViewCodecs.TaskViewCodec("id");
+
+		@Override
+		public TaskBucket decode(BsonReader reader, DecoderContext decoderContext) {
+			List<TaskView> tasks = new ArrayList<>();
+			int tail = 0;
+			reader.readStartDocument();
+			while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+				String field = reader.readName();
+				if (field.equals("tasks")) {
+					reader.readStartArray();
+					while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+						tasks.add(taskCodec.decode(reader, decoderContext));
+					reader.readEndArray();
+				} else if (field.equals("tail")) {
+					tail = reader.readInt32();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.readEndDocument();
+			return new TaskBucket(tasks, tail);
+		}
+	}
+
+	/**
+	 * Pushes the task into the tail bucket of the list.
+	 * The push upserts the bucket, so a full bucket (not matched by the count / size guard) shows up
+	 * as a duplicate key on its _id, in which case the tail is moved to a new bucket.
+	 * The head of a regular list is never upserted, which would bring back a list deleted meanwhile
+	 * as a nameless one: a full one shows up as no match.
+	 * @return null if the list was deleted meanwhile
+	 */
+	private String pushTask(String user, String listId, boolean def, int tail, String taskName) {
+		String taskId = this.ids.nextId();
+		Document task = new Document("id", taskId).append("name", taskName).append("done", false);
+		int size = taskSize(taskName);
+		while (true) {
+			List<Bson> update = new ArrayList<>();
+			update.add(Updates.push("tasks", task));
+			update.add(Updates.inc("count", 1));
+			update.add(Updates.inc("size", size));
+			update.add(Updates.setOnInsert("list", listId));
+			update.add(Updates.setOnInsert("bucket", tail));
+			update.add(Updates.setOnInsert("def", def));
+			if (tail == 0)
+				// Only the default list head can be created here, regular heads exist since createList
+				update.add(Updates.setOnInsert("tail", 0));
+			Bson filter = and(eq("_id", bucketId(listId, tail)), eq("owner", user),
+					lt("count", this.maxTasksPerDocument), lt("size", this.maxDocumentBytes - size));
+			boolean upsert = def || tail > 0;
+			try {
+				if (lists.updateOne(filter, Updates.combine(update), new UpdateOptions().upsert(upsert)).getMatchedCount() > 0 || upsert)
+					return taskId;
+			} catch (MongoWriteException x) {
+				if (x.getError().getCategory() != ErrorCategory.DUPLICATE_KEY)
+					throw x;
+			}
+			if (lists.updateOne(and(ownedHead(user, listId), eq("tail", tail)), Updates.inc("tail", 1)).getMatchedCount() == 0
+					&& lists.find(ownedHead(user, listId)).projection(include("_id")).first() == null)
+				return null;
+			tail++;
+		}
+	}
+
+	private void bumpTasksVersion(String listId) {
+		lists.updateOne(eq("_id", listId), Updates.inc(MongoDAO.LIST_VERSION, 1L));
+	}
+
+	private void bumpListsVersion(String user) {
+		this.database.getCollection("users").updateOne(eq("_id", user), Updates.inc(MongoDAO.LISTS_VERSION, 1L));
+	}
+
+	@Override
+	public long getListsVersion(String user) throws UnknownUserException {
+		Document doc = this.database.getCollection("users").find(eq("_id", user)).projection(include(MongoDAO.LISTS_VERSION)).first();
+		if (doc == null)
+			throw new UnknownUserException(user);
+		return MongoDAO.version(doc, MongoDAO.LISTS_VERSION);
+	}
+
+	@Override
+	public long getTasksVersion(String user, String listId) throws UnknownUserException, UnknownListException {
+		Document head = lists.find(ownedHead(user, listId == null ? defaultListId(user) : listId))
+				.projection(include(MongoDAO.LIST_VERSION)).first();
+		if (head == null && listId != null)
+			throw new UnknownListException(user, listId);
+		// The head of the default list only exists once it got a task
+		return head == null ? 0 : MongoDAO.version(head, MongoDAO.LIST_VERSION);
+	}
+
+	@Override
+	public void updateUserPassword(String user, String password) throws UnknownUserException {
+		if (users("updateUserPassword").updateOne(eq("_id", user), Updates.set("pwd", password)).getMatchedCount() == 0)
+			throw new UnknownUserException(user);
+	}
+
+	@Override
+	public String createDefaultTask(String user, String taskName) throws UnknownUserException {
+		String listId = defaultListId(user);
+		Document head = lists.find(ownedHead(user, listId)).projection(include("tail")).first();
+		return MongoDAO.bumpAfter(() -> pushTask(user, listId, true, head == null ? 0 : head.getInteger("tail", 0), taskName),
+				() -> bumpTasksVersion(listId));
+	}
+
+	@Override
+	public List<TaskView> getDefaultTasks(String user) throws UnknownUserException {
+		List<TaskView> res = loadTasks(user, defaultListId(user));
+		return res == null ? new ArrayList<>() : res;
+	}
+
+	@Override
+	public void setDefaultTaskDone(String user, String taskId, boolean done) throws UnknownUserException {
+		MongoDAO.bumpAfter(() -> lists.updateOne(ownedTask(user, defaultListId(user), taskId), Updates.set("tasks.$[t].done", done), taskFilter(taskId)),
+				() -> bumpTasksVersion(defaultListId(user)));
+	}
+
+	@Override
+	public void renameDefaultTask(String user, String taskId, String newName) throws UnknownUserException {
+		MongoDAO.bumpAfter(() -> lists.updateOne(ownedTask(user, defaultListId(user), taskId), renameTask(taskId, newName)),
+				() -> bumpTasksVersion(defaultListId(user)));
+	}
+
+	@Override
+	public void deleteDefaultTask(String user, String taskId) throws UnknownUserException {
+		MongoDAO.bumpAfter(() -> lists.updateOne(ownedTask(user, defaultListId(user), taskId), pullTask(taskId)),
+				() -> bumpTasksVersion(defaultListId(user)));
+	}
+
+	@Override
+	public String createList(String user, String name) throws UnknownUserException {
+		String listId = this.ids.nextId();
+		Document head = new Document("_id", listId).append("list", listId).append("owner", user).append("name", name)
+				.append("def", false).append("bucket", 0).append("tail", 0).append("count", 0).append("size", 0)
+				.append("tasks", new ArrayList<>());
+		MongoDAO.bumpAfter(() -> lists.insertOne(head), () -> bumpListsVersion(user));
+		return listId;
+	}
+
+	@Override
+	public List<ListView> getLists(String user) throws UnknownUserException {
+		return listViews.find(and(eq("owner", user), eq("def", false), eq("bucket", 0)))
+				.projection(include("_id", "name")).into(new ArrayList<>());
+	}
+
+	@Override
+	public void deleteList(String user, String listId) throws UnknownUserException, UnknownListException {
+		// Buckets written before they all carried def have none
+		if (MongoDAO.bumpAfter(() -> lists.deleteMany(and(eq("list", listId), eq("owner", user), ne("def", true))),
+				() -> bumpListsVersion(user)).getDeletedCount() == 0)
+			throw new UnknownListException(user, listId);
+	}
+
+	@Override
+	public void renameList(String user, String listId, String newName)
+			throws UnknownUserException, UnknownListException {
+		if (MongoDAO.bumpAfter(() -> lists.updateOne(and(ownedHead(user, listId), eq("def", false)), Updates.set("name", newName)),
+				() -> bumpListsVersion(user)).getMatchedCount() == 0)
+			throw new UnknownListException(user, listId);
+	}
+
+	@Override
+	public List<TaskView> getTasksOfList(String user, String listId)
+			throws UnknownUserException, UnknownListException {
+		List<TaskView> res = loadTasks(user, listId);
+		if (res == null)
+			throw new UnknownListException(user, listId);
+		return res;
+	}
+
+	@Override
+	public String createListTask(String user, String listId, String taskName)
+			throws UnknownUserException, UnknownListException {
+		Document head = lists.find(and(ownedHead(user, listId), eq("def", false))).projection(include("tail")).first();
+		if (head == null)
+			throw new UnknownListException(user, listId);
+		String ret = MongoDAO.bumpAfter(() -> pushTask(user, listId, false, head.getInteger("tail", 0), taskName),
+				() -> bumpTasksVersion(listId));
+		if (ret == null)
+			throw new UnknownListException(user, listId);
+		return ret;
+	}
+
+	@Override
+	public void renameListTask(String user, String listId, String taskId, String newTaskName)
+			throws UnknownUserException, UnknownListException {
+		UpdateResult res = MongoDAO.bumpAfter(() -> lists.updateOne(ownedTask(user, listId, taskId), renameTask(taskId, newTaskName)),
+				() -> bumpTasksVersion(listId));
+		if (res.getMatchedCount() == 0)
+			throw new UnknownListException(user, listId);
+	}
+
+	@Override
+	public void setListTaskDone(String user, String listId, String taskId, boolean done)
+			throws UnknownUserException, UnknownListException {
+		UpdateResult res = MongoDAO.bumpAfter(() -> lists.updateOne(ownedTask(user, listId, taskId), Updates.set("tasks.$[t].done", done), taskFilter(taskId)),
+				() -> bumpTasksVersion(listId));
+		if (res.getMatchedCount() == 0)
+			throw new UnknownListException(user, listId);
+	}
+
+	@Override
+	public void deleteListTask(String user, String listId, String taskId)
+			throws UnknownUserException, UnknownListException {
+		UpdateResult res = MongoDAO.bumpAfter(() -> lists.updateOne(ownedTask(user, listId, taskId), pullTask(taskId)),
+				() -> bumpTasksVersion(listId));
+		if (res.getMatchedCount() == 0)
+			throw new UnknownListException(user, listId);
+	}
+
+	/**
+	 * Copies the "list" and "tasks" collections of the one-document-per-task layout (see {@link MongoDAO})
+	 * into "todolists", if the latter is empty.
+	 * Tasks are read in (owner, listId, _id) order, the order of the owner_listId index of {@link MongoDAO},
+	 * so that each list is written bucket by bucket while keeping at most one bucket in memory.
+	 * The ownership backfill of {@link MongoDAO} runs first: only documents with an owner can be placed,
+	 * those it leaves without one (no such user) are not migrated, and counted in the log.
+	 * Legacy documents are left in place; task ids are kept so that clients don't notice the switch.
+	 *
+	 * The migration is recorded in the "migrations" collection, {_id: "todolists", state: "running" | "done"},
+	 * so that one interrupted by a failure resumes at the next startup, though "todolists" is no longer empty:
+	 * the documents are computed again and those already there are kept (duplicate keys are ignored).
+	 * A "todolists" collection with documents and no record was migrated before records, or never needed it.
+	 */
+	public void migrateLegacyLayout() {
+		MongoCollection<Document> migrations = database.getCollection("migrations");
+		Document record = migrations.find(eq("_id", MIGRATION)).first();
+		if (record != null && "done".equals(record.getString("state")))
+			return;
+		if (record == null && lists.estimatedDocumentCount() > 0) {
+			setMigrationState(migrations, "done");
+			return;
+		}
+		if (record == null)
+			setMigrationState(migrations, "running");
+		else
+			log.warn("Resuming the interrupted migration to todolists");
+		migrate();
+		setMigrationState(migrations, "done");
+	}
+
+	private static void setMigrationState(MongoCollection<Document> migrations, String state) {
+		migrations.replaceOne(eq("_id", MIGRATION), new Document("_id", MIGRATION).append("state", state),
+				new ReplaceOptions().upsert(true));
+	}
+
+	private void migrate() {
+		MongoCollection<Document> legacyLists = database.getCollection("list");
+		MongoCollection<Document> legacyTasks = database.getCollection("tasks");
+		MongoDAO.migrateOwnership(database);
+		long ownerless = legacyLists.countDocuments(exists("owner", false)) + legacyTasks.countDocuments(exists("owner", false));
+		if (ownerless > 0)
+			log.warn("{} legacy documents without a known owner are not migrated to todolists", ownerless);
+
+		Map<String, Document> heads = new HashMap<>();
+		for (Document list : legacyLists.find(exists("owner"))) {
+			String id = list.getString("_id");
+			heads.put(id, new Document("_id", id).append("list", id).append("owner", list.getString("owner"))
+					.append("name", list.getString("name")).append("def", false));
+		}
+		if (heads.isEmpty() && legacyTasks.find(exists("owner")).first() == null)
+			return;
+		legacyTasks.createIndex(Indexes.ascending("owner", "listId", "_id"), new IndexOptions().name("owner_listId"));
+
+		LegacyListWriter writer = new LegacyListWriter();
+		for (Document task : legacyTasks.find(exists("owner")).sort(Sorts.ascending("owner", "listId", "_id")).allowDiskUse(true)) {
+			String owner = task.getString("owner");
+			String legacyListId = task.getString("listId");
+			String listId = "default".equals(legacyListId) ? defaultListId(owner) : legacyListId;
+			if (!listId.equals(writer.listId)) {
+				writer.finish();
+				Document head = "default".equals(legacyListId) ?
+						new Document("_id", listId).append("list", listId).append("owner", owner).append("def", true) :
+						heads.remove(listId);
+				if (head == null)
+					// Task of a deleted list
+					continue;
+				writer.start(listId, head);
+			}
+			Object done = task.get("done");
+			writer.add(new Document("id", task.getString("_id")).append("name", task.getString("name"))
+					.append("done", done instanceof Boolean ? done : Boolean.parseBoolean(String.valueOf(done))));
+		}
+		writer.finish();
+		for (Document emptyHead : heads.values()) {
+			writer.start(emptyHead.getString("_id"), emptyHead);
+			writer.finish();
+		}
+		writer.flush();
+		log.info("Migrated {} tasks of {} lists to todolists", writer.migratedTasks, writer.migratedLists);
+	}
+
+	private class LegacyListWriter {
+		private final List<Document> pending = new ArrayList<>();
+		private String listId;
+		private Document head, current;
+		private int bucket, count, size;
+		private int migratedLists, migratedTasks;
+
+		void start(String listId, Document head) {
+			this.listId = listId;
+			this.head = head;
+			this.bucket = 0;
+			open(head);
+		}
+
+		private void open(Document doc) {
+			this.current = doc.append("bucket", bucket).append("tasks", new ArrayList<Document>());
+			this.count = 0;
+			this.size = 0;
+		}
+
+		void add(Document task) {
+			int taskSize = taskSize(task.getString("name"));
+			if (count >= maxTasksPerDocument || size + taskSize >= maxDocumentBytes) {
+				close();
+				bucket++;
+				open(new Document("_id", bucketId(listId, bucket)).append("list", listId).append("owner", head.getString("owner"))
+						.append("def", head.getBoolean("def")));
+			}
+			current.getList("tasks", Document.class).add(task);
+			count++;
+			size += taskSize;
+			migratedTasks++;
+		}
+
+		private void close() {
+			current.append("count", count).append("size", size);
+			if (current != head)
+				enqueue(current);
+		}
+
+		void finish() {
+			if (listId == null)
+				return;
+			close();
+			enqueue(head.append("tail", bucket));
+			migratedLists++;
+			listId = null;
+		}
+
+		private void enqueue(Document doc) {
+			pending.add(doc);
+			if (pending.size() >= MIGRATION_BATCH_SIZE)
+				flush();
+		}
+
+		/**
+		 * Unordered, so that the documents of a resumed migration that were already written don't stop the others.
+		 */
+		void flush() {
+			if (pending.isEmpty())
+				return;
+			try {
+				lists.insertMany(pending, new InsertManyOptions().ordered(false));
+			} catch (MongoBulkWriteException x) {
+				if (x.getWriteConcernError() != null)
+					throw x;
+				for (BulkWriteError error : x.getWriteErrors())
+					if (error.getCategory() != ErrorCategory.DUPLICATE_KEY)
+						throw x;
+			}
+			pending.clear();
+		}
+	}
+
+}
@@ -0,0 +1,39 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * A list as returned by {@link TodoDAO#getLists(String)}: {id: "l1Id", name : "List 1 name"}.
+ */
+@JsonSerialize(using = ListView.Serializer.class)
+public record ListView(String id, String name) {
+
+	public static class Serializer extends StdSerializer<ListView> {
+
+		private static final long serialVersionUID = 1L;
+
+		private static final SerializedString ID = new SerializedString("id");
+		private static final SerializedString NAME = new SerializedString("name");
+
+		public Serializer() {
+			super(ListView.class);
+		}
+
+		@Override
+		public void serialize(ListView list, JsonGenerator json, SerializerProvider provider) throws IOException {
+			json.writeStartObject(list);
+			json.writeFieldName(ID);
+			json.writeString(list.id);
+			json.writeFieldName(NAME);
+			json.writeString(list.name);
+			json.writeEndObject();
+		}
+	}
+
+}
@@ -0,0 +1,377 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import fr.uha.ensisa.ff.todo_auto.metrics.LatencyHistogram;
+import fr.uha.ensisa.ff.todo_auto.metrics.MetricsRegistry;
+
+/**
+ * Times every call to the wrapped DAO: todo_dao_duration_seconds and todo_dao_errors_total, by method.
+ * Calls that throw are timed too. streamTasks is timed until the last task was handed to the sink,
+ * which includes writing them to the response.
+ */
+public class MeteredTodoDAO extends ForwardingTodoDAO {
+
+	private static final class Operation {
+		final LatencyHistogram latency;
+		final LongAdder errors;
+
+		Operation(MetricsRegistry metrics, String method) {
+			latency = metrics.histogram("todo_dao_duration_seconds", "Duration of the TodoDAO calls", "method", method);
+			errors = metrics.counter("todo_dao_errors", "TodoDAO calls that threw", "method", method);
+		}
+	}
+
+	private final Operation registerUser;
+	private final Operation getUserPassword;
+	private final Operation updateUserPassword;
+	private final Operation createDefaultTask;
+	private final Operation getDefaultTasks;
+	private final Operation setDefaultTaskDone;
+	private final Operation renameDefaultTask;
+	private final Operation deleteDefaultTask;
+	private final Operation createList;
+	private final Operation getLists;
+	private final Operation deleteList;
+	private final Operation renameList;
+	private final Operation getTasksOfList;
+	private final Operation createListTask;
+	private final Operation renameListTask;
+	private final Operation setListTaskDone;
+	private final Operation deleteListTask;
+	private final Operation getListsVersion;
+	private final Operation getTasksVersion;
+	private final Operation getTasksPage;
+	private final Operation getBootstrap;
+	private final Operation streamTasks;
+	private final Operation applyBatch;
+
+	public MeteredTodoDAO(TodoDAO delegate, MetricsRegistry metrics) {
+		super(delegate);
+		this.registerUser = new Operation(metrics, "registerUser");
+		this.getUserPassword = new Operation(metrics, "getUserPassword");
+		this.updateUserPassword = new Operation(metrics, "updateUserPassword");
+		this.createDefaultTask = new Operation(metrics, "createDefaultTask");
+		this.getDefaultTasks = new Operation(metrics, "getDefaultTasks");
+		this.setDefaultTaskDone = new Operation(metrics, "setDefaultTaskDone");
+		this.renameDefaultTask = new Operation(metrics, "renameDefaultTask");
+		this.deleteDefaultTask = new Operation(metrics, "deleteDefaultTask");
+		this.createList = new Operation(metrics, "createList");
+		this.getLists = new Operation(metrics, "getLists");
+		this.deleteList = new Operation(metrics, "deleteList");
+		this.renameList = new Operation(metrics, "renameList");
+		this.getTasksOfList = new Operation(metrics, "getTasksOfList");
+		this.createListTask = new Operation(metrics, "createListTask");
+		this.renameListTask = new Operation(metrics, "renameListTask");
+		this.setListTaskDone = new Operation(metrics, "setListTaskDone");
+		this.deleteListTask = new Operation(metrics, "deleteListTask");
+		this.getListsVersion = new Operation(metrics, "getListsVersion");
+		this.getTasksVersion = new Operation(metrics, "getTasksVersion");
+		this.getTasksPage = new Operation(metrics, "getTasksPage");
+		this.getBootstrap = new Operation(metrics, "getBootstrap");
+		this.streamTasks = new Operation(metrics, "streamTasks");
+		this.applyBatch = new Operation(metrics, "applyBatch");
+	}
+
+	@Override
+	public void registerUser(String user, String password) throws UserAlreadyExistsException {
+		long start = System.nanoTime();
+		try {
+			delegate.registerUser(user, password);
+		} catch (Throwable x) {
+			registerUser.errors.increment();
+			throw x;
+		} finally {
+			registerUser.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public String getUserPassword(String user) throws UnknownUserException {
+		long start = System.nanoTime();
+		try {
+			return delegate.getUserPassword(user);
+		} catch (Throwable x) {
+			getUserPassword.errors.increment();
+			throw x;
+		} finally {
+			getUserPassword.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void updateUserPassword(String user, String password) throws UnknownUserException {
+		long start = System.nanoTime();
+		try {
+			delegate.updateUserPassword(user, password);
+		} catch (Throwable x) {
+			updateUserPassword.errors.increment();
+			throw x;
+		} finally {
+			updateUserPassword.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public String createDefaultTask(String user, String taskName) throws UnknownUserException {
+		long start = System.nanoTime();
+		try {
+			return delegate.createDefaultTask(user, taskName);
+		} catch (Throwable x) {
+			createDefaultTask.errors.increment();
+			throw x;
+		} finally {
+			createDefaultTask.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public List<TaskView> getDefaultTasks(String user) throws UnknownUserException {
+		long start = System.nanoTime();
+		try {
+			return delegate.getDefaultTasks(user);
+		} catch (Throwable x) {
+			getDefaultTasks.errors.increment();
+			throw x;
+		} finally {
+			getDefaultTasks.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void setDefaultTaskDone(String user, String taskId, boolean done) throws UnknownUserException {
+		long start = System.nanoTime();
+		try {
+			delegate.setDefaultTaskDone(user, taskId, done);
+		} catch (Throwable x) {
+			setDefaultTaskDone.errors.increment();
+			throw x;
+		} finally {
+			setDefaultTaskDone.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void renameDefaultTask(String user, String taskId, String newName) throws UnknownUserException {
+		long start = System.nanoTime();
+		try {
+			delegate.renameDefaultTask(user, taskId, newName);
+		} catch (Throwable x) {
+			renameDefaultTask.errors.increment();
+			throw x;
+		} finally {
+			renameDefaultTask.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void deleteDefaultTask(String user, String taskId) throws UnknownUserException {
+		long start = System.nanoTime();
+		try {
+			delegate.deleteDefaultTask(user, taskId);
+		} catch (Throwable x) {
+			deleteDefaultTask.errors.increment();
+			throw x;
+		} finally {
+			deleteDefaultTask.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public String createList(String user, String name) throws UnknownUserException {
+		long start = System.nanoTime();
+		try {
+			return delegate.createList(user, name);
+		} catch (Throwable x) {
+			createList.errors.increment();
+			throw x;
+		} finally {
+			createList.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public List<ListView> getLists(String user) throws UnknownUserException {
+		long start = System.nanoTime();
+		try {
+			return delegate.getLists(user);
+		} catch (Throwable x) {
+			getLists.errors.increment();
+			throw x;
+		} finally {
+			getLists.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void deleteList(String user, String listId) throws UnknownUserException, UnknownListException {
+		long start = System.nanoTime();
+		try {
+			delegate.deleteList(user, listId);
+		} catch (Throwable x) {
+			deleteList.errors.increment();
+			throw x;
+		} finally {
+			deleteList.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void renameList(String user, String listId, String newName) throws UnknownUserException, UnknownListException {
+		long start = System.nanoTime();
+		try {
+			delegate.renameList(user, listId, newName);
+		} catch (Throwable x) {
+			renameList.errors.increment();
+			throw x;
+		} finally {
+			renameList.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public List<TaskView> getTasksOfList(String user, String listId) throws UnknownUserException, UnknownListException {
+		long start = System.nanoTime();
+		try {
+			return delegate.getTasksOfList(user, listId);
+		} catch (Throwable x) {
+			getTasksOfList.errors.increment();
+			throw x;
+		} finally {
+			getTasksOfList.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public String createListTask(String user, String listId, String taskName) throws UnknownUserException, UnknownListException {
+		long start = System.nanoTime();
+		try {
+			return delegate.createListTask(user, listId, taskName);
+		} catch (Throwable x) {
+			createListTask.errors.increment();
+			throw x;
+		} finally {
+			createListTask.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void renameListTask(String user, String listId, String taskId, String newTaskName) throws UnknownUserException, UnknownListException {
+		long start = System.nanoTime();
+		try {
+			delegate.renameListTask(user, listId, taskId, newTaskName);
+		} catch (Throwable x) {
+			renameListTask.errors.increment();
+			throw x;
+		} finally {
+			renameListTask.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void setListTaskDone(String user, String listId, String taskId, boolean done) throws UnknownUserException, UnknownListException {
+		long start = System.nanoTime();
+		try {
+			delegate.setListTaskDone(user, listId, taskId, done);
+		} catch (Throwable x) {
+			setListTaskDone.errors.increment();
+			throw x;
+		} finally {
+			setListTaskDone.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void deleteListTask(String user, String listId, String taskId) throws UnknownUserException, UnknownListException {
+		long start = System.nanoTime();
+		try {
+			delegate.deleteListTask(user, listId, taskId);
+		} catch (Throwable x) {
+			deleteListTask.errors.increment();
+			throw x;
+		} finally {
+			deleteListTask.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public long getListsVersion(String user) throws UnknownUserException {
+		long start = System.nanoTime();
+		try {
+			return delegate.getListsVersion(user);
+		} catch (Throwable x) {
+			getListsVersion.errors.increment();
+			throw x;
+		} finally {
+			getListsVersion.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public long getTasksVersion(String user, String listId) throws UnknownUserException, UnknownListException {
+		long start = System.nanoTime();
+		try {
+			return delegate.getTasksVersion(user, listId);
+		} catch (Throwable x) {
+			getTasksVersion.errors.increment();
+			throw x;
+		} finally {
+			getTasksVersion.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public List<TaskView> getTasksPage(String user, String listId, String after, int limit) throws UnknownUserException, UnknownListException {
+		long start = System.nanoTime();
+		try {
+			return delegate.getTasksPage(user, listId, after, limit);
+		} catch (Throwable x) {
+			getTasksPage.errors.increment();
+			throw x;
+		} finally {
+			getTasksPage.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public Bootstrap getBootstrap(String user, String listId) throws UnknownUserException, UnknownListException {
+		long start = System.nanoTime();
+		try {
+			return delegate.getBootstrap(user, listId);
+		} catch (Throwable x) {
+			getBootstrap.errors.increment();
+			throw x;
+		} finally {
+			getBootstrap.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void streamTasks(String user, String listId, Consumer<TaskView> sink) throws UnknownUserException, UnknownListException {
+		long start = System.nanoTime();
+		try {
+			delegate.streamTasks(user, listId, sink);
+		} catch (Throwable x) {
+			streamTasks.errors.increment();
+			throw x;
+		} finally {
+			streamTasks.latency.recordSince(start);
+		}
+	}
+
+	@Override
+	public List<BatchResult> applyBatch(String user, List<BatchOperation> operations, boolean ordered) {
+		long start = System.nanoTime();
+		try {
+			return delegate.applyBatch(user, operations, ordered);
+		} catch (Throwable x) {
+			applyBatch.errors.increment();
+			throw x;
+		} finally {
+			applyBatch.latency.recordSince(start);
+		}
+	}
+
+}
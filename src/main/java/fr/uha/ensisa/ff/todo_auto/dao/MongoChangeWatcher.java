@@ -0,0 +1,171 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoInterruptedException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+
+import fr.uha.ensisa.ff.todo_auto.log.Log;
+
+/**
+ * Tails a database change stream restricted to some collections on a daemon thread,
+ * and hands every event, translated by a DAO specific mapper ({@link TodoChange}s, {@link TodoEvent}s),
+ * to a listener. Events the mapper translates to null are skipped.
+ *
+ * Deletes only carry the owner of the document when the collection has pre-images enabled
+ * (changeStreamPreAndPostImages), otherwise the mapper gets a null fullDocumentBeforeChange.
+ * Change streams need a replica set: on a standalone server the watcher logs it and stops.
+ *
+ * Other failures resume the stream after the last event seen, unless the oplog no longer holds it:
+ * the watcher then opens a new stream from the present, and hands the historyLost item (if any) to the
+ * listener, the events in between being lost. An event the mapper or the listener fails on is logged and skipped.
+ */
+public class MongoChangeWatcher<T> implements TodoEventSource.Feed {
+
+	private static final Log log = Log.get(MongoChangeWatcher.class);
+
+	/** "The $changeStream stage is only supported on replica sets" */
+	private static final int NOT_A_REPLICA_SET = 40573;
+	/** ChangeStreamHistoryLost, ChangeStreamFatalError: the resume token can no longer be resumed after */
+	private static final Set<Integer> CANNOT_RESUME = Set.of(286, 280);
+	private static final long RETRY_DELAY_MS = 1000;
+
+	private final MongoDatabase database;
+	private final List<String> collections;
+	private final Function<ChangeStreamDocument<Document>, T> mapper;
+	private final Consumer<T> listener;
+	private final T historyLost;
+	private final Thread thread;
+	private volatile boolean closed;
+	private volatile boolean live;
+	private volatile MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+	private BsonDocument resumeToken;
+
+	public MongoChangeWatcher(MongoDatabase database, List<String> collections,
+			Function<ChangeStreamDocument<Document>, T> mapper, Consumer<T> listener) {
+		this(database, collections, mapper, listener, null);
+	}
+
+	/**
+	 * @param historyLost handed to the listener when events were lost, null if it need not know
+	 */
+	public MongoChangeWatcher(MongoDatabase database, List<String> collections,
+			Function<ChangeStreamDocument<Document>, T> mapper, Consumer<T> listener, T historyLost) {
+		this.database = database;
+		this.collections = collections;
+		this.mapper = mapper;
+		this.listener = listener;
+		this.historyLost = historyLost;
+		this.thread = new Thread(this::run, "mongo-change-watcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	private void run() {
+		boolean lost = false;
+		while (!closed) {
+			try {
+				var stream = database.watch(Arrays.asList(Aggregates.match(Filters.in("ns.coll", collections))))
+						.fullDocument(FullDocument.UPDATE_LOOKUP)
+						.fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE);
+				if (resumeToken != null)
+					stream = stream.resumeAfter(resumeToken);
+				try (var c = stream.cursor()) {
+					this.cursor = c;
+					this.live = true;
+					if (lost) {
+						// Once the new stream is open, so that no write falls between it and what the listener reloads
+						lost = false;
+						if (historyLost != null)
+							deliver(historyLost);
+					}
+					while (!closed) {
+						ChangeStreamDocument<Document> event = c.next();
+						resumeToken = event.getResumeToken();
+						T change;
+						try {
+							change = mapper.apply(event);
+						} catch (RuntimeException x) {
+							log.error("Skipping change event {}", event.getResumeToken(), x);
+							continue;
+						}
+						if (change != null)
+							deliver(change);
+					}
+				}
+			} catch (MongoCommandException x) {
+				live = false;
+				if (x.getErrorCode() == NOT_A_REPLICA_SET) {
+					log.warn("Change streams unavailable, cross-node notifications disabled: {}", x.getErrorMessage());
+					return;
+				}
+				if (CANNOT_RESUME.contains(x.getErrorCode())) {
+					log.error("Change stream history lost, restarting from now: {}", x.getErrorMessage());
+					resumeToken = null;
+					lost = true;
+					continue;
+				}
+				retryLater(x);
+			} catch (MongoInterruptedException x) {
+				live = false;
+				return;
+			} catch (RuntimeException x) {
+				live = false;
+				if (closed)
+					return;
+				retryLater(x);
+			}
+		}
+	}
+
+	private void deliver(T change) {
+		try {
+			listener.accept(change);
+		} catch (RuntimeException x) {
+			log.error("Change listener failed on {}", change, x);
+		}
+	}
+
+	private void retryLater(Exception x) {
+		log.error("Change stream failed, resuming in {}ms: {}", RETRY_DELAY_MS, x.getMessage());
+		try {
+			Thread.sleep(RETRY_DELAY_MS);
+		} catch (InterruptedException e) {
+			closed = true;
+		}
+	}
+
+	/**
+	 * @return whether the stream is open: events are then delivered, those written while it was down
+	 * included (it resumes after the last one seen)
+	 */
+	@Override
+	public boolean isLive() {
+		return live;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		live = false;
+		var c = this.cursor;
+		if (c != null)
+			c.close();
+		thread.interrupt();
+	}
+
+}
@@ -0,0 +1,51 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+
+import fr.uha.ensisa.ff.todo_auto.metrics.LatencyHistogram;
+import fr.uha.ensisa.ff.todo_auto.metrics.MetricsRegistry;
+
+/**
+ * Latency of the commands sent by the Mongo clients it is given to (see {@link MongoConfig#withCommandListener}),
+ * by command name (find, insert, update, getMore...): todo_mongo_command_duration_seconds and
+ * todo_mongo_command_errors_total. The time is measured by the driver, from sending to decoding the reply,
+ * so it excludes the connection check out (see {@link MongoPoolStats}).
+ */
+public class MongoCommandStats implements CommandListener {
+
+	private final MetricsRegistry metrics;
+	private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+	public MongoCommandStats(MetricsRegistry metrics) {
+		this.metrics = metrics;
+	}
+
+	private LatencyHistogram latency(String command) {
+		LatencyHistogram ret = latencies.get(command);
+		if (ret == null)
+			ret = latencies.computeIfAbsent(command, c -> metrics.histogram("todo_mongo_command_duration_seconds",
+					"Duration of the MongoDB commands", "command", c));
+		return ret;
+	}
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event) {
+		latency(event.getCommandName()).record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+	}
+
+	@Override
+	public void commandFailed(CommandFailedEvent event) {
+		latency(event.getCommandName()).record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+		errors.computeIfAbsent(event.getCommandName(), c -> metrics.counter("todo_mongo_command_errors",
+				"MongoDB commands that failed", "command", c)).increment();
+	}
+
+}
@@ -0,0 +1,472 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.ConnectionPoolListener;
+
+/**
+ * Connection, pool and durability settings of the Mongo DAOs, read from todo.mongo.* keys.
+ * Each key is looked up as a system property (-Dtodo.mongo.maxPoolSize=200), then as an environment
+ * variable (TODO_MONGO_MAX_POOL_SIZE=200), then in the properties file given by -Dtodo.config / TODO_CONFIG.
+ *
+ * Keys: uri, database, maxPoolSize, minPoolSize, waitQueueTimeoutMs, connectTimeoutMs, socketTimeoutMs,
+ * maxConnectionIdleTimeMs, serverSelectionTimeoutMs, and the default profile: w, journal, wtimeoutMs, readPreference.
+ * planAudit (off, warn or strict, see {@link MongoPlanAudit}) and slowCommandMs (0 to disable, see
+ * {@link MongoSlowCommandLog}) report the queries that don't use their index.
+ * orphanIntervalMs (0 to disable), orphanBatchSize and orphanPauseMs pace the {@link MongoOrphanCollector}.
+ * Unset keys keep what the uri (or the driver) says; the pool defaults below apply when neither sets them.
+ *
+ * Profiles override the write concern and read preference per DAO operation, named after the {@link TodoDAO}
+ * method: todo.mongo.profile.setDefaultTaskDone.w=1, todo.mongo.profile.getLists.readPreference=secondaryPreferred.
+ * Version reads share the profile of the data they describe (getListsVersion that of getLists...), but a secondary
+ * may still lag behind the one that served the version: only relax the read preference of reads that can be stale.
+ */
+public final class MongoConfig {
+
+	public static final String PREFIX = "todo.mongo.";
+	public static final int DEFAULT_MAX_POOL_SIZE = 100;
+	public static final long DEFAULT_WAIT_QUEUE_TIMEOUT_MS = 2000;
+	public static final long DEFAULT_SLOW_COMMAND_MS = 100;
+	public static final long DEFAULT_ORPHAN_INTERVAL_MS = TimeUnit.HOURS.toMillis(6);
+	public static final int DEFAULT_ORPHAN_BATCH_SIZE = 500;
+	public static final long DEFAULT_ORPHAN_PAUSE_MS = 100;
+
+	/** Toggling a task is cheap to redo, an account is not */
+	private static final Map<String, Profile> DEFAULT_PROFILES = Map.of(
+			"registerUser", new Profile(WriteConcern.MAJORITY.withJournal(true), null),
+			"updateUserPassword", new Profile(WriteConcern.MAJORITY.withJournal(true), null),
+			"setDefaultTaskDone", new Profile(WriteConcern.W1, null),
+			"setListTaskDone", new Profile(WriteConcern.W1, null));
+
+	/** Operations that can have a profile */
+	public static final Set<String> OPERATIONS;
+	static {
+		Set<String> ops = new TreeSet<>();
+		for (Method m : TodoDAO.class.getMethods())
+			if (m.getDeclaringClass() == TodoDAO.class)
+				ops.add(m.getName());
+		OPERATIONS = Collections.unmodifiableSet(ops);
+	}
+
+	/**
+	 * Write concern and read preference of an operation, null members meaning the default ones.
+	 */
+	public record Profile(WriteConcern writeConcern, ReadPreference readPreference) {
+
+		static final Profile DEFAULT = new Profile(null, null);
+
+		public <T> MongoCollection<T> apply(MongoCollection<T> collection) {
+			if (writeConcern != null)
+				collection = collection.withWriteConcern(writeConcern);
+			if (readPreference != null)
+				collection = collection.withReadPreference(readPreference);
+			return collection;
+		}
+
+		public <T> com.mongodb.reactivestreams.client.MongoCollection<T> apply(com.mongodb.reactivestreams.client.MongoCollection<T> collection) {
+			if (writeConcern != null)
+				collection = collection.withWriteConcern(writeConcern);
+			if (readPreference != null)
+				collection = collection.withReadPreference(readPreference);
+			return collection;
+		}
+	}
+
+	private final String uri;
+	private final String database;
+	private final Integer maxPoolSize;
+	private final Integer minPoolSize;
+	private final Long waitQueueTimeoutMs;
+	private final Long connectTimeoutMs;
+	private final Long socketTimeoutMs;
+	private final Long maxConnectionIdleTimeMs;
+	private final Long serverSelectionTimeoutMs;
+	private final Profile defaultProfile;
+	private final Map<String, Profile> profiles;
+	private final MongoPlanAudit.Mode planAudit;
+	private final long slowCommandMs;
+	private final long orphanIntervalMs;
+	private final int orphanBatchSize;
+	private final long orphanPauseMs;
+	private final List<ConnectionPoolListener> poolListeners;
+	private final List<CommandListener> commandListeners;
+
+	private MongoConfig(Reader in) {
+		this.uri = in.string("uri", "mongodb://localhost:27017/");
+		this.database = in.string("database", "todo");
+		this.maxPoolSize = in.integer("maxPoolSize", null);
+		this.minPoolSize = in.integer("minPoolSize", null);
+		this.waitQueueTimeoutMs = in.millis("waitQueueTimeoutMs", null);
+		this.connectTimeoutMs = in.millis("connectTimeoutMs", null);
+		this.socketTimeoutMs = in.millis("socketTimeoutMs", null);
+		this.maxConnectionIdleTimeMs = in.millis("maxConnectionIdleTimeMs", null);
+		this.serverSelectionTimeoutMs = in.millis("serverSelectionTimeoutMs", null);
+		this.defaultProfile = in.profile("", Profile.DEFAULT);
+		Map<String, Profile> ops = new LinkedHashMap<>();
+		for (String op : OPERATIONS) {
+			Profile profile = in.profile("profile." + op + ".", DEFAULT_PROFILES.getOrDefault(op, Profile.DEFAULT));
+			if (profile.writeConcern() != null || profile.readPreference() != null)
+				ops.put(op, profile);
+		}
+		this.profiles = Collections.unmodifiableMap(ops);
+		this.planAudit = in.planAudit("planAudit", MongoPlanAudit.Mode.WARN);
+		this.slowCommandMs = in.millis("slowCommandMs", DEFAULT_SLOW_COMMAND_MS);
+		this.orphanIntervalMs = in.millis("orphanIntervalMs", DEFAULT_ORPHAN_INTERVAL_MS);
+		this.orphanBatchSize = in.integer("orphanBatchSize", DEFAULT_ORPHAN_BATCH_SIZE);
+		this.orphanPauseMs = in.millis("orphanPauseMs", DEFAULT_ORPHAN_PAUSE_MS);
+		this.poolListeners = List.of();
+		this.commandListeners = List.of();
+		in.validate(this);
+	}
+
+	private MongoConfig(MongoConfig base, List<ConnectionPoolListener> poolListeners, List<CommandListener> commandListeners) {
+		this.uri = base.uri;
+		this.database = base.database;
+		this.maxPoolSize = base.maxPoolSize;
+		this.minPoolSize = base.minPoolSize;
+		this.waitQueueTimeoutMs = base.waitQueueTimeoutMs;
+		this.connectTimeoutMs = base.connectTimeoutMs;
+		this.socketTimeoutMs = base.socketTimeoutMs;
+		this.maxConnectionIdleTimeMs = base.maxConnectionIdleTimeMs;
+		this.serverSelectionTimeoutMs = base.serverSelectionTimeoutMs;
+		this.defaultProfile = base.defaultProfile;
+		this.profiles = base.profiles;
+		this.planAudit = base.planAudit;
+		this.slowCommandMs = base.slowCommandMs;
+		this.orphanIntervalMs = base.orphanIntervalMs;
+		this.orphanBatchSize = base.orphanBatchSize;
+		this.orphanPauseMs = base.orphanPauseMs;
+		this.poolListeners = List.copyOf(poolListeners);
+		this.commandListeners = List.copyOf(commandListeners);
+	}
+
+	/**
+	 * Reads the configuration from system properties, environment variables and -Dtodo.config.
+	 * @throws IllegalArgumentException listing every invalid setting
+	 */
+	public static MongoConfig load() {
+		Properties file = new Properties();
+		String path = System.getProperty("todo.config", System.getenv("TODO_CONFIG"));
+		if (path != null) {
+			try (InputStream in = Files.newInputStream(Paths.get(path))) {
+				file.load(in);
+			} catch (IOException x) {
+				throw new UncheckedIOException("Cannot read " + path, x);
+			}
+		}
+		checkProfileKeys(System.getProperties().stringPropertyNames());
+		checkProfileKeys(file.stringPropertyNames());
+		return load(key -> {
+			String ret = System.getProperty(key);
+			if (ret == null)
+				ret = System.getenv(environmentName(key));
+			return ret != null ? ret : file.getProperty(key);
+		});
+	}
+
+	/**
+	 * @param source value of a full key (todo.mongo.maxPoolSize), null if unset
+	 */
+	public static MongoConfig load(Function<String, String> source) {
+		return new MongoConfig(new Reader(source));
+	}
+
+	/**
+	 * Settings of the given uri, with the pool defaults and default profiles.
+	 */
+	public static MongoConfig of(String uri, String database) {
+		return load(key -> {
+			if (key.equals(PREFIX + "uri"))
+				return uri;
+			if (key.equals(PREFIX + "database"))
+				return database;
+			return null;
+		});
+	}
+
+	/**
+	 * todo.mongo.maxPoolSize -> TODO_MONGO_MAX_POOL_SIZE
+	 */
+	static String environmentName(String key) {
+		StringBuilder ret = new StringBuilder(key.length() + 8);
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (c == '.')
+				ret.append('_');
+			else if (Character.isUpperCase(c) && i > 0 && Character.isLowerCase(key.charAt(i - 1)))
+				ret.append('_').append(c);
+			else
+				ret.append(Character.toUpperCase(c));
+		}
+		return ret.toString();
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	public String getDatabase() {
+		return database;
+	}
+
+	public int getMaxPoolSize() {
+		if (maxPoolSize != null)
+			return maxPoolSize;
+		Integer ret = new ConnectionString(uri).getMaxConnectionPoolSize();
+		return ret != null ? ret : DEFAULT_MAX_POOL_SIZE;
+	}
+
+	public long getWaitQueueTimeoutMs() {
+		if (waitQueueTimeoutMs != null)
+			return waitQueueTimeoutMs;
+		Integer ret = new ConnectionString(uri).getMaxWaitTime();
+		return ret != null ? ret : DEFAULT_WAIT_QUEUE_TIMEOUT_MS;
+	}
+
+	public MongoPlanAudit.Mode getPlanAudit() {
+		return planAudit;
+	}
+
+	/**
+	 * @return 0 if slow commands are not logged
+	 */
+	public long getSlowCommandMs() {
+		return slowCommandMs;
+	}
+
+	/**
+	 * @return the time between two passes of the orphan collector, 0 if it is disabled
+	 */
+	public long getOrphanIntervalMs() {
+		return orphanIntervalMs;
+	}
+
+	public int getOrphanBatchSize() {
+		return orphanBatchSize;
+	}
+
+	/**
+	 * @return the least time between two batches of the orphan collector
+	 */
+	public long getOrphanPauseMs() {
+		return orphanPauseMs;
+	}
+
+	/**
+	 * @return the profile of the operation (a {@link TodoDAO} method name), the default one if it has none
+	 */
+	public Profile profile(String operation) {
+		return profiles.getOrDefault(operation, defaultProfile);
+	}
+
+	/**
+	 * @return this configuration, whose clients also notify listener of their pool events
+	 */
+	public MongoConfig withPoolListener(ConnectionPoolListener listener) {
+		List<ConnectionPoolListener> ret = new ArrayList<>(poolListeners);
+		ret.add(listener);
+		return new MongoConfig(this, ret, commandListeners);
+	}
+
+	/**
+	 * @return this configuration, whose clients also notify listener of the commands they send
+	 */
+	public MongoConfig withCommandListener(CommandListener listener) {
+		List<CommandListener> ret = new ArrayList<>(commandListeners);
+		ret.add(listener);
+		return new MongoConfig(this, poolListeners, ret);
+	}
+
+	public MongoClientSettings toClientSettings() {
+		MongoClientSettings.Builder ret = MongoClientSettings.builder().applyConnectionString(new ConnectionString(uri));
+		ret.applyToConnectionPoolSettings(pool -> {
+			pool.maxSize(getMaxPoolSize());
+			if (minPoolSize != null)
+				pool.minSize(minPoolSize);
+			pool.maxWaitTime(getWaitQueueTimeoutMs(), TimeUnit.MILLISECONDS);
+			if (maxConnectionIdleTimeMs != null)
+				pool.maxConnectionIdleTime(maxConnectionIdleTimeMs, TimeUnit.MILLISECONDS);
+			for (ConnectionPoolListener listener : poolListeners)
+				pool.addConnectionPoolListener(listener);
+		});
+		ret.applyToSocketSettings(socket -> {
+			if (connectTimeoutMs != null)
+				socket.connectTimeout(connectTimeoutMs.intValue(), TimeUnit.MILLISECONDS);
+			if (socketTimeoutMs != null)
+				socket.readTimeout(socketTimeoutMs.intValue(), TimeUnit.MILLISECONDS);
+		});
+		for (CommandListener listener : commandListeners)
+			ret.addCommandListener(listener);
+		if (serverSelectionTimeoutMs != null)
+			ret.applyToClusterSettings(cluster -> cluster.serverSelectionTimeout(serverSelectionTimeoutMs, TimeUnit.MILLISECONDS));
+		if (defaultProfile.writeConcern() != null)
+			ret.writeConcern(defaultProfile.writeConcern());
+		if (defaultProfile.readPreference() != null)
+			ret.readPreference(defaultProfile.readPreference());
+		return ret.build();
+	}
+
+	@Override
+	public String toString() {
+		return "maxPoolSize=" + getMaxPoolSize() + (minPoolSize == null ? "" : ", minPoolSize=" + minPoolSize)
+				+ ", waitQueueTimeoutMs=" + getWaitQueueTimeoutMs()
+				+ (connectTimeoutMs == null ? "" : ", connectTimeoutMs=" + connectTimeoutMs)
+				+ (socketTimeoutMs == null ? "" : ", socketTimeoutMs=" + socketTimeoutMs)
+				+ (serverSelectionTimeoutMs == null ? "" : ", serverSelectionTimeoutMs=" + serverSelectionTimeoutMs)
+				+ ", planAudit=" + planAudit + ", slowCommandMs=" + slowCommandMs
+				+ ", orphanIntervalMs=" + orphanIntervalMs + ", orphanBatchSize=" + orphanBatchSize + ", orphanPauseMs=" + orphanPauseMs
+				+ ", default " + defaultProfile + ", profiles " + profiles;
+	}
+
+	/**
+	 * Parses the keys, collecting every error so that startup reports them all at once.
+	 */
+	private static class Reader {
+
+		private final Function<String, String> source;
+		private final List<String> errors = new ArrayList<>();
+
+		Reader(Function<String, String> source) {
+			this.source = source;
+		}
+
+		private String raw(String key) {
+			String ret = source.apply(PREFIX + key);
+			return ret == null || ret.isBlank() ? null : ret.trim();
+		}
+
+		String string(String key, String defaultValue) {
+			String ret = raw(key);
+			return ret == null ? defaultValue : ret;
+		}
+
+		Integer integer(String key, Integer defaultValue) {
+			String value = raw(key);
+			if (value == null)
+				return defaultValue;
+			try {
+				return Integer.valueOf(value);
+			} catch (NumberFormatException x) {
+				errors.add(PREFIX + key + " is not an integer: " + value);
+				return defaultValue;
+			}
+		}
+
+		Long millis(String key, Long defaultValue) {
+			String value = raw(key);
+			if (value == null)
+				return defaultValue;
+			try {
+				long ret = Long.parseLong(value);
+				if (ret < 0 || ret > Integer.MAX_VALUE)
+					errors.add(PREFIX + key + " must be between 0 and " + Integer.MAX_VALUE + " ms: " + value);
+				return ret;
+			} catch (NumberFormatException x) {
+				errors.add(PREFIX + key + " is not a number of milliseconds: " + value);
+				return defaultValue;
+			}
+		}
+
+		MongoPlanAudit.Mode planAudit(String key, MongoPlanAudit.Mode defaultValue) {
+			String value = raw(key);
+			if (value == null)
+				return defaultValue;
+			try {
+				return MongoPlanAudit.Mode.valueOf(value.toUpperCase());
+			} catch (IllegalArgumentException x) {
+				errors.add(PREFIX + key + " must be off, warn or strict: " + value);
+				return defaultValue;
+			}
+		}
+
+		Profile profile(String prefix, Profile defaultValue) {
+			WriteConcern writeConcern = defaultValue.writeConcern();
+			String w = raw(prefix + "w");
+			if (w != null) {
+				try {
+					writeConcern = w.chars().allMatch(Character::isDigit) ? new WriteConcern(Integer.parseInt(w)) : new WriteConcern(w);
+				} catch (IllegalArgumentException x) {
+					errors.add(PREFIX + prefix + "w is invalid: " + w);
+				}
+			}
+			String journal = raw(prefix + "journal");
+			if (journal != null)
+				writeConcern = (writeConcern == null ? WriteConcern.ACKNOWLEDGED : writeConcern).withJournal(Boolean.parseBoolean(journal));
+			Long wtimeout = millis(prefix + "wtimeoutMs", null);
+			if (wtimeout != null)
+				writeConcern = (writeConcern == null ? WriteConcern.ACKNOWLEDGED : writeConcern).withWTimeout(wtimeout, TimeUnit.MILLISECONDS);
+			ReadPreference readPreference = defaultValue.readPreference();
+			String read = raw(prefix + "readPreference");
+			if (read != null) {
+				try {
+					readPreference = ReadPreference.valueOf(read);
+				} catch (IllegalArgumentException x) {
+					errors.add(PREFIX + prefix + "readPreference is invalid: " + read);
+				}
+			}
+			return new Profile(writeConcern, readPreference);
+		}
+
+		void validate(MongoConfig config) {
+			try {
+				new ConnectionString(config.uri);
+			} catch (IllegalArgumentException x) {
+				errors.add(PREFIX + "uri is invalid: " + x.getMessage());
+				throw new IllegalArgumentException("Invalid MongoDB configuration: " + String.join("; ", errors));
+			}
+			int maxPoolSize = config.getMaxPoolSize();
+			// 0 would mean unbounded to the driver
+			if (maxPoolSize < 1)
+				errors.add(PREFIX + "maxPoolSize must be at least 1: " + maxPoolSize);
+			if (config.minPoolSize != null && (config.minPoolSize < 0 || config.minPoolSize > maxPoolSize))
+				errors.add(PREFIX + "minPoolSize must be between 0 and maxPoolSize (" + maxPoolSize + "): " + config.minPoolSize);
+			if (config.orphanBatchSize < 1)
+				errors.add(PREFIX + "orphanBatchSize must be at least 1: " + config.orphanBatchSize);
+			long wait = config.getWaitQueueTimeoutMs();
+			if (config.socketTimeoutMs != null && config.socketTimeoutMs > 0 && config.socketTimeoutMs < wait)
+				errors.add(PREFIX + "socketTimeoutMs (" + config.socketTimeoutMs + ") is shorter than waitQueueTimeoutMs ("
+						+ wait + "): a request could wait for a connection longer than for its query");
+			if (!errors.isEmpty())
+				throw new IllegalArgumentException("Invalid MongoDB configuration: " + String.join("; ", errors));
+		}
+	}
+
+	/**
+	 * Rejects profile keys naming no operation (i.e. typos), among those that can be listed.
+	 */
+	private static void checkProfileKeys(Set<String> keys) {
+		List<String> unknown = new ArrayList<>();
+		for (String key : keys) {
+			if (!key.startsWith(PREFIX + "profile."))
+				continue;
+			String rest = key.substring((PREFIX + "profile.").length());
+			int dot = rest.indexOf('.');
+			if (dot < 0 || !OPERATIONS.contains(rest.substring(0, dot)))
+				unknown.add(key);
+		}
+		if (!unknown.isEmpty())
+			throw new IllegalArgumentException("Invalid MongoDB configuration: " + unknown + " name no TodoDAO operation");
+	}
+
+}
@@ -4,48 +4,384 @@ import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Projections.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.bson.BsonDocument;
 import org.bson.BsonInt64;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.conversions.Bson;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCommandException;
 import com.mongodb.MongoWriteException;
-import com.mongodb.client.FindIterable;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
 
 import fr.uha.ensisa.ff.todo_auto.dao.TodoDAO;
 import fr.uha.ensisa.ff.todo_auto.dao.UnknownListException;
 import fr.uha.ensisa.ff.todo_auto.dao.UnknownUserException;
 import fr.uha.ensisa.ff.todo_auto.dao.UserAlreadyExistsException;
-
-public class MongoDAO implements TodoDAO {
+import fr.uha.ensisa.ff.todo_auto.log.Log;
+
+public class MongoDAO implements TodoDAO, TodoChangeSource, TodoEventSource {
+
+	private static final Log log = Log.get(MongoDAO.class);
+
+	/**
+	 * Legacy ids were built as owner + Math.random() (lists) or owner + '_' + Math.random() (tasks),
+	 * they are now given by an {@link IdGenerator}.
+	 * The lazy prefix makes "bob20.5" resolve to owner "bob2", not "bob".
+	 */
+	private static final Pattern LEGACY_LIST_ID = Pattern.compile("^(.*?)((?:0\\.\\d+)|(?:\\d\\.\\d+E-\\d+))$");
+	private static final int MIGRATION_BATCH_SIZE = 1000;
+	private static final int STREAM_BATCH_SIZE = 500;
+	/** $lookup results over the 16MB of a document, BSONObjectTooLarge */
+	private static final Set<Integer> TOO_LARGE = Set.of(4568, 10334);
+
+	static final String LISTS_VERSION = "listsVersion";
+	static final String TASKS_VERSION = "tasksVersion";
+	static final String LIST_VERSION = "version";
+	private static final Set<String> VERSION_FIELDS = Set.of(LISTS_VERSION, TASKS_VERSION, LIST_VERSION);
+
+	static final Bson TASK_FIELDS = fields(include("_id", "name", "done"));
+	/** Decode reads straight into views, without intermediate Documents */
+	static final CodecRegistry VIEW_CODECS = CodecRegistries.fromRegistries(
+			CodecRegistries.fromCodecs(new ViewCodecs.TaskViewCodec("_id"), new ViewCodecs.ListViewCodec()),
+			MongoClientSettings.getDefaultCodecRegistry());
 
 	private MongoClient client;
 	private MongoDatabase database;
-	private final String defaultTaskList = "default";
+	private MongoCollection<TaskView> taskViews;
+	private MongoCollection<ListView> listViews;
+	/** listId of the tasks of the default list */
+	static final String DEFAULT_TASK_LIST = "default";
+	private final String defaultTaskList = DEFAULT_TASK_LIST;
+	private final IdGenerator ids;
+	private final MongoConfig config;
+	private MongoOrphanCollector orphanCollector;
 	private static int taskCounter = 0;
 
 	public MongoDAO(String uri) {
-		client = MongoClients.create(uri);
-		database = client.getDatabase("todo");
+		this(uri, "todo");
+	}
+
+	public MongoDAO(String uri, String databaseName) {
+		this(uri, databaseName, IdGenerator.COMPACT);
+	}
+
+	public MongoDAO(String uri, String databaseName, IdGenerator ids) {
+		this(MongoConfig.of(uri, databaseName), ids);
+	}
+
+	public MongoDAO(MongoConfig config, IdGenerator ids) {
+		this.ids = ids;
+		this.config = config;
+		client = MongoClients.create(config.toClientSettings());
+		database = client.getDatabase(config.getDatabase());
+		taskViews = database.withCodecRegistry(VIEW_CODECS).getCollection("tasks", TaskView.class);
+		listViews = database.withCodecRegistry(VIEW_CODECS).getCollection("list", ListView.class);
 
 		// Enforcing connection is up and running
 		Bson command = new BsonDocument("ping", new BsonInt64(1));
 		Document commandResult = database.runCommand(command);
-		System.out.println("Reached MongoDB : " + commandResult);
+		log.info("Reached MongoDB: {}", commandResult);
+
+		ensureIndexes();
+		migrateOwnership(database);
+		MongoPlanAudit.run(queryShapes(), config.getPlanAudit());
+		if (config.getOrphanIntervalMs() > 0)
+			orphanCollector = new MongoOrphanCollector(database, this.defaultTaskList, config);
+	}
+
+	/**
+	 * @return null if disabled (orphanIntervalMs=0)
+	 */
+	public MongoOrphanCollector getOrphanCollector() {
+		return orphanCollector;
+	}
+
+	/**
+	 * The filters (and sorts) of the reads and writes above, for {@link MongoPlanAudit}.
+	 * Keep in sync when adding a query.
+	 */
+	List<MongoPlanAudit.Shape> queryShapes() {
+		String user = "plan-audit", list = "plan-audit-list", task = "plan-audit-task";
+		MongoCollection<Document> users = this.database.getCollection("users");
+		MongoCollection<Document> lists = this.database.getCollection("list");
+		MongoCollection<Document> tasks = this.database.getCollection("tasks");
+		return List.of(
+				new MongoPlanAudit.Shape("user", users, eq("_id", user)),
+				new MongoPlanAudit.Shape("getLists", lists, eq("owner", user)),
+				new MongoPlanAudit.Shape("ownedList", lists, ownedList(user, list)),
+				new MongoPlanAudit.Shape("applyBatch lists", lists, and(in("_id", list, list + '2'), eq("owner", user))),
+				new MongoPlanAudit.Shape("getTasksOfList", tasks, tasksOf(user, list), Sorts.ascending("_id")),
+				new MongoPlanAudit.Shape("getTasksPage", tasks, and(tasksOf(user, list), gt("_id", task)), Sorts.ascending("_id")),
+				new MongoPlanAudit.Shape("listTask", tasks, listTask(user, list, task)),
+				new MongoPlanAudit.Shape("applyBatch deleted lists", tasks, and(eq("owner", user), in("listId", list, list + '2'))),
+				new MongoPlanAudit.Shape("orphan tasks", tasks, gt("_id", task), Sorts.ascending("_id")),
+				new MongoPlanAudit.Shape("orphan lists", lists, in("_id", list, list + '2')));
+	}
+
+	/**
+	 * Every read is an equality lookup on owner (and listId for tasks), so those come first in the keys.
+	 * _id is appended so that results come back in insertion order straight from the index.
+	 */
+	private void ensureIndexes() {
+		this.database.getCollection("tasks").createIndex(
+				Indexes.ascending("owner", "listId", "_id"), new IndexOptions().name("owner_listId"));
+		this.database.getCollection("list").createIndex(
+				Indexes.ascending("owner", "_id"), new IndexOptions().name("owner"));
+	}
+
+	/**
+	 * Backfills owner / listId on documents written before those fields existed.
+	 * Only documents missing the owner field are read, in batches, their owners being looked up by _id:
+	 * the documents without a known owner left by a previous run cost a scan of themselves, not of all the lists.
+	 * Also run by {@link ListDocumentMongoDAO} before it migrates these collections.
+	 */
+	static void migrateOwnership(MongoDatabase database) {
+		MongoCollection<Document> lists = database.getCollection("list");
+		MongoCollection<Document> tasks = database.getCollection("tasks");
+		if (lists.find(exists("owner", false)).first() == null && tasks.find(exists("owner", false)).first() == null)
+			return;
+
+		int seen = 0, migratedLists = 0, migratedTasks = 0;
+		List<Document> batch = new ArrayList<>(MIGRATION_BATCH_SIZE);
+		for (Document list : lists.find(exists("owner", false)).projection(include("_id"))) {
+			batch.add(list);
+			if (batch.size() >= MIGRATION_BATCH_SIZE)
+				migratedLists += migrateLists(database, lists, batch);
+			seen++;
+		}
+		migratedLists += migrateLists(database, lists, batch);
+
+		// After the lists, so that the tasks of the lists just migrated find their owner
+		for (Document task : tasks.find(exists("owner", false)).projection(include("_id", "task", "name"))) {
+			batch.add(task);
+			if (batch.size() >= MIGRATION_BATCH_SIZE)
+				migratedTasks += migrateTasks(database, lists, tasks, batch);
+			seen++;
+		}
+		migratedTasks += migrateTasks(database, lists, tasks, batch);
+
+		log.info("Ownership migration: {} lists, {} tasks updated, {} documents without a known owner left untouched",
+				migratedLists, migratedTasks, seen - migratedLists - migratedTasks);
+	}
+
+	/**
+	 * @return the lists of the batch (then cleared) given an owner
+	 */
+	private static int migrateLists(MongoDatabase database, MongoCollection<Document> lists, List<Document> batch) {
+		Map<String, String> owners = new HashMap<>();
+		for (Document list : batch) {
+			Matcher m = LEGACY_LIST_ID.matcher(list.getString("_id"));
+			if (m.matches())
+				owners.put(list.getString("_id"), m.group(1));
+		}
+		batch.clear();
+		Set<String> users = knownUsers(database, owners.values());
+		List<WriteModel<Document>> updates = new ArrayList<>();
+		for (Map.Entry<String, String> list : owners.entrySet())
+			if (users.contains(list.getValue()))
+				updates.add(new UpdateOneModel<>(eq("_id", list.getKey()), Updates.set("owner", list.getValue())));
+		if (!updates.isEmpty())
+			lists.bulkWrite(updates);
+		return updates.size();
+	}
+
+	/**
+	 * A legacy task id is the id of its list, or the name of its user for the default list, then _ and a number.
+	 * @return the tasks of the batch (then cleared) given an owner
+	 */
+	private static int migrateTasks(MongoDatabase database, MongoCollection<Document> lists, MongoCollection<Document> tasks, List<Document> batch) {
+		Set<String> prefixes = new HashSet<>();
+		for (Document task : batch)
+			prefixes.add(taskPrefix(task.getString("_id")));
+		Map<String, String> listOwners = new HashMap<>();
+		if (!prefixes.isEmpty())
+			for (Document list : lists.find(and(in("_id", prefixes), exists("owner"))).projection(include("_id", "owner")))
+				listOwners.put(list.getString("_id"), list.getString("owner"));
+		prefixes.removeAll(listOwners.keySet());
+		Set<String> users = knownUsers(database, prefixes);
+
+		List<WriteModel<Document>> updates = new ArrayList<>();
+		for (Document task : batch) {
+			String id = task.getString("_id");
+			String prefix = taskPrefix(id);
+			String owner = listOwners.get(prefix), listId = prefix;
+			if (owner == null && users.contains(prefix)) {
+				owner = prefix;
+				listId = DEFAULT_TASK_LIST;
+			}
+			if (owner == null)
+				continue;
+			List<Bson> sets = new ArrayList<>();
+			sets.add(Updates.set("owner", owner));
+			sets.add(Updates.set("listId", listId));
+			// createDefaultTask used to store the name under "task"
+			if (!task.containsKey("name") && task.containsKey("task"))
+				sets.add(Updates.rename("task", "name"));
+			updates.add(new UpdateOneModel<>(eq("_id", id), Updates.combine(sets)));
+		}
+		batch.clear();
+		if (!updates.isEmpty())
+			tasks.bulkWrite(updates);
+		return updates.size();
+	}
+
+	private static String taskPrefix(String taskId) {
+		int sep = taskId.lastIndexOf('_');
+		return sep < 0 ? taskId : taskId.substring(0, sep);
+	}
+
+	private static Set<String> knownUsers(MongoDatabase database, Collection<String> names) {
+		Set<String> ret = new HashSet<>();
+		if (!names.isEmpty())
+			for (Document user : database.getCollection("users").find(in("_id", new HashSet<>(names))).projection(include("_id")))
+				ret.add(user.getString("_id"));
+		return ret;
+	}
+
+	private Bson defaultTask(String user, String taskId) {
+		return and(eq("_id", taskId), eq("owner", user), eq("listId", this.defaultTaskList));
+	}
+
+	static Bson listTask(String user, String listId, String taskId) {
+		return and(eq("_id", taskId), eq("owner", user), eq("listId", listId));
+	}
+
+	static Bson ownedList(String user, String listId) {
+		return and(eq("_id", listId), eq("owner", user));
+	}
+
+	private Document taskDocument(String id, String user, String listId, String taskName) {
+		return new Document().append("_id", id).append("owner", user).append("listId", listId)
+				.append("name", taskName).append("done", false);
+	}
+
+	@Override
+	public AutoCloseable watchChanges(Consumer<TodoChange> listener) {
+		return new MongoChangeWatcher<>(this.database, Arrays.asList("users", "list", "tasks"), event -> {
+			String collection = event.getNamespace().getCollectionName();
+			if (event.getDocumentKey() == null)
+				return null;
+			String id = event.getDocumentKey().getString("_id").getValue();
+			if ("users".equals(collection))
+				return userChange(event, id);
+			Document doc = event.getFullDocument() != null ? event.getFullDocument() : event.getFullDocumentBeforeChange();
+			String owner = doc == null ? null : doc.getString("owner");
+			if ("list".equals(collection))
+				return new TodoChange(TodoChange.Type.LIST, owner, id, id);
+			String listId = doc == null || this.defaultTaskList.equals(doc.getString("listId")) ? null : doc.getString("listId");
+			return new TodoChange(TodoChange.Type.TASK, owner, listId, id);
+		}, listener, TodoChange.ALL);
+	}
+
+	/**
+	 * Deletes are only reported when the collections have pre-images enabled
+	 * (changeStreamPreAndPostImages), as they are the only way to know the owner of a deleted document:
+	 * the event bus publishes those of this node without waiting for the feed.
+	 */
+	@Override
+	public Feed watchEvents(Consumer<TodoEvent> listener) {
+		return new MongoChangeWatcher<>(this.database, Arrays.asList("list", "tasks"), event -> {
+			if (event.getDocumentKey() == null || onlyVersions(event))
+				return null;
+			String id = event.getDocumentKey().getString("_id").getValue();
+			boolean list = "list".equals(event.getNamespace().getCollectionName());
+			switch (event.getOperationType()) {
+			case INSERT:
+			case UPDATE:
+			case REPLACE:
+				Document doc = event.getFullDocument();
+				if (doc == null)
+					return null;
+				TodoEvent.Action action = event.getOperationType() == OperationType.INSERT ? TodoEvent.Action.CREATED : TodoEvent.Action.UPDATED;
+				if (list)
+					return new TodoEvent(doc.getString("owner"), TodoEvent.Entity.LIST, action, null, id, doc.getString("name"), null);
+				return new TodoEvent(doc.getString("owner"), TodoEvent.Entity.TASK, action, taskList(doc), id,
+						doc.getString("name"), doc.getBoolean("done", false));
+			case DELETE:
+				Document before = event.getFullDocumentBeforeChange();
+				if (before == null)
+					return null;
+				return list ? TodoEvent.listDeleted(before.getString("owner"), id)
+						: TodoEvent.taskDeleted(before.getString("owner"), taskList(before), id);
+			default:
+				return null;
+			}
+		}, listener);
+	}
+
+	/**
+	 * Bumps of the counters of the user document are reported as changes of what they version
+	 * (listsVersion: its lists, tasksVersion: its default list), anything else as a change of the user.
+	 */
+	static TodoChange userChange(ChangeStreamDocument<Document> event, String user) {
+		if (onlyVersions(event)) {
+			Set<String> moved = event.getUpdateDescription().getUpdatedFields().keySet();
+			if (moved.equals(Set.of(LISTS_VERSION)))
+				return new TodoChange(TodoChange.Type.LIST, user, null, user);
+			if (moved.equals(Set.of(TASKS_VERSION)))
+				return new TodoChange(TodoChange.Type.TASK, user, null, user);
+		}
+		return new TodoChange(TodoChange.Type.USER, user, null, user);
+	}
+
+	/**
+	 * Skipped by watchEvents only: caches must see version bumps, as they answer versions too.
+	 * @return whether the event only bumped version counters, which follow the writes already reported
+	 */
+	static boolean onlyVersions(ChangeStreamDocument<Document> event) {
+		UpdateDescription update = event.getUpdateDescription();
+		if (event.getOperationType() != OperationType.UPDATE || update == null || update.getUpdatedFields() == null)
+			return false;
+		return (update.getRemovedFields() == null || update.getRemovedFields().isEmpty())
+				&& VERSION_FIELDS.containsAll(update.getUpdatedFields().keySet());
+	}
+
+	private String taskList(Document task) {
+		return this.defaultTaskList.equals(task.getString("listId")) ? null : task.getString("listId");
 	}
 
 	@Override
 	public void close() throws Exception {
+		if (this.orphanCollector != null) {
+			this.orphanCollector.close();
+			this.orphanCollector = null;
+		}
 		if (this.client != null) {
 			this.client.close();
 			this.client = null;
@@ -56,16 +392,17 @@ public class MongoDAO implements TodoDAO {
 	public void registerUser(String user, String password) throws UserAlreadyExistsException {
 		Document userDoc = new Document().append("_id", user).append("pwd", password);
 		try {
-			this.database.getCollection("users").insertOne(userDoc);
+			collection("users", "registerUser").insertOne(userDoc);
 		} catch (MongoWriteException error) {
-			if (error.getCode() == 1100)
+			if (error.getError().getCategory() == ErrorCategory.DUPLICATE_KEY)
 				throw new UserAlreadyExistsException(user);
+			throw error;
 		}
 	}
 
 	@Override
 	public String getUserPassword(String user) throws UnknownUserException {
-		Document userDoc = this.database.getCollection("users").find(eq("_id", user))
+		Document userDoc = collection("users", "getUserPassword").find(eq("_id", user))
 				.projection(fields(include("pwd"), excludeId())).first();
 		if (userDoc == null)
 			throw new UnknownUserException("User doesn't exist !!");
@@ -73,99 +410,138 @@ public class MongoDAO implements TodoDAO {
 	}
 
 	@Override
-	public String createDefaultTask(String user, String taskName) throws UnknownUserException {
-		final String id = user + '_' + Math.random();
-		Document taskDoc = new Document().append("_id", id)
-//				.append("_id",this.defaultTaskList)
-//				.append("user", user)
-				.append("task", taskName).append("done", false);
+	public void updateUserPassword(String user, String password) throws UnknownUserException {
+		if (collection("users", "updateUserPassword").updateOne(eq("_id", user), Updates.set("pwd", password)).getMatchedCount() == 0)
+			throw new UnknownUserException(user);
+	}
+
+	/**
+	 * Versions are counters on the user document (listsVersion for its lists, tasksVersion for its
+	 * default list) and on the list documents (version), incremented after each write they cover.
+	 * Missing counters are 0. A bump is written with the profile of the write it follows.
+	 *
+	 * The bump is a second write, not atomic with the first: the documents differ, and a transaction (replica sets
+	 * only) would add a commit to every write. Between both, readers get the new content under the old version,
+	 * which they then refetch once the version moves. Should the node fail in between, the version misses the
+	 * write until the next one in its scope, and clients may keep the content they had with a 304 meanwhile:
+	 * to keep that window to a crash, the bump is also written when the write failed, as it may have been applied
+	 * (a write concern timeout, a lost reply). A bump too many only costs a refetch.
+	 */
+	static void bumpAfter(Runnable write, Runnable bump) {
+		bumpAfter(() -> {
+			write.run();
+			return null;
+		}, bump);
+	}
 
+	/**
+	 * @return the result of the write
+	 */
+	static <T> T bumpAfter(Supplier<T> write, Runnable bump) {
+		T ret;
 		try {
-			this.database.getCollection("tasks").insertOne(taskDoc);
-			return id;
-		} catch (MongoWriteException error) {
-			if (error.getCode() == 1100)
-				throw new Error("Task " + taskName + " already exist for this user " + user);
+			ret = write.get();
+		} catch (RuntimeException x) {
+			try {
+				bump.run();
+			} catch (RuntimeException y) {
+				x.addSuppressed(y);
+			}
+			throw x;
 		}
-		return id;
+		bump.run();
+		return ret;
+	}
+
+	private void bumpListsVersion(String user, String operation) {
+		collection("users", operation).updateOne(eq("_id", user), Updates.inc(LISTS_VERSION, 1L));
+	}
+
+	private void bumpTasksVersion(String user, String listId, String operation) {
+		if (listId == null || this.defaultTaskList.equals(listId))
+			collection("users", operation).updateOne(eq("_id", user), Updates.inc(TASKS_VERSION, 1L));
+		else
+			collection("list", operation).updateOne(ownedList(user, listId), Updates.inc(LIST_VERSION, 1L));
+	}
+
+	static long version(Document doc, String field) {
+		Number ret = doc.get(field, Number.class);
+		return ret == null ? 0 : ret.longValue();
 	}
 
 	@Override
-	public List<Map<String, Object>> getDefaultTasks(String user) throws UnknownUserException {
-		// TODO Auto-generated method stub
-		FindIterable<Document> tasksDoc = this.database.getCollection("tasks")
-				// If we use the regex expressions and we filter by the first chars in the _id
-				// the mongo db will search
-				// untill it found a different string than the regex, that is because the data
-				// is ordred by _id
-				.find(regex("_id", "^" + user)).projection(fields(include("_id", "name", "done")));
-		List<Map<String, Object>> res = new ArrayList<>();
-		for (var task : tasksDoc) {
-			var tmp = new HashMap<String, Object>();
-			tmp.put("id", task.getString("_id"));
-			tmp.put("name", task.getString("name"));
-			try {
-				tmp.put("done", task.getBoolean("done"));
-			} catch (Exception ex) {
-				tmp.put("done", task.getString("done"));
-			}
+	public long getListsVersion(String user) throws UnknownUserException {
+		Document doc = collection("users", "getLists").find(eq("_id", user)).projection(include(LISTS_VERSION)).first();
+		if (doc == null)
+			throw new UnknownUserException(user);
+		return version(doc, LISTS_VERSION);
+	}
 
-			res.add(tmp);
+	@Override
+	public long getTasksVersion(String user, String listId) throws UnknownUserException, UnknownListException {
+		if (listId == null) {
+			Document doc = collection("users", "getDefaultTasks").find(eq("_id", user)).projection(include(TASKS_VERSION)).first();
+			if (doc == null)
+				throw new UnknownUserException(user);
+			return version(doc, TASKS_VERSION);
 		}
-		return res;
+		Document doc = collection("list", "getTasksOfList").find(ownedList(user, listId)).projection(include(LIST_VERSION)).first();
+		if (doc == null)
+			throw new UnknownListException(user, listId);
+		return version(doc, LIST_VERSION);
+	}
+
+	@Override
+	public String createDefaultTask(String user, String taskName) throws UnknownUserException {
+		final String id = this.ids.nextId();
+		bumpAfter(() -> collection("tasks", "createDefaultTask").insertOne(taskDocument(id, user, this.defaultTaskList, taskName)),
+				() -> bumpTasksVersion(user, null, "createDefaultTask"));
+		return id;
+	}
+
+	@Override
+	public List<TaskView> getDefaultTasks(String user) throws UnknownUserException {
+		return this.config.profile("getDefaultTasks").apply(this.taskViews).find(tasksOf(user, null))
+				.projection(TASK_FIELDS).sort(Sorts.ascending("_id")).into(new ArrayList<>());
 	}
 
 	@Override
 	public void setDefaultTaskDone(String user, String taskId, boolean done) throws UnknownUserException {
-		var filter = Filters.eq("_id", taskId);
 		var update = Updates.set("done", done);
-		this.database.getCollection("tasks").updateOne(filter, update);
+		bumpAfter(() -> collection("tasks", "setDefaultTaskDone").updateOne(defaultTask(user, taskId), update),
+				() -> bumpTasksVersion(user, null, "setDefaultTaskDone"));
 	}
 
 	@Override
 	public void renameDefaultTask(String user, String taskId, String newName) throws UnknownUserException {
-		var filter = Filters.eq("_id", taskId);
 		var update = Updates.set("name", newName);
-		this.database.getCollection("tasks").updateOne(filter, update);
-
+		bumpAfter(() -> collection("tasks", "renameDefaultTask").updateOne(defaultTask(user, taskId), update),
+				() -> bumpTasksVersion(user, null, "renameDefaultTask"));
 	}
 
 	@Override
 	public void deleteDefaultTask(String user, String taskId) throws UnknownUserException {
-		var filter = Filters.eq("_id", taskId);
-		this.database.getCollection("tasks").deleteOne(filter);
-
+		bumpAfter(() -> collection("tasks", "deleteDefaultTask").deleteOne(defaultTask(user, taskId)),
+				() -> bumpTasksVersion(user, null, "deleteDefaultTask"));
 	}
 
 	@Override
 	public String createList(String user, String name) throws UnknownUserException {
-		final String listId = user + Math.random();
-		Document listDoc = new Document().append("_id", listId).append("name", name);
-		try {
-			this.database.getCollection("list").insertOne(listDoc);
-			return listId;
-		} catch (MongoWriteException error) {
-			return this.createList(user, name);
-		}
+		final String listId = this.ids.nextId();
+		Document listDoc = new Document().append("_id", listId).append("owner", user).append("name", name);
+		// Generated ids don't collide: a duplicate key is a real error, not a reason to retry
+		bumpAfter(() -> collection("list", "createList").insertOne(listDoc), () -> bumpListsVersion(user, "createList"));
+		return listId;
 	}
 
 	@Override
-	public List<Map<String, ?>> getLists(String user) throws UnknownUserException {
-		var filter = Filters.regex("_id", "^" + user);
+	public List<ListView> getLists(String user) throws UnknownUserException {
+		var filter = Filters.eq("owner", user);
 		try {
 
-			var lists = this.database.getCollection("list").find(filter).projection(fields(include("_id", "name")));
-
-			List<Map<String, ?>> res = new ArrayList<>();
-			for (final var list : lists) {
-				var tmp = new TreeMap<>();
-				tmp.put("id", list.get("_id").toString());
-				tmp.put("name", list.get("name").toString());
-				res.add((Map) tmp);
-			}
-			return res;
+			return this.config.profile("getLists").apply(this.listViews).find(filter).projection(fields(include("_id", "name"))).into(new ArrayList<>());
 		} catch (Exception x) {
-			System.err.println(x.getMessage());
+			log.error("getLists failed", x);
 			return null;
 		}
 
@@ -173,13 +549,13 @@ public class MongoDAO implements TodoDAO {
 
 	@Override
 	public void deleteList(String user, String listId) throws UnknownUserException, UnknownListException {
-//		var filter = Filters.regex("_id", "^" + user);
-		var filter = Filters.eq("_id", listId);
 		try {
 
-			this.database.getCollection("list").deleteOne(filter);
+			// The tasks go with their list; those left by a failure in between are deleted by the MongoOrphanCollector
+			if (collection("list", "deleteList").deleteOne(ownedList(user, listId)).getDeletedCount() > 0)
+				bumpAfter(() -> collection("tasks", "deleteList").deleteMany(tasksOf(user, listId)), () -> bumpListsVersion(user, "deleteList"));
 		} catch (Exception x) {
-			System.err.println("[ERROR]" + x.getMessage());
+			log.error("deleteList failed", x);
 		}
 
 	}
@@ -187,33 +563,23 @@ public class MongoDAO implements TodoDAO {
 	@Override
 	public void renameList(String user, String listId, String newName)
 			throws UnknownUserException, UnknownListException {
-		var filter = Filters.eq("_id", listId);
 		var update = Updates.set("name", newName);
 		try {
-			this.database.getCollection("list").updateOne(filter, update);
+			bumpAfter(() -> collection("list", "renameList").updateOne(ownedList(user, listId), update), () -> bumpListsVersion(user, "renameList"));
 		} catch (Exception x) {
-			System.err.println("[ERROR]" + x.getMessage());
+			log.error("renameList failed", x);
 		}
 	}
 
 	@Override
-	public List<Map<String, Object>> getTasksOfList(String user, String listId)
+	public List<TaskView> getTasksOfList(String user, String listId)
 			throws UnknownUserException, UnknownListException {
 
-		var filter = Filters.regex("_id", "^" + listId);
-		var req = this.database.getCollection("tasks").find(filter).projection(fields(include("_id", "name", "done")));
-		List<Map<String, Object>> res = new ArrayList<>();
 		try {
-			for (final var task : req) {
-				Map<String, Object> tmp = new TreeMap<>();
-				tmp.put("id", task.get("_id"));
-				tmp.put("name", task.get("name"));
-				tmp.put("done", task.get("done"));
-				res.add(tmp);
-			}
-			return res;
+			return this.config.profile("getTasksOfList").apply(this.taskViews).find(tasksOf(user, listId))
+					.projection(TASK_FIELDS).sort(Sorts.ascending("_id")).into(new ArrayList<>());
 		} catch (Exception x) {
-			System.err.println("[ERROR] " + x.getMessage());
+			log.error("getTasksOfList failed", x);
 			return null;
 		}
 
@@ -223,14 +589,13 @@ public class MongoDAO implements TodoDAO {
 	public String createListTask(String user, String listId, String taskName)
 			throws UnknownUserException, UnknownListException {
 
-		String taskId = listId + "_" + Math.random();
-		Document newTask = new Document();
-		newTask.append("_id", taskId).append("name", taskName).append("done", false);
+		String taskId = this.ids.nextId();
+		Document newTask = taskDocument(taskId, user, listId, taskName);
 		try {
-			this.database.getCollection("tasks").insertOne(newTask);
+			bumpAfter(() -> collection("tasks", "createListTask").insertOne(newTask), () -> bumpTasksVersion(user, listId, "createListTask"));
 			return taskId;
 		} catch (Exception x) {
-			System.err.println("[ERROR] " + x.getMessage());
+			log.error("createListTask failed", x);
 			return null;
 		}
 	}
@@ -238,12 +603,12 @@ public class MongoDAO implements TodoDAO {
 	@Override
 	public void renameListTask(String user, String listId, String taskId, String newTaskName)
 			throws UnknownUserException, UnknownListException {
-		var filter = Filters.regex("_id", "^" + listId);
 		var update = Updates.set("name", newTaskName);
 		try {
-			this.database.getCollection("tasks").updateOne(filter, update);
+			bumpAfter(() -> collection("tasks", "renameListTask").updateOne(listTask(user, listId, taskId), update),
+					() -> bumpTasksVersion(user, listId, "renameListTask"));
 		} catch (Exception x) {
-			System.err.println("[ERROR] " + x.getMessage());
+			log.error("renameListTask failed", x);
 		}
 
 	}
@@ -251,27 +616,235 @@ public class MongoDAO implements TodoDAO {
 	@Override
 	public void setListTaskDone(String user, String listId, String taskId, boolean done)
 			throws UnknownUserException, UnknownListException {
-//		var filter = Filters.regex("_id", "^" + listId);
-		var filter = Filters.eq("_id", taskId);
 		var update = Updates.set("done", done);
 		try {
-			this.database.getCollection("tasks").updateOne(filter, update);
+			bumpAfter(() -> collection("tasks", "setListTaskDone").updateOne(listTask(user, listId, taskId), update),
+					() -> bumpTasksVersion(user, listId, "setListTaskDone"));
 		} catch (Exception x) {
-			System.err.println("[ERROR] " + x.getMessage());
+			log.error("setListTaskDone failed", x);
 		}
 	}
 
 	@Override
 	public void deleteListTask(String user, String listId, String taskId)
 			throws UnknownUserException, UnknownListException {
-//		var filter = Filters.regex("_id", "^" + listId);
-		var filter = Filters.eq("_id", taskId);
 		try {
-			this.database.getCollection("tasks").deleteOne(filter);
+			bumpAfter(() -> collection("tasks", "deleteListTask").deleteOne(listTask(user, listId, taskId)),
+					() -> bumpTasksVersion(user, listId, "deleteListTask"));
 		} catch (Exception x) {
-			System.err.println("[ERROR] " + x.getMessage());
+			log.error("deleteListTask failed", x);
 		}
 
 	}
 
-}
\ No newline at end of file
+	/**
+	 * @param operation the {@link TodoDAO} method, whose {@link MongoConfig} profile applies
+	 */
+	private MongoCollection<Document> collection(String name, String operation) {
+		return this.config.profile(operation).apply(this.database.getCollection(name));
+	}
+
+	private Bson tasksOf(String user, String listId) {
+		return and(eq("owner", user), eq("listId", listId == null ? this.defaultTaskList : listId));
+	}
+
+	/**
+	 * Pages are ranges of the owner_listId index, which ends with _id.
+	 */
+	@Override
+	public List<TaskView> getTasksPage(String user, String listId, String after, int limit)
+			throws UnknownUserException, UnknownListException {
+		Bson filter = after == null ? tasksOf(user, listId) : and(tasksOf(user, listId), gt("_id", after));
+		return this.config.profile("getTasksPage").apply(this.taskViews).find(filter)
+				.projection(TASK_FIELDS).sort(Sorts.ascending("_id")).limit(limit).into(new ArrayList<>(limit));
+	}
+
+	@Override
+	public void streamTasks(String user, String listId, Consumer<TaskView> sink)
+			throws UnknownUserException, UnknownListException {
+		try (var cursor = this.config.profile("streamTasks").apply(this.taskViews).find(tasksOf(user, listId))
+				.projection(TASK_FIELDS).sort(Sorts.ascending("_id")).batchSize(STREAM_BATCH_SIZE).cursor()) {
+			while (cursor.hasNext())
+				sink.accept(cursor.next());
+		}
+	}
+
+	/**
+	 * A single aggregation on the user document, joining its lists and the tasks of the list (both with the
+	 * filters and index of getLists and getTasksOfList), so a single round trip. The versions are those of the
+	 * user document matched before the joins. An unknown list takes a second query, for the default tasks;
+	 * so do users whose joined tasks exceed the 16MB of a document, which are read by the separate queries.
+	 */
+	@Override
+	public Bootstrap getBootstrap(String user, String listId) throws UnknownUserException, UnknownListException {
+		List<Bson> pipeline = List.of(
+				Aggregates.match(eq("_id", user)),
+				Aggregates.project(include(LISTS_VERSION, TASKS_VERSION)),
+				Aggregates.lookup("list", List.of(Aggregates.match(eq("owner", user)),
+						Aggregates.project(include("_id", "name", LIST_VERSION))), "lists"),
+				Aggregates.lookup("tasks", List.of(Aggregates.match(tasksOf(user, listId)),
+						Aggregates.sort(Sorts.ascending("_id")), Aggregates.project(TASK_FIELDS)), "tasks"));
+		Bootstrap ret;
+		try {
+			RawBsonDocument raw = collection("users", "getBootstrap").aggregate(pipeline, RawBsonDocument.class).first();
+			ret = raw == null ? null : raw.decode(new ViewCodecs.BootstrapDecoder(listId));
+		} catch (MongoCommandException x) {
+			if (!TOO_LARGE.contains(x.getErrorCode()))
+				throw x;
+			log.warn("Bootstrap of {} over the document size, read by separate queries", user);
+			return TodoDAO.super.getBootstrap(user, listId);
+		}
+		if (ret == null)
+			throw new UnknownUserException(user);
+		if (listId != null && ret.list() == null)
+			return new Bootstrap(ret.userName(), ret.lists(), ret.listsVersion(), null, getDefaultTasks(user), ret.tasksVersion());
+		return ret;
+	}
+
+	/**
+	 * Sends each run of consecutive operations on the same collection as a single bulkWrite, in the order of the
+	 * batch, stopping at the first failure when ordered.
+	 * Ids of created lists and tasks are generated before sending, as in the single-operation methods.
+	 */
+	@Override
+	public List<BatchResult> applyBatch(String user, List<BatchOperation> operations, boolean ordered) {
+		BatchResult[] results = new BatchResult[operations.size()];
+		String[] createdIds = new String[operations.size()];
+		boolean[] unknown = new boolean[operations.size()];
+		List<WriteModel<Document>> writes = new ArrayList<>();
+		List<Integer> indexes = new ArrayList<>();
+		boolean failed = false;
+		for (int i = 0; i < operations.size(); i++) {
+			BatchOperation op = operations.get(i);
+			if (failed && ordered) {
+				results[i] = BatchResult.skipped();
+				continue;
+			}
+			try {
+				op.validate();
+			} catch (IllegalArgumentException x) {
+				results[i] = BatchResult.failed(x);
+				failed = true;
+				continue;
+			}
+			String listId = op.isDefaultList() ? this.defaultTaskList : op.list().trim();
+			Bson task = and(eq("_id", op.id()), eq("owner", user), eq("listId", listId));
+			WriteModel<Document> write;
+			switch (op.op()) {
+			case CREATE_LIST:
+				createdIds[i] = this.ids.nextId();
+				write = new InsertOneModel<>(new Document().append("_id", createdIds[i]).append("owner", user).append("name", op.name()));
+				break;
+			case RENAME_LIST:
+				write = new UpdateOneModel<>(ownedList(user, op.id()), Updates.set("name", op.name()));
+				break;
+			case DELETE_LIST:
+				write = new DeleteOneModel<>(ownedList(user, op.id()));
+				break;
+			case CREATE_TASK:
+				createdIds[i] = this.ids.nextId();
+				write = new InsertOneModel<>(taskDocument(createdIds[i], user, listId, op.name()));
+				break;
+			case RENAME_TASK:
+				write = new UpdateOneModel<>(task, Updates.set("name", op.name()));
+				break;
+			case SET_TASK_DONE:
+				write = new UpdateOneModel<>(task, Updates.set("done", op.done()));
+				break;
+			case DELETE_TASK:
+				write = new DeleteOneModel<>(task);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown op " + op.op());
+			}
+			writes.add(write);
+			indexes.add(i);
+		}
+		int start = 0;
+		while (start < writes.size()) {
+			boolean lists = operations.get(indexes.get(start)).op().isListOperation();
+			int end = start + 1;
+			while (end < writes.size() && operations.get(indexes.get(end)).op().isListOperation() == lists)
+				end++;
+			boolean ok = bulkWrite(collection(lists ? "list" : "tasks", "applyBatch"), writes.subList(start, end),
+					indexes.subList(start, end), ordered, createdIds, results, unknown);
+			start = end;
+			if (!ok && ordered)
+				break;
+		}
+		for (int w = start; w < writes.size(); w++)
+			results[indexes.get(w)] = BatchResult.skipped();
+		bumpAfter(() -> deleteTasksOfDeletedLists(user, operations, results), () -> bumpBatchVersions(user, operations, results, unknown));
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * As deleteList, after the task operations, so that tasks the batch created in a list it deleted go too.
+	 */
+	private void deleteTasksOfDeletedLists(String user, List<BatchOperation> operations, BatchResult[] results) {
+		Set<String> listIds = new HashSet<>();
+		for (int i = 0; i < operations.size(); i++)
+			if (operations.get(i).op() == BatchOperation.Type.DELETE_LIST && "ok".equals(results[i].status()))
+				listIds.add(operations.get(i).id());
+		if (!listIds.isEmpty())
+			collection("tasks", "applyBatch").deleteMany(and(eq("owner", user), in("listId", listIds)));
+	}
+
+	/**
+	 * Bumps each version covering an applied operation once, whatever the number of operations.
+	 * Operations whose bulkWrite failed without telling which writes went through count as applied.
+	 */
+	private void bumpBatchVersions(String user, List<BatchOperation> operations, BatchResult[] results, boolean[] unknown) {
+		boolean lists = false, defaultTasks = false;
+		Set<String> listIds = new HashSet<>();
+		for (int i = 0; i < operations.size(); i++) {
+			if (!unknown[i] && !"ok".equals(results[i].status()))
+				continue;
+			BatchOperation op = operations.get(i);
+			if (op.op().isListOperation())
+				lists = true;
+			else if (op.isDefaultList())
+				defaultTasks = true;
+			else
+				listIds.add(op.list().trim());
+		}
+		if (lists || defaultTasks)
+			collection("users", "applyBatch").updateOne(eq("_id", user), Updates.combine(
+					Updates.inc(LISTS_VERSION, lists ? 1L : 0L), Updates.inc(TASKS_VERSION, defaultTasks ? 1L : 0L)));
+		if (!listIds.isEmpty())
+			collection("list", "applyBatch").updateMany(and(in("_id", listIds), eq("owner", user)), Updates.inc(LIST_VERSION, 1L));
+	}
+
+	/**
+	 * Any other error than write errors fails all the writes, marked unknown as some may have been applied.
+	 * @return false if any write failed
+	 */
+	private static boolean bulkWrite(MongoCollection<Document> collection, List<WriteModel<Document>> writes, List<Integer> indexes,
+			boolean ordered, String[] createdIds, BatchResult[] results, boolean[] unknown) {
+		try {
+			collection.bulkWrite(writes, new BulkWriteOptions().ordered(ordered));
+			for (int i : indexes)
+				results[i] = BatchResult.ok(createdIds[i]);
+			return true;
+		} catch (MongoBulkWriteException x) {
+			int firstError = writes.size();
+			for (BulkWriteError error : x.getWriteErrors()) {
+				results[indexes.get(error.getIndex())] = BatchResult.failed(error.getMessage());
+				firstError = Math.min(firstError, error.getIndex());
+			}
+			for (int w = 0; w < writes.size(); w++) {
+				int i = indexes.get(w);
+				if (results[i] == null)
+					results[i] = ordered && w > firstError ? BatchResult.skipped() : BatchResult.ok(createdIds[i]);
+			}
+			return false;
+		} catch (RuntimeException x) {
+			for (int i : indexes) {
+				results[i] = BatchResult.failed(x);
+				unknown[i] = true;
+			}
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+
+import com.mongodb.MongoInterruptedException;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Sorts;
+
+import fr.uha.ensisa.ff.todo_auto.log.Log;
+
+/**
+ * Deletes, on a daemon thread, the tasks of lists that no longer exist: those of lists deleted before deleteList
+ * deleted their tasks too, or by a node that failed in between. Each pass walks the tasks by _id in batches,
+ * read from a secondary when there is one, and looks their lists up on the primary (a task is written after its
+ * list, so a list missing there is gone for good).
+ *
+ * Batches are paced so that the collector is busy at most a tenth of the time, and at least
+ * orphanPauseMs apart (see {@link MongoConfig}): foreground requests keep the pool and the server.
+ * The reclaimed bytes are the BSON sizes of the deleted documents; the storage engine reuses them, or gives
+ * them back to the file system on compact. They are only counted for the batches where every orphan read was
+ * deleted by the collector: otherwise which ones someone else deleted first is unknown, and the count stays low.
+ */
+public class MongoOrphanCollector implements AutoCloseable {
+
+	private static final Log log = Log.get(MongoOrphanCollector.class);
+
+	/** Sleep after a batch, in times the duration of the batch */
+	private static final int IDLE_RATIO = 9;
+
+	private final MongoCollection<RawBsonDocument> tasks;
+	private final MongoCollection<Document> lists;
+	private final String defaultTaskList;
+	private final long intervalMs;
+	private final int batchSize;
+	private final long pauseMs;
+	private final Thread thread;
+	private volatile boolean closed;
+
+	private final LongAdder scanned = new LongAdder();
+	private final LongAdder deleted = new LongAdder();
+	private final LongAdder reclaimedBytes = new LongAdder();
+
+	public MongoOrphanCollector(MongoDatabase database, String defaultTaskList, MongoConfig config) {
+		this.tasks = database.getCollection("tasks", RawBsonDocument.class).withReadPreference(ReadPreference.secondaryPreferred());
+		this.lists = database.getCollection("list").withReadPreference(ReadPreference.primary());
+		this.defaultTaskList = defaultTaskList;
+		this.intervalMs = config.getOrphanIntervalMs();
+		this.batchSize = config.getOrphanBatchSize();
+		this.pauseMs = config.getOrphanPauseMs();
+		this.thread = new Thread(this::run, "mongo-orphan-collector");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	private void run() {
+		try {
+			while (!closed) {
+				try {
+					collect();
+				} catch (MongoInterruptedException x) {
+					return;
+				} catch (RuntimeException x) {
+					if (closed)
+						return;
+					log.error("Orphan collection failed, next pass in {}ms: {}", intervalMs, x.getMessage());
+				}
+				Thread.sleep(intervalMs);
+			}
+		} catch (InterruptedException x) {
+			// Closed
+		}
+	}
+
+	/**
+	 * One pass over all the tasks.
+	 */
+	void collect() throws InterruptedException {
+		long passScanned = 0, passDeleted = 0, passBytes = 0;
+		BsonValue last = null;
+		while (!closed) {
+			long start = System.nanoTime();
+			List<RawBsonDocument> batch = tasks.find(last == null ? new BsonDocument() : gt("_id", last))
+					.sort(Sorts.ascending("_id")).limit(batchSize).into(new ArrayList<>(batchSize));
+			if (batch.isEmpty())
+				break;
+			last = batch.get(batch.size() - 1).get("_id");
+			passScanned += batch.size();
+			scanned.add(batch.size());
+
+			Set<String> listIds = new HashSet<>();
+			for (RawBsonDocument task : batch) {
+				String listId = string(task, "listId");
+				if (listId != null && !listId.equals(defaultTaskList))
+					listIds.add(listId);
+			}
+			Map<String, String> owners = new HashMap<>();
+			if (!listIds.isEmpty())
+				for (Document list : lists.find(in("_id", listIds)).projection(include("_id", "owner")))
+					owners.put(list.getString("_id"), list.getString("owner"));
+
+			List<BsonValue> orphans = new ArrayList<>();
+			long bytes = 0;
+			for (RawBsonDocument task : batch) {
+				String listId = string(task, "listId"), owner = string(task, "owner");
+				// Tasks without owner are left to the ownership migration of MongoDAO
+				if (listId == null || owner == null || listId.equals(defaultTaskList) || owner.equals(owners.get(listId)))
+					continue;
+				orphans.add(task.get("_id"));
+				bytes += task.getByteBuffer().remaining();
+			}
+			if (!orphans.isEmpty()) {
+				Bson filter = in("_id", orphans);
+				long count = tasks.withReadPreference(ReadPreference.primary()).deleteMany(filter).getDeletedCount();
+				passDeleted += count;
+				deleted.add(count);
+				if (count == orphans.size()) {
+					passBytes += bytes;
+					reclaimedBytes.add(bytes);
+				}
+			}
+			if (batch.size() < batchSize)
+				break;
+			long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			Thread.sleep(Math.max(pauseMs, IDLE_RATIO * elapsedMs));
+		}
+		if (passDeleted > 0)
+			log.info("Orphan collection: {} tasks scanned, {} orphans deleted, {} bytes reclaimed", passScanned, passDeleted, passBytes);
+		else
+			log.debug("Orphan collection: {} tasks scanned, no orphan", passScanned);
+	}
+
+	private static String string(RawBsonDocument doc, String field) {
+		BsonValue value = doc.get(field);
+		return value != null && value.isString() ? value.asString().getValue() : null;
+	}
+
+	/** Tasks read since startup, over all passes */
+	public long getScannedCount() {
+		return scanned.sum();
+	}
+
+	public long getDeletedCount() {
+		return deleted.sum();
+	}
+
+	public long getReclaimedBytes() {
+		return reclaimedBytes.sum();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		thread.interrupt();
+	}
+
+}
@@ -0,0 +1,74 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+
+import fr.uha.ensisa.ff.todo_auto.log.Log;
+
+/**
+ * Explains each query shape of a DAO at startup, so that a query losing its index
+ * (a COLLSCAN, or a $regex filtering documents one by one) shows up when deploying
+ * rather than as a slow page once the collection grew.
+ *
+ * The shapes are explained with placeholder values: explain only plans, so nothing has to match.
+ */
+public final class MongoPlanAudit {
+
+	private static final Log log = Log.get(MongoPlanAudit.class);
+
+	/** todo.mongo.planAudit */
+	public enum Mode {
+		/** No explain at startup */
+		OFF,
+		/** Reports the faulty shapes */
+		WARN,
+		/** Fails the startup on a faulty shape */
+		STRICT
+	}
+
+	/**
+	 * A query as a DAO sends it: its filter, and its sort if it has one.
+	 */
+	public record Shape(String name, MongoCollection<Document> collection, Bson filter, Bson sort) {
+
+		public Shape(String name, MongoCollection<Document> collection, Bson filter) {
+			this(name, collection, filter, null);
+		}
+	}
+
+	private MongoPlanAudit() {
+	}
+
+	/**
+	 * @throws IllegalStateException in strict mode, listing the faulty shapes
+	 */
+	public static void run(List<Shape> shapes, Mode mode) {
+		if (mode == Mode.OFF)
+			return;
+		List<String> faults = new ArrayList<>();
+		for (Shape shape : shapes) {
+			FindIterable<Document> find = shape.collection().find(shape.filter());
+			if (shape.sort() != null)
+				find = find.sort(shape.sort());
+			Document plan = QueryPlans.winningPlan(find.explain(ExplainVerbosity.QUERY_PLANNER));
+			List<String> problems = QueryPlans.problems(plan);
+			String line = shape.name() + " on " + shape.collection().getNamespace().getCollectionName() + ": " + QueryPlans.summary(plan);
+			if (problems.isEmpty()) {
+				log.info("Query plan {}", line);
+			} else {
+				log.warn("Query plan {} {}", line, problems);
+				faults.add(line + " " + problems);
+			}
+		}
+		if (!faults.isEmpty() && mode == Mode.STRICT)
+			throw new IllegalStateException("Unindexed queries (todo.mongo.planAudit=strict): " + String.join("; ", faults));
+	}
+
+}
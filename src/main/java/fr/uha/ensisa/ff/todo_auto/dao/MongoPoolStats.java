@@ -0,0 +1,116 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+import fr.uha.ensisa.ff.todo_auto.metrics.LatencyHistogram;
+
+/**
+ * Connection pool usage of the Mongo clients it is given to (see {@link MongoConfig#withPoolListener}):
+ * how long requests wait for a connection, how many gave up (waitQueueTimeoutMs), and how many
+ * connections are open and in use. A wait time growing with the load means maxPoolSize is too small.
+ */
+public class MongoPoolStats implements ConnectionPoolListener {
+
+	private final LongAdder checkedOutCount = new LongAdder();
+	private final LongAdder failedCount = new LongAdder();
+	private final LongAdder totalWaitNanos = new LongAdder();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final AtomicLong waiting = new AtomicLong();
+	private final AtomicLong inUse = new AtomicLong();
+	private final AtomicLong open = new AtomicLong();
+	private final LatencyHistogram waits = new LatencyHistogram();
+
+	@Override
+	public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+		waiting.incrementAndGet();
+	}
+
+	@Override
+	public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+		waiting.decrementAndGet();
+		inUse.incrementAndGet();
+		checkedOutCount.increment();
+		long nanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+		totalWaitNanos.add(nanos);
+		maxWaitNanos.accumulateAndGet(nanos, Math::max);
+		waits.record(nanos);
+	}
+
+	@Override
+	public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+		waiting.decrementAndGet();
+		failedCount.increment();
+		long nanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+		maxWaitNanos.accumulateAndGet(nanos, Math::max);
+		waits.record(nanos);
+	}
+
+	@Override
+	public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+		inUse.decrementAndGet();
+	}
+
+	@Override
+	public void connectionCreated(ConnectionCreatedEvent event) {
+		open.incrementAndGet();
+	}
+
+	@Override
+	public void connectionClosed(ConnectionClosedEvent event) {
+		open.decrementAndGet();
+	}
+
+	/** Requests currently waiting for a connection */
+	public long getWaitQueueSize() {
+		return waiting.get();
+	}
+
+	public long getInUseCount() {
+		return inUse.get();
+	}
+
+	public long getOpenCount() {
+		return open.get();
+	}
+
+	public long getCheckedOutCount() {
+		return checkedOutCount.sum();
+	}
+
+	/** Check outs that timed out (or found the pool closed) */
+	public long getFailedCount() {
+		return failedCount.sum();
+	}
+
+	/** Mean wait of the successful check outs */
+	public double getMeanWaitMs() {
+		long n = checkedOutCount.sum();
+		return n == 0 ? 0 : totalWaitNanos.sum() / 1e6 / n;
+	}
+
+	public double getMaxWaitMs() {
+		return maxWaitNanos.get() / 1e6;
+	}
+
+	/** Waits of all check outs, failed ones included */
+	public LatencyHistogram getWaitHistogram() {
+		return waits;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("open=%d, inUse=%d, waiting=%d, checkedOut=%d, failed=%d, meanWaitMs=%.3f, maxWaitMs=%.3f",
+				getOpenCount(), getInUseCount(), getWaitQueueSize(), getCheckedOutCount(), getFailedCount(), getMeanWaitMs(), getMaxWaitMs());
+	}
+
+}
@@ -0,0 +1,191 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import fr.uha.ensisa.ff.todo_auto.log.Log;
+
+/**
+ * Logs the commands slower than todo.mongo.slowCommandMs with their filter (values replaced by ?, so that
+ * no user data reaches the log), plan summary and documents examined per document returned.
+ *
+ * The plan comes from re-running the command with explain (executionStats) on a background thread and
+ * a client of its own, at most once a minute per command shape: a slow shape is logged each time,
+ * its plan once in a while.
+ */
+public class MongoSlowCommandLog implements CommandListener {
+
+	private static final Log log = Log.get(MongoSlowCommandLog.class);
+
+	/** Commands with a filter that explain supports */
+	private static final Set<String> EXPLAINED = Set.of("find", "aggregate", "count", "distinct", "update", "delete", "findAndModify");
+	/** Fields of the sent command that explain refuses or doesn't need */
+	private static final Set<String> NOT_EXPLAINED = Set.of("lsid", "txnNumber", "autocommit", "startTransaction", "writeConcern", "readConcern");
+	private static final long EXPLAIN_INTERVAL_MS = 60_000;
+
+	private record Started(String database, BsonDocument command) {
+	}
+
+	private final MongoConfig config;
+	private final long thresholdNanos;
+	private final Map<Integer, Started> started = new ConcurrentHashMap<>();
+	private final Map<String, Long> lastExplained = new ConcurrentHashMap<>();
+	private final ThreadPoolExecutor explainer;
+	private volatile MongoClient client;
+
+	/**
+	 * @param config the threshold, and where to send explains (without this listener)
+	 */
+	public MongoSlowCommandLog(MongoConfig config) {
+		this.config = config;
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.getSlowCommandMs());
+		this.explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(16), r -> {
+			Thread t = new Thread(r, "mongo-slow-command-explain");
+			t.setDaemon(true);
+			return t;
+		}, new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	@Override
+	public void commandStarted(CommandStartedEvent event) {
+		if (thresholdNanos > 0 && EXPLAINED.contains(event.getCommandName()))
+			// The event's document is only valid during the call
+			started.put(event.getRequestId(), new Started(event.getDatabaseName(), event.getCommand().clone()));
+	}
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event) {
+		Started command = started.remove(event.getRequestId());
+		long nanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+		if (thresholdNanos <= 0 || nanos < thresholdNanos)
+			return;
+		BsonValue target = command == null ? null : command.command().get(event.getCommandName());
+		String collection = target != null && target.isString() ? target.asString().getValue() : "";
+		String filter = command == null ? "" : redact(filter(event.getCommandName(), command.command())).asDocument().toJson();
+		String line = TimeUnit.NANOSECONDS.toMillis(nanos) + "ms " + event.getCommandName() + ' '
+				+ event.getDatabaseName() + '.' + collection + (filter.isEmpty() ? "" : " filter " + filter);
+		String shape = event.getCommandName() + ' ' + collection + ' ' + filter;
+		long now = System.currentTimeMillis();
+		Long last = lastExplained.get(shape);
+		if (command == null || (last != null && now - last < EXPLAIN_INTERVAL_MS)) {
+			log.warn("Slow command {}", line);
+			return;
+		}
+		lastExplained.put(shape, now);
+		try {
+			explainer.execute(() -> log.warn("Slow command {} {}", line, explain(command)));
+		} catch (RejectedExecutionException x) {
+			log.warn("Slow command {}", line);
+		}
+	}
+
+	@Override
+	public void commandFailed(CommandFailedEvent event) {
+		started.remove(event.getRequestId());
+	}
+
+	private String explain(Started command) {
+		try {
+			BsonDocument explained = new BsonDocument();
+			for (Map.Entry<String, BsonValue> e : command.command().entrySet())
+				if (!e.getKey().startsWith("$") && !NOT_EXPLAINED.contains(e.getKey()))
+					explained.put(e.getKey(), e.getValue());
+			// Explain takes a single update or delete statement
+			for (String statements : new String[] { "updates", "deletes" })
+				if (explained.isArray(statements) && explained.getArray(statements).size() > 1)
+					explained.put(statements, new BsonArray(List.of(explained.getArray(statements).get(0))));
+			Document explain = client().getDatabase(command.database()).runCommand(
+					new BsonDocument("explain", explained).append("verbosity", new BsonString("executionStats")));
+			Document stats = explain.get("executionStats", Document.class);
+			String ret = "plan " + QueryPlans.summary(QueryPlans.winningPlan(explain));
+			if (stats != null) {
+				long examined = stats.get("totalDocsExamined", Number.class).longValue();
+				long returned = stats.get("nReturned", Number.class).longValue();
+				ret += " docsExamined " + examined + " keysExamined " + stats.get("totalKeysExamined", Number.class).longValue()
+						+ " nReturned " + returned + (returned > 0 ? String.format(" (%.1f examined per returned)", (double) examined / returned) : "");
+			}
+			return ret;
+		} catch (RuntimeException x) {
+			return "(explain failed: " + x.getMessage() + ")";
+		}
+	}
+
+	private MongoClient client() {
+		MongoClient ret = client;
+		if (ret == null) {
+			synchronized (this) {
+				if (client == null)
+					client = MongoClients.create(config.toClientSettings());
+				ret = client;
+			}
+		}
+		return ret;
+	}
+
+	private static BsonValue filter(String commandName, BsonDocument command) {
+		switch (commandName) {
+		case "count":
+			return command.get("query", new BsonDocument());
+		case "aggregate":
+			BsonArray pipeline = command.getArray("pipeline", new BsonArray());
+			return pipeline.isEmpty() || !pipeline.get(0).isDocument() ? new BsonDocument() : pipeline.get(0);
+		case "update":
+		case "delete":
+			List<BsonValue> statements = command.getArray(commandName.equals("update") ? "updates" : "deletes", new BsonArray());
+			return statements.isEmpty() ? new BsonDocument() : statements.get(0).asDocument().get("q", new BsonDocument());
+		case "findAndModify":
+			return command.get("query", new BsonDocument());
+		default:
+			return command.get("filter", new BsonDocument());
+		}
+	}
+
+	/**
+	 * Keeps field names and operators, replaces values by ?
+	 */
+	static BsonValue redact(BsonValue value) {
+		if (value.isDocument()) {
+			BsonDocument ret = new BsonDocument();
+			for (Map.Entry<String, BsonValue> e : value.asDocument().entrySet())
+				ret.put(e.getKey(), redact(e.getValue()));
+			return ret;
+		}
+		if (value.isArray()) {
+			BsonArray ret = new BsonArray();
+			for (BsonValue item : value.asArray()) {
+				ret.add(redact(item));
+				// A single value, so that $in of any length is one shape ($and, $or keep their clauses)
+				if (!item.isDocument())
+					break;
+			}
+			return ret;
+		}
+		return new BsonString("?");
+	}
+
+	public void close() {
+		explainer.shutdownNow();
+		if (client != null)
+			client.close();
+	}
+
+}
@@ -0,0 +1,102 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.bson.BsonRegularExpression;
+import org.bson.Document;
+
+/**
+ * Reads the output of explain: the winning plan, summarized as mongod does in its slow query log
+ * (IXSCAN { owner: 1, listId: 1, _id: 1 }), and what makes it scale with the collection rather than with the result.
+ */
+final class QueryPlans {
+
+	private QueryPlans() {
+	}
+
+	/**
+	 * @return the winning plan of explain, null if it has none (sharded clusters...)
+	 */
+	static Document winningPlan(Document explain) {
+		Document planner = explain.get("queryPlanner", Document.class);
+		Document ret = planner == null ? null : planner.get("winningPlan", Document.class);
+		// Slot based execution (MongoDB 7+) nests the classic plan
+		if (ret != null && ret.get("queryPlan") instanceof Document)
+			ret = ret.get("queryPlan", Document.class);
+		return ret;
+	}
+
+	static String summary(Document plan) {
+		if (plan == null)
+			return "unknown plan";
+		List<String> scans = new ArrayList<>();
+		walk(plan, stage -> {
+			String name = stage.getString("stage");
+			if ("IXSCAN".equals(name) || "COUNT_SCAN".equals(name) || "DISTINCT_SCAN".equals(name))
+				scans.add(name + ' ' + keyPattern(stage.get("keyPattern", Document.class)));
+			else if ("COLLSCAN".equals(name) || "IDHACK".equals(name) || "EXPRESS_IXSCAN".equals(name) || "EOF".equals(name))
+				scans.add(name);
+		});
+		return scans.isEmpty() ? plan.getString("stage") : String.join(", ", scans);
+	}
+
+	/**
+	 * @return COLLSCAN, and the $regex evaluated document by document rather than through index bounds
+	 */
+	static List<String> problems(Document plan) {
+		List<String> ret = new ArrayList<>();
+		if (plan == null)
+			return ret;
+		walk(plan, stage -> {
+			if ("COLLSCAN".equals(stage.getString("stage")))
+				ret.add("COLLSCAN");
+			Object filter = stage.get("filter");
+			if (filter != null && containsRegex(filter))
+				ret.add("unindexed $regex in " + stage.getString("stage") + " filter "
+						+ (filter instanceof Document ? ((Document) filter).toJson() : filter));
+		});
+		return ret;
+	}
+
+	private static void walk(Document stage, Consumer<Document> visitor) {
+		visitor.accept(stage);
+		Object input = stage.get("inputStage");
+		if (input instanceof Document)
+			walk((Document) input, visitor);
+		Object inputs = stage.get("inputStages");
+		if (inputs instanceof List)
+			for (Object child : (List<?>) inputs)
+				if (child instanceof Document)
+					walk((Document) child, visitor);
+	}
+
+	private static boolean containsRegex(Object value) {
+		if (value instanceof Map) {
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet())
+				if ("$regex".equals(e.getKey()) || containsRegex(e.getValue()))
+					return true;
+		} else if (value instanceof List) {
+			for (Object item : (List<?>) value)
+				if (containsRegex(item))
+					return true;
+		}
+		return value instanceof Pattern || value instanceof BsonRegularExpression;
+	}
+
+	private static String keyPattern(Document keys) {
+		if (keys == null)
+			return "{}";
+		StringBuilder ret = new StringBuilder("{ ");
+		for (Map.Entry<String, Object> e : keys.entrySet()) {
+			if (ret.length() > 2)
+				ret.append(", ");
+			ret.append(e.getKey()).append(": ").append(e.getValue());
+		}
+		return ret.append(" }").toString();
+	}
+
+}
@@ -0,0 +1,299 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+
+import fr.uha.ensisa.ff.todo_auto.log.Log;
+
+/**
+ * {@link ReactiveTodoDAO} on the reactive streams driver, over the same collections and
+ * document layout as {@link MongoDAO} (which creates the indexes and runs the migrations).
+ * No thread waits for the database: results are delivered on the driver's I/O threads.
+ *
+ * Writes are reported to a listener, so that caches in front of the blocking DAO
+ * (see {@link CachingTodoDAO#onChange(TodoChange)}) don't serve what they made stale,
+ * once they bumped the version they affect, as {@link MongoDAO} does.
+ */
+public class ReactiveMongoDAO implements ReactiveTodoDAO {
+
+	private static final Log log = Log.get(ReactiveMongoDAO.class);
+
+	private static final String DEFAULT_LIST = "default";
+
+	private final MongoClient client;
+	private final MongoCollection<Document> users;
+	private final MongoCollection<Document> lists;
+	private final MongoCollection<Document> tasks;
+	private final MongoCollection<TaskView> taskViews;
+	private final MongoCollection<ListView> listViews;
+	private final Consumer<TodoChange> listener;
+	private final IdGenerator ids;
+	private final MongoConfig config;
+
+	public ReactiveMongoDAO(String uri, String databaseName, Consumer<TodoChange> listener) {
+		this(uri, databaseName, listener, IdGenerator.COMPACT);
+	}
+
+	public ReactiveMongoDAO(String uri, String databaseName, Consumer<TodoChange> listener, IdGenerator ids) {
+		this(MongoConfig.of(uri, databaseName), listener, ids);
+	}
+
+	/**
+	 * The client has its own pool, of config's size.
+	 */
+	public ReactiveMongoDAO(MongoConfig config, Consumer<TodoChange> listener, IdGenerator ids) {
+		this.ids = ids;
+		this.config = config;
+		this.client = MongoClients.create(config.toClientSettings());
+		MongoDatabase database = client.getDatabase(config.getDatabase());
+		this.users = database.getCollection("users");
+		this.lists = database.getCollection("list");
+		this.tasks = database.getCollection("tasks");
+		this.taskViews = database.withCodecRegistry(MongoDAO.VIEW_CODECS).getCollection("tasks", TaskView.class);
+		this.listViews = database.withCodecRegistry(MongoDAO.VIEW_CODECS).getCollection("list", ListView.class);
+		this.listener = listener;
+
+		// Enforcing connection is up and running
+		Document commandResult = first(database.runCommand(new BsonDocument("ping", new BsonInt64(1)))).join();
+		log.info("Reached MongoDB (reactive): {}", commandResult);
+	}
+
+	/**
+	 * Subscribes and collects every item; the future fails with the publisher's error.
+	 */
+	private static <T> CompletableFuture<List<T>> toList(Publisher<T> publisher) {
+		CompletableFuture<List<T>> ret = new CompletableFuture<>();
+		publisher.subscribe(new Subscriber<T>() {
+			private final List<T> items = new ArrayList<>();
+
+			@Override
+			public void onSubscribe(Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(T item) {
+				items.add(item);
+			}
+
+			@Override
+			public void onError(Throwable error) {
+				ret.completeExceptionally(error);
+			}
+
+			@Override
+			public void onComplete() {
+				ret.complete(items);
+			}
+		});
+		return ret;
+	}
+
+	/**
+	 * @return the first item, or null if the publisher completes empty
+	 */
+	private static <T> CompletableFuture<T> first(Publisher<T> publisher) {
+		return toList(publisher).thenApply(items -> items.isEmpty() ? null : items.get(0));
+	}
+
+	/**
+	 * @param operation the {@link TodoDAO} method, whose {@link MongoConfig} profile applies
+	 */
+	private <T> MongoCollection<T> profiled(MongoCollection<T> collection, String operation) {
+		return this.config.profile(operation).apply(collection);
+	}
+
+	/**
+	 * @param operation the profile of the write, which the version bump shares
+	 */
+	private <T> CompletableFuture<Void> write(String operation, Publisher<T> publisher, TodoChange change) {
+		return write(operation, first(publisher), change);
+	}
+
+	/**
+	 * As MongoDAO, the version is bumped even when the write failed, as it may have been applied;
+	 * the write's error is then the one reported, with the bump's as suppressed.
+	 * The listener hears of the change whatever the outcomes, for the same reason.
+	 */
+	private CompletableFuture<Void> write(String operation, CompletableFuture<?> written, TodoChange change) {
+		return written
+				.handle((result, error) -> error)
+				.thenCompose(error -> {
+					CompletableFuture<Void> bumped = first(bumpVersion(operation, change))
+							.whenComplete((result, bumpError) -> listener.accept(change))
+							.thenApply(result -> null);
+					if (error == null)
+						return bumped;
+					Throwable cause = unwrap(error);
+					return bumped.handle((result, bumpError) -> {
+						if (bumpError != null)
+							cause.addSuppressed(unwrap(bumpError));
+						throw new CompletionException(cause);
+					});
+				});
+	}
+
+	private static Throwable unwrap(Throwable error) {
+		return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+	}
+
+	private Publisher<UpdateResult> bumpVersion(String operation, TodoChange change) {
+		if (change.type() == TodoChange.Type.LIST)
+			return profiled(this.users, operation).updateOne(eq("_id", change.user()), Updates.inc(MongoDAO.LISTS_VERSION, 1L));
+		if (change.listId() == null)
+			return profiled(this.users, operation).updateOne(eq("_id", change.user()), Updates.inc(MongoDAO.TASKS_VERSION, 1L));
+		return profiled(this.lists, operation).updateOne(MongoDAO.ownedList(change.user(), change.listId()), Updates.inc(MongoDAO.LIST_VERSION, 1L));
+	}
+
+	@Override
+	public CompletableFuture<Long> getListsVersion(String user) {
+		return first(profiled(this.users, "getLists").find(eq("_id", user)).projection(include(MongoDAO.LISTS_VERSION))).thenCompose(doc -> doc == null ?
+				CompletableFuture.failedFuture(new UnknownUserException(user)) :
+				CompletableFuture.completedFuture(MongoDAO.version(doc, MongoDAO.LISTS_VERSION)));
+	}
+
+	@Override
+	public CompletableFuture<Long> getTasksVersion(String user, String listId) {
+		if (listId == null)
+			return first(profiled(this.users, "getDefaultTasks").find(eq("_id", user)).projection(include(MongoDAO.TASKS_VERSION))).thenCompose(doc -> doc == null ?
+					CompletableFuture.failedFuture(new UnknownUserException(user)) :
+					CompletableFuture.completedFuture(MongoDAO.version(doc, MongoDAO.TASKS_VERSION)));
+		return first(profiled(this.lists, "getTasksOfList").find(MongoDAO.ownedList(user, listId)).projection(include(MongoDAO.LIST_VERSION))).thenCompose(doc -> doc == null ?
+				CompletableFuture.failedFuture(new UnknownListException(user, listId)) :
+				CompletableFuture.completedFuture(MongoDAO.version(doc, MongoDAO.LIST_VERSION)));
+	}
+
+	private static Bson tasksOf(String user, String listId) {
+		return and(eq("owner", user), eq("listId", listId == null ? DEFAULT_LIST : listId));
+	}
+
+	private static Document taskDocument(String id, String user, String listId, String taskName) {
+		return new Document().append("_id", id).append("owner", user).append("listId", listId)
+				.append("name", taskName).append("done", false);
+	}
+
+	private static TodoChange taskChange(String user, String listId, String taskId) {
+		return new TodoChange(TodoChange.Type.TASK, user, listId, taskId);
+	}
+
+	private static TodoChange listChange(String user, String listId) {
+		return new TodoChange(TodoChange.Type.LIST, user, listId, listId);
+	}
+
+	private CompletableFuture<List<TaskView>> findTasks(String user, String listId) {
+		return toList(profiled(this.taskViews, listId == null ? "getDefaultTasks" : "getTasksOfList").find(tasksOf(user, listId))
+				.projection(MongoDAO.TASK_FIELDS).sort(Sorts.ascending("_id")));
+	}
+
+	@Override
+	public CompletableFuture<String> createDefaultTask(String user, String taskName) {
+		String id = this.ids.nextId();
+		return write("createDefaultTask", profiled(this.tasks, "createDefaultTask").insertOne(taskDocument(id, user, DEFAULT_LIST, taskName)), taskChange(user, null, id))
+				.thenApply(done -> id);
+	}
+
+	@Override
+	public CompletableFuture<List<TaskView>> getDefaultTasks(String user) {
+		return findTasks(user, null);
+	}
+
+	@Override
+	public CompletableFuture<Void> setDefaultTaskDone(String user, String taskId, boolean done) {
+		return write("setDefaultTaskDone", profiled(this.tasks, "setDefaultTaskDone").updateOne(MongoDAO.listTask(user, DEFAULT_LIST, taskId), Updates.set("done", done)),
+				taskChange(user, null, taskId));
+	}
+
+	@Override
+	public CompletableFuture<Void> renameDefaultTask(String user, String taskId, String newName) {
+		return write("renameDefaultTask", profiled(this.tasks, "renameDefaultTask").updateOne(MongoDAO.listTask(user, DEFAULT_LIST, taskId), Updates.set("name", newName)),
+				taskChange(user, null, taskId));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteDefaultTask(String user, String taskId) {
+		return write("deleteDefaultTask", profiled(this.tasks, "deleteDefaultTask").deleteOne(MongoDAO.listTask(user, DEFAULT_LIST, taskId)), taskChange(user, null, taskId));
+	}
+
+	@Override
+	public CompletableFuture<String> createList(String user, String name) {
+		String listId = this.ids.nextId();
+		Document listDoc = new Document().append("_id", listId).append("owner", user).append("name", name);
+		return write("createList", profiled(this.lists, "createList").insertOne(listDoc), listChange(user, listId)).thenApply(done -> listId);
+	}
+
+	@Override
+	public CompletableFuture<List<ListView>> getLists(String user) {
+		return toList(profiled(this.listViews, "getLists").find(eq("owner", user)).projection(fields(include("_id", "name"))));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteList(String user, String listId) {
+		// The tasks go with their list, as in MongoDAO; a list that wasn't there changes no version
+		return first(profiled(this.lists, "deleteList").deleteOne(MongoDAO.ownedList(user, listId)))
+				.thenCompose(result -> result.getDeletedCount() == 0 ? CompletableFuture.<Void>completedFuture(null)
+						: write("deleteList", profiled(this.tasks, "deleteList").deleteMany(tasksOf(user, listId)), listChange(user, listId)));
+	}
+
+	@Override
+	public CompletableFuture<Void> renameList(String user, String listId, String newName) {
+		return write("renameList", profiled(this.lists, "renameList").updateOne(MongoDAO.ownedList(user, listId), Updates.set("name", newName)),
+				listChange(user, listId));
+	}
+
+	@Override
+	public CompletableFuture<List<TaskView>> getTasksOfList(String user, String listId) {
+		return findTasks(user, listId);
+	}
+
+	@Override
+	public CompletableFuture<String> createListTask(String user, String listId, String taskName) {
+		String taskId = this.ids.nextId();
+		return write("createListTask", profiled(this.tasks, "createListTask").insertOne(taskDocument(taskId, user, listId, taskName)), taskChange(user, listId, taskId))
+				.thenApply(done -> taskId);
+	}
+
+	@Override
+	public CompletableFuture<Void> renameListTask(String user, String listId, String taskId, String newTaskName) {
+		return write("renameListTask", profiled(this.tasks, "renameListTask").updateOne(MongoDAO.listTask(user, listId, taskId), Updates.set("name", newTaskName)),
+				taskChange(user, listId, taskId));
+	}
+
+	@Override
+	public CompletableFuture<Void> setListTaskDone(String user, String listId, String taskId, boolean done) {
+		return write("setListTaskDone", profiled(this.tasks, "setListTaskDone").updateOne(MongoDAO.listTask(user, listId, taskId), Updates.set("done", done)),
+				taskChange(user, listId, taskId));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteListTask(String user, String listId, String taskId) {
+		return write("deleteListTask", profiled(this.tasks, "deleteListTask").deleteOne(MongoDAO.listTask(user, listId, taskId)), taskChange(user, listId, taskId));
+	}
+
+	@Override
+	public void close() {
+		this.client.close();
+	}
+
+}
@@ -0,0 +1,53 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of the list and task operations of {@link TodoDAO}:
+ * calls return at once and the futures complete when the database answers.
+ * Failures are reported through the future, with the same exceptions as {@link TodoDAO}
+ * (UnknownUserException, UnknownListException...).
+ * User accounts are still read and written through {@link TodoDAO}.
+ */
+public interface ReactiveTodoDAO extends AutoCloseable {
+
+	CompletableFuture<String> createDefaultTask(String user, String taskName);
+
+	CompletableFuture<List<TaskView>> getDefaultTasks(String user);
+
+	CompletableFuture<Void> setDefaultTaskDone(String user, String taskId, boolean done);
+
+	CompletableFuture<Void> renameDefaultTask(String user, String taskId, String newName);
+
+	CompletableFuture<Void> deleteDefaultTask(String user, String taskId);
+
+	CompletableFuture<String> createList(String user, String name);
+
+	CompletableFuture<List<ListView>> getLists(String user);
+
+	CompletableFuture<Void> deleteList(String user, String listId);
+
+	CompletableFuture<Void> renameList(String user, String listId, String newName);
+
+	CompletableFuture<List<TaskView>> getTasksOfList(String user, String listId);
+
+	CompletableFuture<String> createListTask(String user, String listId, String taskName);
+
+	CompletableFuture<Void> renameListTask(String user, String listId, String taskId, String newTaskName);
+
+	CompletableFuture<Void> setListTaskDone(String user, String listId, String taskId, boolean done);
+
+	CompletableFuture<Void> deleteListTask(String user, String listId, String taskId);
+
+	/**
+	 * @see TodoDAO#getListsVersion(String)
+	 */
+	CompletableFuture<Long> getListsVersion(String user);
+
+	/**
+	 * @see TodoDAO#getTasksVersion(String, String)
+	 */
+	CompletableFuture<Long> getTasksVersion(String user, String listId);
+
+}
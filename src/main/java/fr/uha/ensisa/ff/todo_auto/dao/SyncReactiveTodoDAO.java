@@ -0,0 +1,130 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Serves {@link ReactiveTodoDAO} calls with a blocking {@link TodoDAO}:
+ * the call runs on the calling thread and the returned future is already complete.
+ * This is the default, so that requests behave exactly as with the synchronous driver: the controllers
+ * write the results of complete futures at once (see CompletedFutureReturnValueHandler), without an asynchronous dispatch.
+ */
+public class SyncReactiveTodoDAO implements ReactiveTodoDAO {
+
+	private interface Call<T> {
+		T call() throws Exception;
+	}
+
+	private interface VoidCall {
+		void call() throws Exception;
+	}
+
+	private final TodoDAO dao;
+
+	public SyncReactiveTodoDAO(TodoDAO dao) {
+		this.dao = dao;
+	}
+
+	private static <T> CompletableFuture<T> now(Call<T> call) {
+		try {
+			return CompletableFuture.completedFuture(call.call());
+		} catch (Exception x) {
+			return CompletableFuture.failedFuture(x);
+		}
+	}
+
+	private static CompletableFuture<Void> now(VoidCall call) {
+		return now(() -> {
+			call.call();
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<String> createDefaultTask(String user, String taskName) {
+		return now(() -> dao.createDefaultTask(user, taskName));
+	}
+
+	@Override
+	public CompletableFuture<List<TaskView>> getDefaultTasks(String user) {
+		return now(() -> dao.getDefaultTasks(user));
+	}
+
+	@Override
+	public CompletableFuture<Void> setDefaultTaskDone(String user, String taskId, boolean done) {
+		return now(() -> dao.setDefaultTaskDone(user, taskId, done));
+	}
+
+	@Override
+	public CompletableFuture<Void> renameDefaultTask(String user, String taskId, String newName) {
+		return now(() -> dao.renameDefaultTask(user, taskId, newName));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteDefaultTask(String user, String taskId) {
+		return now(() -> dao.deleteDefaultTask(user, taskId));
+	}
+
+	@Override
+	public CompletableFuture<Long> getListsVersion(String user) {
+		return now(() -> dao.getListsVersion(user));
+	}
+
+	@Override
+	public CompletableFuture<Long> getTasksVersion(String user, String listId) {
+		return now(() -> dao.getTasksVersion(user, listId));
+	}
+
+	@Override
+	public CompletableFuture<String> createList(String user, String name) {
+		return now(() -> dao.createList(user, name));
+	}
+
+	@Override
+	public CompletableFuture<List<ListView>> getLists(String user) {
+		return now(() -> dao.getLists(user));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteList(String user, String listId) {
+		return now(() -> dao.deleteList(user, listId));
+	}
+
+	@Override
+	public CompletableFuture<Void> renameList(String user, String listId, String newName) {
+		return now(() -> dao.renameList(user, listId, newName));
+	}
+
+	@Override
+	public CompletableFuture<List<TaskView>> getTasksOfList(String user, String listId) {
+		return now(() -> dao.getTasksOfList(user, listId));
+	}
+
+	@Override
+	public CompletableFuture<String> createListTask(String user, String listId, String taskName) {
+		return now(() -> dao.createListTask(user, listId, taskName));
+	}
+
+	@Override
+	public CompletableFuture<Void> renameListTask(String user, String listId, String taskId, String newTaskName) {
+		return now(() -> dao.renameListTask(user, listId, taskId, newTaskName));
+	}
+
+	@Override
+	public CompletableFuture<Void> setListTaskDone(String user, String listId, String taskId, boolean done) {
+		return now(() -> dao.setListTaskDone(user, listId, taskId, done));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteListTask(String user, String listId, String taskId) {
+		return now(() -> dao.deleteListTask(user, listId, taskId));
+	}
+
+	/**
+	 * The blocking DAO is a bean of its own and is closed by the container.
+	 */
+	@Override
+	public void close() {
+	}
+
+}
@@ -0,0 +1,45 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * A task as returned by {@link TodoDAO} reads: {id: "id_t1", name: "name task 1", done: false}.
+ */
+@JsonSerialize(using = TaskView.Serializer.class)
+public record TaskView(String id, String name, boolean done) {
+
+	/**
+	 * Writes the three fields directly, with pre-encoded field names, instead of introspecting the record.
+	 */
+	public static class Serializer extends StdSerializer<TaskView> {
+
+		private static final long serialVersionUID = 1L;
+
+		private static final SerializedString ID = new SerializedString("id");
+		private static final SerializedString NAME = new SerializedString("name");
+		private static final SerializedString DONE = new SerializedString("done");
+
+		public Serializer() {
+			super(TaskView.class);
+		}
+
+		@Override
+		public void serialize(TaskView task, JsonGenerator json, SerializerProvider provider) throws IOException {
+			json.writeStartObject(task);
+			json.writeFieldName(ID);
+			json.writeString(task.id);
+			json.writeFieldName(NAME);
+			json.writeString(task.name);
+			json.writeFieldName(DONE);
+			json.writeBoolean(task.done);
+			json.writeEndObject();
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+/**
+ * A write observed on the storage, possibly made by another application node.
+ * user is null when the change cannot be attributed (e.g. a delete without pre-image),
+ * listId is null for tasks of the default list, for user changes and for changes of the lists of a user
+ * that do not concern a single list (a bump of their version).
+ */
+public record TodoChange(Type type, String user, String listId, String id) {
+
+	public enum Type {
+		USER, LIST, TASK,
+		/** Writes may have been missed (the change stream lost its history): anything may have changed */
+		ALL
+	}
+
+	public static final TodoChange ALL = new TodoChange(Type.ALL, null, null, null);
+
+}
@@ -0,0 +1,16 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.function.Consumer;
+
+/**
+ * Implemented by DAOs whose storage is shared between application nodes
+ * and can report writes made by any of them.
+ */
+public interface TodoChangeSource {
+
+	/**
+	 * Starts notifying the listener, from a background thread, until the returned handle is closed.
+	 */
+	AutoCloseable watchChanges(Consumer<TodoChange> listener);
+
+}
@@ -1,7 +1,8 @@
 package fr.uha.ensisa.ff.todo_auto.dao;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Interface to access todo lists data
@@ -12,11 +13,19 @@ import java.util.Map;
  * a name, and a boolean done marker. 
  */
 public interface TodoDAO extends AutoCloseable {
+
+	/** Version of DAOs that don't track versions */
+	long UNVERSIONED = -1;
 	
 	void registerUser(String user, String password) throws UserAlreadyExistsException;
 
 	String getUserPassword(String user) throws UnknownUserException;
 
+	/**
+	 * Replaces the stored (hashed) password, e.g. to rehash it with a stronger cost.
+	 */
+	void updateUserPassword(String user, String password) throws UnknownUserException;
+
 	/**
 	 * @return the id of the created task (which is not done)
 	 */
@@ -25,7 +34,7 @@ public interface TodoDAO extends AutoCloseable {
 	/**
 	 * @return [{id: "id_t1", name: "name task 1", done: false}, ...]
 	 */
-	List<Map<String, Object>> getDefaultTasks(String user) throws UnknownUserException;
+	List<TaskView> getDefaultTasks(String user) throws UnknownUserException;
 
 	void setDefaultTaskDone(String user, String taskId, boolean done) throws UnknownUserException;
 
@@ -41,7 +50,7 @@ public interface TodoDAO extends AutoCloseable {
 	/**
 	 * @return [{id: "l1Id", name : "List 1 name"}, {id: "l2Id",  name: "List 2 name", sharedWith: ["user1@example.com", "user2@example.com"] }, ...]
 	 */
-	List<Map<String, ?>> getLists(String user) throws UnknownUserException;
+	List<ListView> getLists(String user) throws UnknownUserException;
 
 	void deleteList(String user, String listId) throws UnknownUserException, UnknownListException;
 
@@ -50,7 +59,7 @@ public interface TodoDAO extends AutoCloseable {
 	/**
 	 * @return [{id: "id_t1", name: "name task 1", done: false}, ...]
 	 */
-	List<Map<String, Object>> getTasksOfList(String user, String listId) throws UnknownUserException, UnknownListException;
+	List<TaskView> getTasksOfList(String user, String listId) throws UnknownUserException, UnknownListException;
 
 	/**
 	 * @return the id of the created task (which is not done)
@@ -62,5 +71,94 @@ public interface TodoDAO extends AutoCloseable {
 	void setListTaskDone(String user, String listId, String taskId, boolean done) throws UnknownUserException, UnknownListException;
 
 	void deleteListTask(String user, String listId, String taskId) throws UnknownUserException, UnknownListException;
+
+	/**
+	 * Version of {@link #getLists(String)}: bumped once a list was created, renamed or deleted.
+	 * Versions only increase, so that an unchanged version means unchanged content;
+	 * they are to be read before the content they describe.
+	 * @return {@link #UNVERSIONED} unless implemented
+	 */
+	default long getListsVersion(String user) throws UnknownUserException {
+		return UNVERSIONED;
+	}
+
+	/**
+	 * Version of the tasks of a list, bumped once a task of the list was created, modified or deleted.
+	 * @param listId null for the default list
+	 * @return {@link #UNVERSIONED} unless implemented
+	 * @see #getListsVersion(String)
+	 */
+	default long getTasksVersion(String user, String listId) throws UnknownUserException, UnknownListException {
+		return UNVERSIONED;
+	}
+
+	/**
+	 * Keyset pagination over the tasks of a list, in the order of {@link #getTasksOfList(String, String)}.
+	 * @param listId null for the default list
+	 * @param after id of the last task of the previous page, null for the first page;
+	 * this default implementation cannot tell where an unknown one (a task deleted since) stood,
+	 * and then returns an empty page rather than start again
+	 * @return at most limit tasks
+	 */
+	default List<TaskView> getTasksPage(String user, String listId, String after, int limit) throws UnknownUserException, UnknownListException {
+		List<TaskView> all = listId == null ? getDefaultTasks(user) : getTasksOfList(user, listId);
+		int from = 0;
+		if (after != null) {
+			from = all.size();
+			for (int i = 0; i < all.size(); i++) {
+				if (after.equals(all.get(i).id())) {
+					from = i + 1;
+					break;
+				}
+			}
+		}
+		return new ArrayList<>(all.subList(from, Math.min(from + limit, all.size())));
+	}
+
+	/**
+	 * Hands the tasks of a list to the sink one by one, so that implementations reading from
+	 * a cursor don't need to hold the whole list in memory.
+	 * @param listId null for the default list
+	 */
+	default void streamTasks(String user, String listId, Consumer<TaskView> sink) throws UnknownUserException, UnknownListException {
+		(listId == null ? getDefaultTasks(user) : getTasksOfList(user, listId)).forEach(sink);
+	}
+
+	/**
+	 * The lists of the user and the tasks of one of them, in one call, for the first page load.
+	 * Versions are read before the content, as with {@link #getListsVersion(String)}.
+	 * @param listId null for the default list; an unknown list falls back to the default list
+	 */
+	default Bootstrap getBootstrap(String user, String listId) throws UnknownUserException, UnknownListException {
+		long listsVersion = getListsVersion(user);
+		List<ListView> lists = getLists(user);
+		String shown = listId != null && lists != null && lists.stream().anyMatch(l -> listId.equals(l.id())) ? listId : null;
+		long tasksVersion = getTasksVersion(user, shown);
+		List<TaskView> tasks = shown == null ? getDefaultTasks(user) : getTasksOfList(user, shown);
+		return new Bootstrap(user, lists, listsVersion, shown, tasks, tasksVersion);
+	}
+
+	/**
+	 * Applies the operations in sequence. When ordered, the first failure stops the batch
+	 * and the remaining operations are reported as skipped.
+	 * @return one result per operation, in the same order
+	 */
+	default List<BatchResult> applyBatch(String user, List<BatchOperation> operations, boolean ordered) {
+		List<BatchResult> ret = new ArrayList<>(operations.size());
+		boolean failed = false;
+		for (BatchOperation op : operations) {
+			if (failed && ordered) {
+				ret.add(BatchResult.skipped());
+				continue;
+			}
+			try {
+				ret.add(BatchResult.ok(op.applyTo(this, user)));
+			} catch (Exception x) {
+				failed = true;
+				ret.add(BatchResult.failed(x));
+			}
+		}
+		return ret;
+	}
 	
 }
@@ -0,0 +1,81 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A change pushed to the sessions of a user, e.g. {entity: "task", action: "updated", list: "l1", id: "t1", done: true}.
+ * list is null for the default list and for list events; name and done are only set when known
+ * (done is absent from a rename, both are absent from a delete).
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record TodoEvent(@JsonIgnore String user, Entity entity, Action action,
+		@JsonProperty("list") String listId, String id, String name, Boolean done) {
+
+	public enum Entity {
+		@JsonProperty("task") TASK,
+		@JsonProperty("list") LIST
+	}
+
+	public enum Action {
+		@JsonProperty("created") CREATED,
+		@JsonProperty("updated") UPDATED,
+		@JsonProperty("deleted") DELETED
+	}
+
+	public static TodoEvent taskCreated(String user, String listId, String id, String name) {
+		return new TodoEvent(user, Entity.TASK, Action.CREATED, listId, id, name, false);
+	}
+
+	public static TodoEvent taskRenamed(String user, String listId, String id, String name) {
+		return new TodoEvent(user, Entity.TASK, Action.UPDATED, listId, id, name, null);
+	}
+
+	public static TodoEvent taskDone(String user, String listId, String id, boolean done) {
+		return new TodoEvent(user, Entity.TASK, Action.UPDATED, listId, id, null, done);
+	}
+
+	public static TodoEvent taskDeleted(String user, String listId, String id) {
+		return new TodoEvent(user, Entity.TASK, Action.DELETED, listId, id, null, null);
+	}
+
+	public static TodoEvent listCreated(String user, String id, String name) {
+		return new TodoEvent(user, Entity.LIST, Action.CREATED, null, id, name, null);
+	}
+
+	public static TodoEvent listRenamed(String user, String id, String name) {
+		return new TodoEvent(user, Entity.LIST, Action.UPDATED, null, id, name, null);
+	}
+
+	public static TodoEvent listDeleted(String user, String id) {
+		return new TodoEvent(user, Entity.LIST, Action.DELETED, null, id, null, null);
+	}
+
+	/**
+	 * @return the event of a successful batch operation, null if it has none
+	 */
+	public static TodoEvent of(String user, BatchOperation op, BatchResult result) {
+		if (!"ok".equals(result.status()))
+			return null;
+		String listId = op.isDefaultList() ? null : op.list().trim();
+		switch (op.op()) {
+		case CREATE_TASK:
+			return taskCreated(user, listId, result.id(), op.name());
+		case RENAME_TASK:
+			return taskRenamed(user, listId, op.id(), op.name());
+		case SET_TASK_DONE:
+			return taskDone(user, listId, op.id(), op.done());
+		case DELETE_TASK:
+			return taskDeleted(user, listId, op.id());
+		case CREATE_LIST:
+			return listCreated(user, result.id(), op.name());
+		case RENAME_LIST:
+			return listRenamed(user, op.id(), op.name());
+		case DELETE_LIST:
+			return listDeleted(user, op.id());
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,288 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * In-process publish / subscribe of {@link TodoEvent}s, per user.
+ *
+ * Publishing never blocks: each subscription has a bounded queue, drained by a small pool of
+ * dispatcher threads. A subscriber that falls a whole queue behind is disconnected rather than
+ * buffered without bound; it is expected to reconnect and reload what it displays.
+ * Sends block, so a subscriber that stops reading would hold a dispatcher thread, and enough of them all
+ * deliveries: a send that takes longer than the send timeout disconnects its subscriber too, and interrupts
+ * the dispatcher thread so that it moves on (sinks must give up on interruption, as servlet writes do).
+ * The number of subscriptions is capped, so that open connections cannot exhaust the node.
+ *
+ * Events come from the writes of this node ({@link #publishLocal(TodoEvent)}) and, when the
+ * storage is shared, from a feed of the writes of all nodes ({@link #publish(TodoEvent)}).
+ * While such a feed is live, local writes are not published: the feed reports them too, except
+ * deletes, which it may not be able to attribute to a user (see MongoDAO.watchEvents). Those are
+ * always published, and subscribers ignore a delete reported twice.
+ */
+public class TodoEventBus implements AutoCloseable {
+
+	public static final int DEFAULT_MAX_SUBSCRIPTIONS = 1000;
+	public static final int DEFAULT_QUEUE_SIZE = 256;
+	public static final long DEFAULT_HEARTBEAT_MS = 30_000;
+	public static final long DEFAULT_SEND_TIMEOUT_MS = 10_000;
+
+	/** Receives the events of a subscription, always from one thread at a time */
+	public interface Sink {
+		void send(TodoEvent event) throws IOException;
+
+		/** Keeps the connection open through proxies, and detects closed ones */
+		void heartbeat() throws IOException;
+
+		/**
+		 * The subscription ended because the subscriber was too slow (overflow, send timeout) or failed.
+		 * Not called when the subscriber closed the subscription itself.
+		 * Called from a dispatcher thread, possibly while a timed out send is still returning.
+		 */
+		void closed(boolean overflow);
+	}
+
+	private static final TodoEvent HEARTBEAT = new TodoEvent(null, null, null, null, null, null, null);
+
+	private final int maxSubscriptions;
+	private final int queueSize;
+	private final long sendTimeoutNanos;
+	private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+	private final AtomicInteger subscriptionCount = new AtomicInteger();
+	private final ExecutorService dispatcher;
+	private final ScheduledExecutorService heartbeats;
+	private volatile BooleanSupplier feedLive = () -> false;
+
+	public TodoEventBus() {
+		this(DEFAULT_MAX_SUBSCRIPTIONS, DEFAULT_QUEUE_SIZE, DEFAULT_HEARTBEAT_MS, DEFAULT_SEND_TIMEOUT_MS);
+	}
+
+	public TodoEventBus(int maxSubscriptions, int queueSize, long heartbeatMs, long sendTimeoutMs) {
+		this.maxSubscriptions = maxSubscriptions;
+		this.queueSize = queueSize;
+		this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+		this.dispatcher = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), daemon("event-dispatcher"));
+		this.heartbeats = Executors.newSingleThreadScheduledExecutor(daemon("event-heartbeat"));
+		this.heartbeats.scheduleWithFixedDelay(this::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+		long checkMs = Math.max(1, sendTimeoutMs / 4);
+		this.heartbeats.scheduleWithFixedDelay(this::checkSends, checkMs, checkMs, TimeUnit.MILLISECONDS);
+	}
+
+	private static ThreadFactory daemon(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	/**
+	 * Makes the bus rely on a feed of the writes of all nodes while it reports being live.
+	 */
+	public void setFeed(BooleanSupplier live) {
+		this.feedLive = live;
+	}
+
+	/**
+	 * @return the new subscription, or null when the node already serves the maximum number of them
+	 */
+	public Subscription subscribe(String user, Sink sink) {
+		if (subscriptionCount.incrementAndGet() > maxSubscriptions) {
+			subscriptionCount.decrementAndGet();
+			return null;
+		}
+		Subscription ret = new Subscription(user, sink);
+		// Atomic with the removal of the last subscription of the user
+		subscriptions.compute(user, (u, subs) -> {
+			if (subs == null)
+				subs = ConcurrentHashMap.newKeySet();
+			subs.add(ret);
+			return subs;
+		});
+		return ret;
+	}
+
+	public int getSubscriptionCount() {
+		return subscriptionCount.get();
+	}
+
+	/**
+	 * Publishes an event observed on the shared storage.
+	 */
+	public void publish(TodoEvent event) {
+		if (event.user() == null)
+			return;
+		Set<Subscription> subs = subscriptions.get(event.user());
+		if (subs != null)
+			for (Subscription s : subs)
+				s.offer(event);
+	}
+
+	/**
+	 * Publishes an event of a write made by this node, unless the feed will report it.
+	 */
+	public void publishLocal(TodoEvent event) {
+		if (event.action() == TodoEvent.Action.DELETED || !feedLive.getAsBoolean())
+			publish(event);
+	}
+
+	private void heartbeat() {
+		for (Set<Subscription> subs : subscriptions.values())
+			for (Subscription s : subs)
+				s.offer(HEARTBEAT);
+	}
+
+	private void checkSends() {
+		long now = System.nanoTime();
+		for (Set<Subscription> subs : subscriptions.values())
+			for (Subscription s : subs)
+				s.checkSend(now);
+	}
+
+	@Override
+	public void close() {
+		heartbeats.shutdownNow();
+		dispatcher.shutdownNow();
+		for (Set<Subscription> subs : subscriptions.values())
+			for (Subscription s : subs)
+				s.end(false, false);
+	}
+
+	public final class Subscription implements AutoCloseable {
+
+		private final String user;
+		private final Sink sink;
+		private final BlockingQueue<TodoEvent> queue = new ArrayBlockingQueue<>(queueSize);
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private final AtomicBoolean closed = new AtomicBoolean();
+		/** The dispatcher thread in the sink, and since when; guarded by this */
+		private Thread sender;
+		private long sendingSince;
+
+		private Subscription(String user, Sink sink) {
+			this.user = user;
+			this.sink = sink;
+		}
+
+		private void offer(TodoEvent event) {
+			if (closed.get())
+				return;
+			if (!queue.offer(event)) {
+				if (event != HEARTBEAT)
+					end(true, true);
+				return;
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					dispatcher.execute(this::drain);
+				} catch (RuntimeException x) {
+					// Shutting down
+					scheduled.set(false);
+				}
+			}
+		}
+
+		private void drain() {
+			try {
+				TodoEvent event;
+				while (!closed.get() && (event = queue.poll()) != null)
+					deliver(event);
+			} catch (IOException | RuntimeException x) {
+				end(false, true);
+			} finally {
+				scheduled.set(false);
+			}
+			// An event offered while finishing the loop above
+			if (!closed.get() && !queue.isEmpty())
+				schedule();
+		}
+
+		private void deliver(TodoEvent event) throws IOException {
+			synchronized (this) {
+				sender = Thread.currentThread();
+				sendingSince = System.nanoTime();
+			}
+			try {
+				if (event == HEARTBEAT)
+					sink.heartbeat();
+				else
+					sink.send(event);
+			} finally {
+				synchronized (this) {
+					sender = null;
+					// Clears the interruption of a timed out send, which must not reach the next subscription
+					Thread.interrupted();
+				}
+			}
+		}
+
+		/**
+		 * Interrupts the sender before the sink hears of it: closing a connection typically waits for
+		 * the lock its stuck send holds (SseEmitter synchronizes both).
+		 */
+		private void checkSend(long now) {
+			synchronized (this) {
+				if (sender == null || now - sendingSince < sendTimeoutNanos || !detach())
+					return;
+				sender.interrupt();
+			}
+			notifyClosed(true);
+		}
+
+		private void end(boolean overflow, boolean notify) {
+			if (detach() && notify)
+				notifyClosed(overflow);
+		}
+
+		/**
+		 * @return false if already detached
+		 */
+		private boolean detach() {
+			if (!closed.compareAndSet(false, true))
+				return false;
+			queue.clear();
+			subscriptions.computeIfPresent(user, (u, subs) -> {
+				subs.remove(this);
+				return subs.isEmpty() ? null : subs;
+			});
+			subscriptionCount.decrementAndGet();
+			return true;
+		}
+
+		/**
+		 * On a dispatcher thread, so that a sink waiting for its connection holds neither the heartbeat
+		 * thread nor a publisher.
+		 */
+		private void notifyClosed(boolean overflow) {
+			try {
+				dispatcher.execute(() -> sink.closed(overflow));
+			} catch (RuntimeException x) {
+				// Shutting down
+			}
+		}
+
+		@Override
+		public void close() {
+			end(false, false);
+		}
+
+	}
+
+}
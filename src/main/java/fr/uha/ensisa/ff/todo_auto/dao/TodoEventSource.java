@@ -0,0 +1,26 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.function.Consumer;
+
+/**
+ * Implemented by DAOs whose storage is shared between application nodes
+ * and can report the content of the writes made by any of them, see {@link TodoEventBus}.
+ */
+public interface TodoEventSource {
+
+	interface Feed extends AutoCloseable {
+		/**
+		 * @return whether the writes of all nodes are currently being reported
+		 */
+		boolean isLive();
+
+		@Override
+		void close();
+	}
+
+	/**
+	 * Starts notifying the listener, from a background thread, until the returned feed is closed.
+	 */
+	Feed watchEvents(Consumer<TodoEvent> listener);
+
+}
@@ -0,0 +1,224 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * BSON codecs decoding {@link TaskView} and {@link ListView} straight from the wire,
+ * skipping the intermediate {@link org.bson.Document}.
+ */
+public final class ViewCodecs {
+
+	private ViewCodecs() {
+	}
+
+	/**
+	 * Decodes {idField: "t1", name: "name", done: false}. Legacy documents storing done as a string are accepted.
+	 */
+	public static class TaskViewCodec implements Codec<TaskView> {
+
+		private final String idField;
+
+		public TaskViewCodec(String idField) {
+			this.idField = idField;
+		}
+
+		@Override
+		public TaskView decode(BsonReader reader, DecoderContext decoderContext) {
+			String id = null, name = null;
+			boolean done = false;
+			reader.readStartDocument();
+			while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+				String field = reader.readName();
+				if (field.equals(idField)) {
+					id = readString(reader);
+				} else if (field.equals("name")) {
+					name = readString(reader);
+				} else if (field.equals("done")) {
+					done = readBoolean(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.readEndDocument();
+			return new TaskView(id, name, done);
+		}
+
+		@Override
+		public void encode(BsonWriter writer, TaskView task, EncoderContext encoderContext) {
+			writer.writeStartDocument();
+			writer.writeString(idField, task.id());
+			writer.writeString("name", task.name());
+			writer.writeBoolean("done", task.done());
+			writer.writeEndDocument();
+		}
+
+		@Override
+		public Class<TaskView> getEncoderClass() {
+			return TaskView.class;
+		}
+	}
+
+	/**
+	 * Decodes {_id: "l1", name: "name"}.
+	 */
+	public static class ListViewCodec implements Codec<ListView> {
+
+		@Override
+		public ListView decode(BsonReader reader, DecoderContext decoderContext) {
+			String id = null, name = null;
+			reader.readStartDocument();
+			while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+				String field = reader.readName();
+				if (field.equals("_id")) {
+					id = readString(reader);
+				} else if (field.equals("name")) {
+					name = readString(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.readEndDocument();
+			return new ListView(id, name);
+		}
+
+		@Override
+		public void encode(BsonWriter writer, ListView list, EncoderContext encoderContext) {
+			writer.writeStartDocument();
+			writer.writeString("_id", list.id());
+			writer.writeString("name", list.name());
+			writer.writeEndDocument();
+		}
+
+		@Override
+		public Class<ListView> getEncoderClass() {
+			return ListView.class;
+		}
+	}
+
+	/**
+	 * Decodes the user document joined with its lists and the tasks of one of them (see MongoDAO#getBootstrap):
+	 * {_id: "user", listsVersion: 3, tasksVersion: 7, lists: [{_id: "l1", name: "name", version: 2}, ...], tasks: [...]}.
+	 * The list is unset in the result when it is not among the lists, its tasks version being then the one of the default list.
+	 * A decoder only, for RawBsonDocument#decode: bootstraps are read, never stored.
+	 */
+	public static class BootstrapDecoder implements Decoder<Bootstrap> {
+
+		private final TaskViewCodec taskCodec = new TaskViewCodec("_id");
+		private final String listId;
+
+		/**
+		 * @param listId the list whose tasks were joined, null for the default list
+		 */
+		public BootstrapDecoder(String listId) {
+			this.listId = listId;
+		}
+
+		@Override
+		public Bootstrap decode(BsonReader reader, DecoderContext decoderContext) {
+			String user = null;
+			long listsVersion = 0, tasksVersion = 0, listVersion = -1;
+			List<ListView> lists = new ArrayList<>();
+			List<TaskView> tasks = new ArrayList<>();
+			reader.readStartDocument();
+			while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+				String field = reader.readName();
+				if (field.equals("_id")) {
+					user = readString(reader);
+				} else if (field.equals("listsVersion")) {
+					listsVersion = readLong(reader);
+				} else if (field.equals("tasksVersion")) {
+					tasksVersion = readLong(reader);
+				} else if (field.equals("lists")) {
+					reader.readStartArray();
+					while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+						String id = null, name = null;
+						long version = 0;
+						reader.readStartDocument();
+						while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+							String listField = reader.readName();
+							if (listField.equals("_id")) {
+								id = readString(reader);
+							} else if (listField.equals("name")) {
+								name = readString(reader);
+							} else if (listField.equals("version")) {
+								version = readLong(reader);
+							} else {
+								reader.skipValue();
+							}
+						}
+						reader.readEndDocument();
+						lists.add(new ListView(id, name));
+						if (listId != null && listId.equals(id))
+							listVersion = version;
+					}
+					reader.readEndArray();
+				} else if (field.equals("tasks")) {
+					reader.readStartArray();
+					while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+						tasks.add(taskCodec.decode(reader, decoderContext));
+					reader.readEndArray();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.readEndDocument();
+			if (listVersion < 0)
+				return new Bootstrap(user, lists, listsVersion, null, tasks, tasksVersion);
+			return new Bootstrap(user, lists, listsVersion, listId, tasks, listVersion);
+		}
+	}
+
+	static String readString(BsonReader reader) {
+		switch (reader.getCurrentBsonType()) {
+		case STRING:
+			return reader.readString();
+		case OBJECT_ID:
+			return reader.readObjectId().toHexString();
+		case NULL:
+			reader.readNull();
+			return null;
+		default:
+			reader.skipValue();
+			return null;
+		}
+	}
+
+	static boolean readBoolean(BsonReader reader) {
+		switch (reader.getCurrentBsonType()) {
+		case BOOLEAN:
+			return reader.readBoolean();
+		case STRING:
+			return Boolean.parseBoolean(reader.readString());
+		default:
+			reader.skipValue();
+			return false;
+		}
+	}
+
+	/**
+	 * A counter, whatever the number type it was written with; 0 if not a number.
+	 */
+	static long readLong(BsonReader reader) {
+		switch (reader.getCurrentBsonType()) {
+		case INT32:
+			return reader.readInt32();
+		case INT64:
+			return reader.readInt64();
+		case DOUBLE:
+			return (long) reader.readDouble();
+		default:
+			reader.skipValue();
+			return 0;
+		}
+	}
+
+}
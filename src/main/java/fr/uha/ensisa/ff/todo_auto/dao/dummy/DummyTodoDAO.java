@@ -1,19 +1,23 @@
 package fr.uha.ensisa.ff.todo_auto.dao.dummy;
 
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
 
+import fr.uha.ensisa.ff.todo_auto.dao.ListView;
+import fr.uha.ensisa.ff.todo_auto.dao.TaskView;
 import fr.uha.ensisa.ff.todo_auto.dao.TodoDAO;
 import fr.uha.ensisa.ff.todo_auto.dao.UnknownListException;
 import fr.uha.ensisa.ff.todo_auto.dao.UnknownUserException;
 import fr.uha.ensisa.ff.todo_auto.dao.UserAlreadyExistsException;
+import fr.uha.ensisa.ff.todo_auto.log.Log;
 
 public class DummyTodoDAO implements TodoDAO {
 
+	private static final Log log = Log.get(DummyTodoDAO.class);
+
 	private Map<String /* name */, DummyUser > users = new TreeMap<>();
 		
 	public DummyTodoDAO() {
@@ -52,7 +56,7 @@ public class DummyTodoDAO implements TodoDAO {
 	public void registerUser(String userName, String password) throws UserAlreadyExistsException {
 		if (users.containsKey(userName)) throw new UserAlreadyExistsException(userName);
 		users.put(userName, new DummyUser(userName, password));
-		System.err.println("Registered " + userName + " with password " + password);
+		log.debug("Registered {}", userName);
 	}
 
 	@Override
@@ -61,14 +65,15 @@ public class DummyTodoDAO implements TodoDAO {
 	}
 
 	@Override
-	public List<Map<String, ?>> getLists(String username) throws UnknownUserException {
-		List<Map<String, ?>> ret = new LinkedList<>();
+	public void updateUserPassword(String username, String password) throws UnknownUserException {
+		getUser(username).setPassword(password);
+	}
+
+	@Override
+	public List<ListView> getLists(String username) throws UnknownUserException {
+		List<ListView> ret = new ArrayList<>();
 		getUser(username).lists.entrySet().stream().forEach(e -> {
-			DummyList dl = e.getValue();
-			Map<String, Object> list = new TreeMap<>();
-			list.put("id", e.getKey());
-			list.put("name", dl.getName());
-			ret.add(list);
+			ret.add(new ListView(e.getKey(), e.getValue().getName()));
 		});
 		return ret;
 	}
@@ -92,23 +97,17 @@ public class DummyTodoDAO implements TodoDAO {
 		getList(u, id).setName(newName);
 	}
 	
-	protected List<Map<String, Object>> toTaskList(List<DummyTask> tasks) {
-		return tasks.stream().map(t -> {
-				Map<String, Object> ret = new LinkedHashMap<>();
-				ret.put("id", t.getId());
-				ret.put("name", t.getName());
-				ret.put("done", t.isDone());
-				return ret;
-			}).collect(Collectors.toList());
+	protected List<TaskView> toTaskList(List<DummyTask> tasks) {
+		return tasks.stream().map(t -> new TaskView(t.getId(), t.getName(), t.isDone())).collect(Collectors.toList());
 	}
 
 	@Override
-	public List<Map<String, Object>> getDefaultTasks(String user) throws UnknownUserException {
+	public List<TaskView> getDefaultTasks(String user) throws UnknownUserException {
 		return toTaskList(getUser(user).defaultTasks);
 	}
 
 	@Override
-	public List<Map<String, Object>> getTasksOfList(String user, String list) throws UnknownUserException, UnknownListException {
+	public List<TaskView> getTasksOfList(String user, String list) throws UnknownUserException, UnknownListException {
 		return toTaskList(getList(user, list).tasks);
 	}
 
@@ -175,7 +174,7 @@ public class DummyTodoDAO implements TodoDAO {
 
 	@Override
 	public void close() throws Exception {
-		System.out.println("Close invoked on Dummy DAO");
+		log.debug("Close invoked on Dummy DAO");
 	}
 
 }
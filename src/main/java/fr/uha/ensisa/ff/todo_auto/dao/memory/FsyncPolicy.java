@@ -0,0 +1,13 @@
+package fr.uha.ensisa.ff.todo_auto.dao.memory;
+
+/**
+ * When the journal of an {@link InMemoryTodoDAO} is forced to disk.
+ */
+public enum FsyncPolicy {
+	/** Left to the operating system: survives a crash of the JVM, not of the machine */
+	NEVER,
+	/** Forced in the background every fsync interval: loses at most that much on power loss */
+	INTERVAL,
+	/** Forced before the modification returns, forces being shared by concurrent writers */
+	ALWAYS
+}
@@ -0,0 +1,707 @@
+package fr.uha.ensisa.ff.todo_auto.dao.memory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fr.uha.ensisa.ff.todo_auto.dao.BatchOperation;
+import fr.uha.ensisa.ff.todo_auto.dao.BatchResult;
+import fr.uha.ensisa.ff.todo_auto.dao.ListView;
+import fr.uha.ensisa.ff.todo_auto.dao.TaskView;
+import fr.uha.ensisa.ff.todo_auto.dao.TodoDAO;
+import fr.uha.ensisa.ff.todo_auto.dao.UnknownListException;
+import fr.uha.ensisa.ff.todo_auto.dao.UnknownUserException;
+import fr.uha.ensisa.ff.todo_auto.dao.UserAlreadyExistsException;
+import fr.uha.ensisa.ff.todo_auto.log.Log;
+
+/**
+ * Thread safe {@link TodoDAO} keeping everything in memory, for nodes running without MongoDB.
+ *
+ * Users, and the lists of each user, are in {@link ConcurrentHashMap}s; each user has its own
+ * read / write lock, taken for reading only when a view must be rebuilt, and for writing on
+ * every modification. Reads of an unmodified list return a shared immutable view without locking.
+ * Tasks of a list are indexed by id in creation order, so that lookups are O(1).
+ * Ids come from a single atomic counter and are never reused.
+ *
+ * When given a directory, every modification is appended to a {@link Journal} under the lock of the
+ * user (so the journal has the modifications of a user in the order they were applied), and
+ * snapshots are written periodically and on close. On startup, the latest snapshot is loaded and
+ * the journal written since replayed. Snapshots don't stop writers: a user is only locked while
+ * being written, so a snapshot may already contain some of the replayed modifications.
+ * Journal records carry the generated ids and the values set, so replaying them again is harmless.
+ *
+ * As with {@link fr.uha.ensisa.ff.todo_auto.dao.MongoDAO}, modifying or deleting an unknown task is a no-op.
+ */
+public class InMemoryTodoDAO implements TodoDAO {
+
+	private static final Log log = Log.get(InMemoryTodoDAO.class);
+
+	public static final long DEFAULT_FSYNC_INTERVAL_MS = 100;
+	public static final long DEFAULT_SNAPSHOT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+	static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+
+	private static final Pattern SNAPSHOT = Pattern.compile("snapshot-(\\d+)\\.bin");
+	private static final int SNAPSHOT_VERSION = 1;
+
+	/** Journal record types, stored as their ordinal: only add at the end */
+	private enum Op {
+		REGISTER_USER, UPDATE_PASSWORD, CREATE_LIST, RENAME_LIST, DELETE_LIST, CREATE_TASK, RENAME_TASK, SET_TASK_DONE, DELETE_TASK
+	}
+
+	private final ConcurrentMap<String, MemoryUser> users = new ConcurrentHashMap<>();
+	private final AtomicLong idGenerator = new AtomicLong();
+	private final Path directory;
+	private final Journal journal;
+	private final ScheduledExecutorService snapshotter;
+
+	public InMemoryTodoDAO() {
+		this.directory = null;
+		this.journal = null;
+		this.snapshotter = null;
+	}
+
+	/**
+	 * Recovers the content of the directory (created if needed), then journals every modification into it.
+	 * @param fsyncIntervalMs only used with {@link FsyncPolicy#INTERVAL}
+	 * @param snapshotIntervalMs 0 to only snapshot on close
+	 */
+	public InMemoryTodoDAO(Path directory, FsyncPolicy fsync, long fsyncIntervalMs, long snapshotIntervalMs) throws IOException {
+		this.directory = directory;
+		this.journal = new Journal(directory, recover(), SEGMENT_BYTES, fsync, fsyncIntervalMs);
+		if (snapshotIntervalMs > 0) {
+			this.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "memory-snapshotter");
+				t.setDaemon(true);
+				return t;
+			});
+			this.snapshotter.scheduleWithFixedDelay(() -> {
+				try {
+					snapshot();
+				} catch (IOException | RuntimeException x) {
+					log.error("Snapshot failed", x);
+				}
+			}, snapshotIntervalMs, snapshotIntervalMs, TimeUnit.MILLISECONDS);
+		} else {
+			this.snapshotter = null;
+		}
+	}
+
+	private String nextId() {
+		return Long.toString(idGenerator.incrementAndGet());
+	}
+
+	private MemoryUser getUser(String user) throws UnknownUserException {
+		MemoryUser ret = users.get(user);
+		if (ret == null) throw new UnknownUserException(user);
+		return ret;
+	}
+
+	private static MemoryList getList(String user, MemoryUser u, String listId) throws UnknownListException {
+		MemoryList ret = u.lists.get(listId);
+		if (ret == null) throw new UnknownListException(user, listId);
+		return ret;
+	}
+
+	private static List<TaskView> read(MemoryUser u, MemoryList list) {
+		List<TaskView> ret = list.cachedView();
+		if (ret != null)
+			return ret;
+		Lock lock = u.lock.readLock();
+		lock.lock();
+		try {
+			return list.buildView();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Journals a modification; to be called under the write lock of the user.
+	 * All records have the same fields, unused ones being null.
+	 * @return the position to {@link #sync(long)} once the lock is released, 0 if not journaling
+	 */
+	private long log(Op op, String user, String listId, String id, String value, boolean done) {
+		if (journal == null)
+			return 0;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(op.ordinal());
+			writeString(out, user);
+			writeString(out, listId);
+			writeString(out, id);
+			writeString(out, value);
+			out.writeBoolean(done);
+			return journal.append(bytes.toByteArray());
+		} catch (IOException x) {
+			throw new UncheckedIOException(x);
+		}
+	}
+
+	/**
+	 * Waits for the journal to be durable up to position, according to the fsync policy.
+	 * Within a batch the wait is left to the end of the batch.
+	 */
+	private void sync(MemoryUser u, long position) {
+		if (position != 0 && !u.lock.isWriteLockedByCurrentThread())
+			journal.sync(position);
+	}
+
+	/**
+	 * Applies a journal record, during recovery (single threaded, no locking).
+	 */
+	private void apply(DataInputStream in) throws IOException {
+		Op op = Op.values()[in.readByte()];
+		String user = readString(in), listId = readString(in), id = readString(in), value = readString(in);
+		boolean done = in.readBoolean();
+		if (id != null && (op == Op.CREATE_LIST || op == Op.CREATE_TASK))
+			idGenerator.accumulateAndGet(Long.parseLong(id), Math::max);
+		if (op == Op.REGISTER_USER) {
+			users.putIfAbsent(user, new MemoryUser(value));
+			return;
+		}
+		MemoryUser u = users.get(user);
+		if (u == null)
+			return;
+		switch (op) {
+		case UPDATE_PASSWORD:
+			u.password = value;
+			return;
+		case CREATE_LIST:
+			u.lists.putIfAbsent(id, new MemoryList(Long.parseLong(id), value));
+			u.listsModified();
+			return;
+		case RENAME_LIST:
+			if (u.lists.containsKey(id))
+				u.lists.get(id).name = value;
+			u.listsModified();
+			return;
+		case DELETE_LIST:
+			u.lists.remove(id);
+			u.listsModified();
+			return;
+		default:
+			break;
+		}
+		MemoryList list = listId == null ? u.defaultTasks : u.lists.get(listId);
+		if (list == null)
+			return;
+		MemoryTask task = list.tasks.get(id);
+		switch (op) {
+		case CREATE_TASK:
+			list.tasks.putIfAbsent(id, new MemoryTask(id, value));
+			break;
+		case RENAME_TASK:
+			if (task != null) task.name = value;
+			break;
+		case SET_TASK_DONE:
+			if (task != null) task.done = done;
+			break;
+		case DELETE_TASK:
+			list.tasks.remove(id);
+			break;
+		default:
+			throw new IllegalStateException("Unexpected journal record " + op);
+		}
+		list.modified();
+	}
+
+	private Path snapshotPath(long segment) {
+		return directory.resolve("snapshot-" + segment + ".bin");
+	}
+
+	/**
+	 * @return numbers of the snapshots in the directory, in order
+	 */
+	private List<Long> snapshots() throws IOException {
+		try (var files = Files.list(directory)) {
+			return files.map(f -> SNAPSHOT.matcher(f.getFileName().toString())).filter(Matcher::matches)
+					.map(m -> Long.parseLong(m.group(1))).sorted().toList();
+		}
+	}
+
+	/**
+	 * Loads the latest snapshot, then replays the journal written after it.
+	 * @return the number of the journal segment to write next
+	 */
+	private long recover() throws IOException {
+		long start = System.nanoTime();
+		Files.createDirectories(directory);
+		List<Long> snapshots = snapshots();
+		long from = 0;
+		if (!snapshots.isEmpty()) {
+			from = snapshots.get(snapshots.size() - 1);
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath(from)), 1 << 16))) {
+				readSnapshot(in);
+			}
+		}
+		long next = from, records = 0;
+		for (long segment : Journal.segments(directory)) {
+			if (segment < from)
+				continue;
+			records += Journal.replay(Journal.segmentPath(directory, segment), this::apply);
+			next = segment + 1;
+		}
+		log.info("Recovered {} users from {}{} and {} journal records in {}ms", users.size(), directory,
+				snapshots.isEmpty() ? "" : " (snapshot " + from + ")", records, (System.nanoTime() - start) / 1_000_000);
+		return next;
+	}
+
+	private void readSnapshot(DataInputStream in) throws IOException {
+		if (in.readInt() != SNAPSHOT_VERSION)
+			throw new IOException("Unsupported snapshot version");
+		idGenerator.accumulateAndGet(in.readLong(), Math::max);
+		while (in.readBoolean()) {
+			String name = readString(in);
+			MemoryUser u = new MemoryUser(readString(in));
+			readTasks(in, u.defaultTasks);
+			for (int l = in.readInt(); l > 0; l--) {
+				String id = readString(in);
+				MemoryList list = new MemoryList(in.readLong(), readString(in));
+				readTasks(in, list);
+				u.lists.put(id, list);
+				idGenerator.accumulateAndGet(list.seq, Math::max);
+			}
+			users.put(name, u);
+		}
+	}
+
+	private void readTasks(DataInputStream in, MemoryList list) throws IOException {
+		for (int t = in.readInt(); t > 0; t--) {
+			MemoryTask task = new MemoryTask(readString(in), readString(in));
+			task.done = in.readBoolean();
+			list.tasks.put(task.id, task);
+			idGenerator.accumulateAndGet(Long.parseLong(task.id), Math::max);
+		}
+	}
+
+	private static void writeTasks(DataOutputStream out, MemoryList list) throws IOException {
+		out.writeInt(list.tasks.size());
+		for (MemoryTask task : list.tasks.values()) {
+			writeString(out, task.id);
+			writeString(out, task.name);
+			out.writeBoolean(task.done);
+		}
+	}
+
+	/**
+	 * Writes a snapshot, then deletes the journal segments and snapshots it makes useless.
+	 * Each user is read locked while written, writers of other users are not blocked.
+	 */
+	public synchronized void snapshot() throws IOException {
+		if (journal == null)
+			throw new IllegalStateException("Not persistent");
+		// Everything modified from now on is replayed from that segment
+		long segment = journal.roll();
+		long ids = idGenerator.get();
+		Path tmp = directory.resolve("snapshot-" + segment + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeLong(ids);
+			for (Map.Entry<String, MemoryUser> user : users.entrySet()) {
+				MemoryUser u = user.getValue();
+				u.lock.readLock().lock();
+				try {
+					out.writeBoolean(true);
+					writeString(out, user.getKey());
+					writeString(out, u.password);
+					writeTasks(out, u.defaultTasks);
+					out.writeInt(u.lists.size());
+					for (Map.Entry<String, MemoryList> list : u.lists.entrySet()) {
+						writeString(out, list.getKey());
+						out.writeLong(list.getValue().seq);
+						writeString(out, list.getValue().name);
+						writeTasks(out, list.getValue());
+					}
+				} finally {
+					u.lock.readLock().unlock();
+				}
+			}
+			out.writeBoolean(false);
+		}
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		Files.move(tmp, snapshotPath(segment), StandardCopyOption.ATOMIC_MOVE);
+		for (long s : snapshots())
+			if (s < segment)
+				Files.deleteIfExists(snapshotPath(s));
+		journal.deleteSegmentsBefore(segment);
+	}
+
+	@Override
+	public void registerUser(String user, String password) throws UserAlreadyExistsException {
+		MemoryUser u = new MemoryUser(password);
+		long position;
+		// Locked before being visible, so that nothing of the user is journaled before its creation
+		u.lock.writeLock().lock();
+		try {
+			if (users.putIfAbsent(user, u) != null)
+				throw new UserAlreadyExistsException(user);
+			position = log(Op.REGISTER_USER, user, null, null, password, false);
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+	}
+
+	@Override
+	public String getUserPassword(String user) throws UnknownUserException {
+		return getUser(user).password;
+	}
+
+	@Override
+	public void updateUserPassword(String user, String password) throws UnknownUserException {
+		MemoryUser u = getUser(user);
+		long position;
+		u.lock.writeLock().lock();
+		try {
+			u.password = password;
+			position = log(Op.UPDATE_PASSWORD, user, null, null, password, false);
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+	}
+
+	@Override
+	public String createDefaultTask(String user, String taskName) throws UnknownUserException {
+		MemoryUser u = getUser(user);
+		String id = nextId();
+		long position;
+		u.lock.writeLock().lock();
+		try {
+			u.defaultTasks.tasks.put(id, new MemoryTask(id, taskName));
+			u.defaultTasks.modified();
+			position = log(Op.CREATE_TASK, user, null, id, taskName, false);
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+		return id;
+	}
+
+	@Override
+	public List<TaskView> getDefaultTasks(String user) throws UnknownUserException {
+		MemoryUser u = getUser(user);
+		return read(u, u.defaultTasks);
+	}
+
+	@Override
+	public void setDefaultTaskDone(String user, String taskId, boolean done) throws UnknownUserException {
+		MemoryUser u = getUser(user);
+		long position = 0;
+		u.lock.writeLock().lock();
+		try {
+			MemoryTask task = u.defaultTasks.tasks.get(taskId);
+			if (task != null) {
+				task.done = done;
+				u.defaultTasks.modified();
+				position = log(Op.SET_TASK_DONE, user, null, taskId, null, done);
+			}
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+	}
+
+	@Override
+	public void renameDefaultTask(String user, String taskId, String newName) throws UnknownUserException {
+		MemoryUser u = getUser(user);
+		long position = 0;
+		u.lock.writeLock().lock();
+		try {
+			MemoryTask task = u.defaultTasks.tasks.get(taskId);
+			if (task != null) {
+				task.name = newName;
+				u.defaultTasks.modified();
+				position = log(Op.RENAME_TASK, user, null, taskId, newName, false);
+			}
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+	}
+
+	@Override
+	public void deleteDefaultTask(String user, String taskId) throws UnknownUserException {
+		MemoryUser u = getUser(user);
+		long position = 0;
+		u.lock.writeLock().lock();
+		try {
+			if (u.defaultTasks.tasks.remove(taskId) != null) {
+				u.defaultTasks.modified();
+				position = log(Op.DELETE_TASK, user, null, taskId, null, false);
+			}
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+	}
+
+	@Override
+	public String createList(String user, String name) throws UnknownUserException {
+		MemoryUser u = getUser(user);
+		long seq = idGenerator.incrementAndGet();
+		String id = Long.toString(seq);
+		long position;
+		u.lock.writeLock().lock();
+		try {
+			u.lists.put(id, new MemoryList(seq, name));
+			u.listsModified();
+			position = log(Op.CREATE_LIST, user, null, id, name, false);
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+		return id;
+	}
+
+	@Override
+	public List<ListView> getLists(String user) throws UnknownUserException {
+		MemoryUser u = getUser(user);
+		List<ListView> ret = u.cachedListsView();
+		if (ret != null)
+			return ret;
+		u.lock.readLock().lock();
+		try {
+			return u.buildListsView();
+		} finally {
+			u.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void deleteList(String user, String listId) throws UnknownUserException, UnknownListException {
+		MemoryUser u = getUser(user);
+		long position;
+		u.lock.writeLock().lock();
+		try {
+			if (u.lists.remove(listId) == null) throw new UnknownListException(user, listId);
+			u.listsModified();
+			position = log(Op.DELETE_LIST, user, null, listId, null, false);
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+	}
+
+	@Override
+	public void renameList(String user, String listId, String newName) throws UnknownUserException, UnknownListException {
+		MemoryUser u = getUser(user);
+		long position;
+		u.lock.writeLock().lock();
+		try {
+			getList(user, u, listId).name = newName;
+			u.listsModified();
+			position = log(Op.RENAME_LIST, user, null, listId, newName, false);
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+	}
+
+	@Override
+	public List<TaskView> getTasksOfList(String user, String listId) throws UnknownUserException, UnknownListException {
+		MemoryUser u = getUser(user);
+		return read(u, getList(user, u, listId));
+	}
+
+	@Override
+	public long getListsVersion(String user) throws UnknownUserException {
+		return getUser(user).listsVersion();
+	}
+
+	@Override
+	public long getTasksVersion(String user, String listId) throws UnknownUserException, UnknownListException {
+		MemoryUser u = getUser(user);
+		return (listId == null ? u.defaultTasks : getList(user, u, listId)).version();
+	}
+
+	@Override
+	public String createListTask(String user, String listId, String taskName) throws UnknownUserException, UnknownListException {
+		MemoryUser u = getUser(user);
+		String id = nextId();
+		long position;
+		u.lock.writeLock().lock();
+		try {
+			MemoryList list = getList(user, u, listId);
+			list.tasks.put(id, new MemoryTask(id, taskName));
+			list.modified();
+			position = log(Op.CREATE_TASK, user, listId, id, taskName, false);
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+		return id;
+	}
+
+	@Override
+	public void renameListTask(String user, String listId, String taskId, String newTaskName) throws UnknownUserException, UnknownListException {
+		MemoryUser u = getUser(user);
+		long position = 0;
+		u.lock.writeLock().lock();
+		try {
+			MemoryList list = getList(user, u, listId);
+			MemoryTask task = list.tasks.get(taskId);
+			if (task != null) {
+				task.name = newTaskName;
+				list.modified();
+				position = log(Op.RENAME_TASK, user, listId, taskId, newTaskName, false);
+			}
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+	}
+
+	@Override
+	public void setListTaskDone(String user, String listId, String taskId, boolean done) throws UnknownUserException, UnknownListException {
+		MemoryUser u = getUser(user);
+		long position = 0;
+		u.lock.writeLock().lock();
+		try {
+			MemoryList list = getList(user, u, listId);
+			MemoryTask task = list.tasks.get(taskId);
+			if (task != null) {
+				task.done = done;
+				list.modified();
+				position = log(Op.SET_TASK_DONE, user, listId, taskId, null, done);
+			}
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+	}
+
+	@Override
+	public void deleteListTask(String user, String listId, String taskId) throws UnknownUserException, UnknownListException {
+		MemoryUser u = getUser(user);
+		long position = 0;
+		u.lock.writeLock().lock();
+		try {
+			MemoryList list = getList(user, u, listId);
+			if (list.tasks.remove(taskId) != null) {
+				list.modified();
+				position = log(Op.DELETE_TASK, user, listId, taskId, null, false);
+			}
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		sync(u, position);
+	}
+
+	/**
+	 * Tasks are listed in the order of their ids, increasing numbers: the page resumes after after
+	 * whether it still exists or not, as MongoDAO does.
+	 */
+	@Override
+	public List<TaskView> getTasksPage(String user, String listId, String after, int limit) throws UnknownUserException, UnknownListException {
+		List<TaskView> all = listId == null ? getDefaultTasks(user) : getTasksOfList(user, listId);
+		int from = 0;
+		if (after != null) {
+			long last;
+			try {
+				last = Long.parseLong(after);
+			} catch (NumberFormatException x) {
+				// Not an id of this DAO
+				return new ArrayList<>();
+			}
+			int low = 0, high = all.size();
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (Long.parseLong(all.get(mid).id()) <= last)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			from = low;
+		}
+		return new ArrayList<>(all.subList(from, Math.min(from + limit, all.size())));
+	}
+
+	@Override
+	public void streamTasks(String user, String listId, Consumer<TaskView> sink) throws UnknownUserException, UnknownListException {
+		// Views are immutable snapshots, the sink runs without holding any lock
+		(listId == null ? getDefaultTasks(user) : getTasksOfList(user, listId)).forEach(sink);
+	}
+
+	/**
+	 * Runs the whole batch under the write lock of the user: readers see all of it or none of it.
+	 * When journaling, the batch waits once for the journal to be durable.
+	 */
+	@Override
+	public List<BatchResult> applyBatch(String user, List<BatchOperation> operations, boolean ordered) {
+		MemoryUser u = users.get(user);
+		if (u == null)
+			return TodoDAO.super.applyBatch(user, operations, ordered);
+		List<BatchResult> ret;
+		u.lock.writeLock().lock();
+		try {
+			ret = TodoDAO.super.applyBatch(user, operations, ordered);
+		} finally {
+			u.lock.writeLock().unlock();
+		}
+		if (journal != null)
+			journal.sync(journal.position());
+		return ret;
+	}
+
+	/**
+	 * Snapshots before closing when journaling, so that the next startup has nothing to replay.
+	 */
+	@Override
+	public void close() throws Exception {
+		if (journal == null)
+			return;
+		if (snapshotter != null)
+			snapshotter.shutdownNow();
+		snapshot();
+		journal.close();
+	}
+
+}
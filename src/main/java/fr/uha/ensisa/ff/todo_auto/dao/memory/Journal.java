@@ -0,0 +1,228 @@
+package fr.uha.ensisa.ff.todo_auto.dao.memory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import fr.uha.ensisa.ff.todo_auto.log.Log;
+
+/**
+ * Append-only log of the modifications of an {@link InMemoryTodoDAO}, in memory-mapped segment files
+ * journal-&lt;n&gt;.log. Each record is [length][crc32][payload]; a zero length marks the end of a segment.
+ *
+ * Appending only copies the record into the mapping, so it costs no system call.
+ * Durability then depends on the {@link FsyncPolicy}; with ALWAYS, concurrent writers share
+ * forces (group commit): whoever syncs first forces everything appended so far, the others
+ * find their record already durable.
+ */
+class Journal implements AutoCloseable {
+
+	private static final Log log = Log.get(Journal.class);
+
+	private static final Pattern SEGMENT = Pattern.compile("journal-(\\d+)\\.log");
+	private static final int HEADER = 8;
+
+	private final Path directory;
+	private final int segmentBytes;
+	private final FsyncPolicy policy;
+	private final ScheduledExecutorService flusher;
+	private final Object syncMonitor = new Object();
+
+	// Guarded by this
+	private long segment;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private long appended;
+	private final CRC32 crc = new CRC32();
+
+	private volatile long durable;
+
+	Journal(Path directory, long firstSegment, int segmentBytes, FsyncPolicy policy, long fsyncIntervalMs) throws IOException {
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.policy = policy;
+		open(firstSegment);
+		if (policy == FsyncPolicy.INTERVAL) {
+			this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "journal-flusher");
+				t.setDaemon(true);
+				return t;
+			});
+			this.flusher.scheduleWithFixedDelay(this::forceQuietly, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+		} else {
+			this.flusher = null;
+		}
+	}
+
+	static Path segmentPath(Path directory, long segment) {
+		return directory.resolve("journal-" + segment + ".log");
+	}
+
+	private void open(long segment) throws IOException {
+		this.segment = segment;
+		this.channel = FileChannel.open(segmentPath(directory, segment),
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+	}
+
+	/**
+	 * @return the position of the end of the record, to be passed to {@link #sync(long)}
+	 */
+	synchronized long append(byte[] payload) {
+		int size = HEADER + payload.length;
+		if (size > segmentBytes)
+			throw new IllegalArgumentException("Journal record of " + payload.length + " bytes exceeds the segment size");
+		try {
+			if (buffer.remaining() < size)
+				roll();
+			crc.reset();
+			crc.update(payload);
+			int start = buffer.position();
+			buffer.position(start + 4);
+			buffer.putInt((int) crc.getValue());
+			buffer.put(payload);
+			// Length last: a record is only visible once complete
+			buffer.putInt(start, payload.length);
+			appended += size;
+			return appended;
+		} catch (IOException x) {
+			throw new UncheckedIOException(x);
+		}
+	}
+
+	/**
+	 * Waits until the record ending at position is on disk, when the policy is ALWAYS.
+	 */
+	void sync(long position) {
+		if (policy != FsyncPolicy.ALWAYS || durable >= position)
+			return;
+		force(position);
+	}
+
+	private void force(long position) {
+		synchronized (syncMonitor) {
+			if (durable >= position)
+				return;
+			MappedByteBuffer toForce;
+			long target;
+			synchronized (this) {
+				toForce = buffer;
+				target = appended;
+			}
+			toForce.force();
+			durable = Math.max(durable, target);
+		}
+	}
+
+	private void forceQuietly() {
+		try {
+			force(Long.MAX_VALUE);
+		} catch (RuntimeException x) {
+			log.error("Journal fsync failed", x);
+		}
+	}
+
+	/**
+	 * @return the position of the end of the last record appended
+	 */
+	synchronized long position() {
+		return appended;
+	}
+
+	/**
+	 * Closes the current segment (forcing it) and starts the next one.
+	 * @return the number of the new segment: replaying from it replays everything appended from now on
+	 */
+	synchronized long roll() throws IOException {
+		buffer.force();
+		durable = Math.max(durable, appended);
+		channel.close();
+		open(segment + 1);
+		return segment;
+	}
+
+	/**
+	 * Deletes the segments before the given one, once a snapshot made them useless.
+	 */
+	void deleteSegmentsBefore(long segment) throws IOException {
+		for (long s : segments(directory))
+			if (s < segment)
+				Files.deleteIfExists(segmentPath(directory, s));
+	}
+
+	/**
+	 * @return numbers of the segments in the directory, in order
+	 */
+	static List<Long> segments(Path directory) throws IOException {
+		List<Long> ret = new ArrayList<>();
+		try (var files = Files.list(directory)) {
+			files.forEach(f -> {
+				Matcher m = SEGMENT.matcher(f.getFileName().toString());
+				if (m.matches())
+					ret.add(Long.parseLong(m.group(1)));
+			});
+		}
+		ret.sort(null);
+		return ret;
+	}
+
+	interface RecordHandler {
+		void record(DataInputStream payload) throws IOException;
+	}
+
+	/**
+	 * Hands every record of the segment to the handler, in order.
+	 * Stops at the end of the segment or at the first incomplete or corrupted record (torn write).
+	 * @return the number of records read
+	 */
+	static long replay(Path segment, RecordHandler handler) throws IOException {
+		long count = 0;
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			CRC32 crc = new CRC32();
+			while (buffer.remaining() >= HEADER) {
+				int length = buffer.getInt();
+				int checksum = buffer.getInt();
+				if (length <= 0 || length > buffer.remaining())
+					break;
+				byte[] payload = new byte[length];
+				buffer.get(payload);
+				crc.reset();
+				crc.update(payload);
+				if ((int) crc.getValue() != checksum) {
+					log.warn("Corrupted journal record in {}, ignoring the rest of the segment", segment);
+					break;
+				}
+				handler.record(new DataInputStream(new ByteArrayInputStream(payload)));
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (flusher != null)
+			flusher.shutdownNow();
+		synchronized (this) {
+			buffer.force();
+			durable = Math.max(durable, appended);
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+package fr.uha.ensisa.ff.todo_auto.dao.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.uha.ensisa.ff.todo_auto.dao.TaskView;
+
+/**
+ * Tasks by id, in creation order. Only modified under the lock of the owner.
+ * The views of the tasks are built once and shared until the next modification,
+ * so that repeated reads neither lock nor allocate.
+ */
+class MemoryList {
+
+	/**
+	 * Versions are not persisted: they restart from the start time of the process, in microseconds,
+	 * which exceeds the versions of previous processes unless they made more than a million
+	 * modifications per second of their uptime.
+	 */
+	static final long FIRST_VERSION = System.currentTimeMillis() * 1000;
+
+	/** Creation order of the lists of a user */
+	final long seq;
+	String name;
+	final Map<String, MemoryTask> tasks = new LinkedHashMap<>();
+	private volatile List<TaskView> view;
+	private volatile long version = FIRST_VERSION;
+
+	MemoryList(long seq, String name) {
+		this.seq = seq;
+		this.name = name;
+	}
+
+	/**
+	 * @return the cached view, or null if it must be rebuilt with {@link #buildView()}
+	 */
+	List<TaskView> cachedView() {
+		return view;
+	}
+
+	/**
+	 * To be called under (at least) the read lock of the owner.
+	 */
+	List<TaskView> buildView() {
+		List<TaskView> ret = new ArrayList<>(tasks.size());
+		for (MemoryTask task : tasks.values())
+			ret.add(task.view());
+		return view = Collections.unmodifiableList(ret);
+	}
+
+	/**
+	 * To be called under the write lock of the owner, after any modification.
+	 */
+	void modified() {
+		view = null;
+		version++;
+	}
+
+	long version() {
+		return version;
+	}
+
+}
@@ -0,0 +1,23 @@
+package fr.uha.ensisa.ff.todo_auto.dao.memory;
+
+import fr.uha.ensisa.ff.todo_auto.dao.TaskView;
+
+/**
+ * Mutable task, only read and written under the lock of its owner.
+ */
+class MemoryTask {
+
+	final String id;
+	String name;
+	boolean done;
+
+	MemoryTask(String id, String name) {
+		this.id = id;
+		this.name = name;
+	}
+
+	TaskView view() {
+		return new TaskView(id, name, done);
+	}
+
+}
@@ -0,0 +1,59 @@
+package fr.uha.ensisa.ff.todo_auto.dao.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import fr.uha.ensisa.ff.todo_auto.dao.ListView;
+
+/**
+ * A user and everything it owns, guarded by a single read / write lock:
+ * requests of different users never contend.
+ * Lists are modified under the write lock too, but can be looked up without locking.
+ */
+class MemoryUser {
+
+	final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	volatile String password;
+	final MemoryList defaultTasks = new MemoryList(0, null);
+	final Map<String, MemoryList> lists = new ConcurrentHashMap<>();
+	private volatile List<ListView> listsView;
+	private volatile long listsVersion = MemoryList.FIRST_VERSION;
+
+	MemoryUser(String password) {
+		this.password = password;
+	}
+
+	List<ListView> cachedListsView() {
+		return listsView;
+	}
+
+	/**
+	 * To be called under (at least) the read lock.
+	 */
+	List<ListView> buildListsView() {
+		List<Map.Entry<String, MemoryList>> entries = new ArrayList<>(lists.entrySet());
+		entries.sort(Comparator.comparingLong(e -> e.getValue().seq));
+		List<ListView> ret = new ArrayList<>(entries.size());
+		for (Map.Entry<String, MemoryList> list : entries)
+			ret.add(new ListView(list.getKey(), list.getValue().name));
+		return listsView = Collections.unmodifiableList(ret);
+	}
+
+	/**
+	 * To be called under the write lock, after lists were added, removed or renamed.
+	 */
+	void listsModified() {
+		listsView = null;
+		listsVersion++;
+	}
+
+	long listsVersion() {
+		return listsVersion;
+	}
+
+}
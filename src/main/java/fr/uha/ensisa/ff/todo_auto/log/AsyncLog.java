@@ -0,0 +1,176 @@
+package fr.uha.ensisa.ff.todo_auto.log;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The log pipeline: loggers put events in a bounded ring buffer, a single thread formats and writes them,
+ * flushing once the buffer is empty, so a slow console or disk never holds a request thread.
+ *
+ * When the buffer is full, -Dtodo.log.overflow=drop (default) drops the event and counts it (the count is
+ * logged once there is room again, and exported as todo_log_dropped_total), block waits for room.
+ * Errors are never dropped: they wait, at most a second.
+ *
+ * -Dtodo.log.level (default info), -Dtodo.log.bufferSize (default 8192 events),
+ * -Dtodo.log.file (default: standard output, appended to otherwise).
+ */
+public final class AsyncLog {
+
+	public enum Overflow {
+		DROP, BLOCK
+	}
+
+	record Event(long time, Log.Level level, String logger, String thread, LogContext context, String message, Object[] args) {
+	}
+
+	static final AsyncLog INSTANCE = new AsyncLog(
+			Log.Level.valueOf(System.getProperty("todo.log.level", "info").toUpperCase()),
+			Integer.getInteger("todo.log.bufferSize", 8192),
+			Overflow.valueOf(System.getProperty("todo.log.overflow", "drop").toUpperCase()),
+			System.getProperty("todo.log.file"));
+
+	private static final long ERROR_WAIT_MS = 1000;
+	private static final int BATCH_SIZE = 256;
+
+	private final Log.Level level;
+	private final Overflow overflow;
+	private final BlockingQueue<Event> buffer;
+	private final LongAdder dropped = new LongAdder();
+	/** Dropped since the last report */
+	private final AtomicLong unreported = new AtomicLong();
+	private final Writer out;
+	private final Thread writer;
+	private volatile boolean closed;
+
+	private AsyncLog(Log.Level level, int bufferSize, Overflow overflow, String file) {
+		this.level = level;
+		this.overflow = overflow;
+		this.buffer = new ArrayBlockingQueue<>(bufferSize);
+		OutputStream stream;
+		try {
+			stream = file == null ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(file, true);
+		} catch (IOException x) {
+			System.err.println("[ERROR] Cannot open log file " + file + ", logging to standard output: " + x.getMessage());
+			stream = new FileOutputStream(FileDescriptor.out);
+		}
+		this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+		this.writer = new Thread(this::run, "todo-log-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close, "todo-log-shutdown"));
+	}
+
+	boolean isEnabled(Log.Level level) {
+		return level.compareTo(this.level) >= 0;
+	}
+
+	void append(Event event) {
+		if (buffer.offer(event))
+			return;
+		try {
+			if (overflow == Overflow.BLOCK && !closed) {
+				buffer.put(event);
+				return;
+			}
+			if (event.level() == Log.Level.ERROR && buffer.offer(event, ERROR_WAIT_MS, TimeUnit.MILLISECONDS))
+				return;
+		} catch (InterruptedException x) {
+			Thread.currentThread().interrupt();
+		}
+		dropped.increment();
+		unreported.incrementAndGet();
+	}
+
+	/**
+	 * Events lost because the buffer was full
+	 */
+	public static long getDroppedCount() {
+		return INSTANCE.dropped.sum();
+	}
+
+	private void run() {
+		List<Event> batch = new ArrayList<>(BATCH_SIZE);
+		try {
+			while (!closed || !buffer.isEmpty()) {
+				Event first = buffer.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null)
+					continue;
+				batch.add(first);
+				buffer.drainTo(batch, BATCH_SIZE - 1);
+				for (Event event : batch)
+					write(event);
+				batch.clear();
+				long lost = unreported.getAndSet(0);
+				if (lost > 0)
+					write(new Event(System.currentTimeMillis(), Log.Level.WARN, "AsyncLog", writer.getName(), null,
+							"{} log events dropped, the buffer was full", new Object[] { lost }));
+				if (buffer.isEmpty())
+					out.flush();
+			}
+			out.flush();
+		} catch (InterruptedException | IOException x) {
+			// Nowhere left to log to
+		}
+	}
+
+	private void write(Event event) throws IOException {
+		StringBuilder line = new StringBuilder(128);
+		line.append(Instant.ofEpochMilli(event.time())).append(' ').append(event.level());
+		if (event.level().name().length() == 4)
+			line.append(' ');
+		line.append(' ').append(event.logger());
+		if (event.context() != null)
+			line.append(' ').append(event.context());
+		line.append(" - ");
+		Throwable thrown = format(line, event.message(), event.args());
+		line.append(System.lineSeparator());
+		out.write(line.toString());
+		if (thrown != null) {
+			PrintWriter trace = new PrintWriter(out);
+			thrown.printStackTrace(trace);
+			trace.flush();
+		}
+	}
+
+	/**
+	 * Replaces the {} by the arguments
+	 * @return the argument left after the placeholders, if a Throwable
+	 */
+	static Throwable format(StringBuilder out, String message, Object[] args) {
+		int arg = 0, from = 0;
+		for (int at = message.indexOf("{}"); at >= 0 && arg < args.length; at = message.indexOf("{}", from)) {
+			out.append(message, from, at).append(args[arg++]);
+			from = at + 2;
+		}
+		out.append(message, from, message.length());
+		return arg == args.length - 1 && args[arg] instanceof Throwable ? (Throwable) args[arg] : null;
+	}
+
+	/**
+	 * Writes what is buffered, waiting at most a second.
+	 */
+	private void close() {
+		closed = true;
+		try {
+			writer.join(1000);
+		} catch (InterruptedException x) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
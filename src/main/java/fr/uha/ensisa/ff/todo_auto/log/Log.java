@@ -0,0 +1,54 @@
+package fr.uha.ensisa.ff.todo_auto.log;
+
+/**
+ * Logger of a class, writing through {@link AsyncLog}: a call only captures its arguments and the
+ * {@link LogContext}, the message is formatted and written by the log thread. So arguments should not
+ * change after the call (pass values, not buffers).
+ *
+ * Messages use {} placeholders, as SLF4J; a Throwable left after the placeholders is printed with its stack trace.
+ * Usage: private static final Log log = Log.get(MyClass.class); log.warn("Cannot rehash {}", user, x);
+ */
+public final class Log {
+
+	public enum Level {
+		DEBUG, INFO, WARN, ERROR
+	}
+
+	private final String name;
+
+	private Log(String name) {
+		this.name = name;
+	}
+
+	public static Log get(Class<?> type) {
+		return new Log(type.getSimpleName());
+	}
+
+	public boolean isDebugEnabled() {
+		return AsyncLog.INSTANCE.isEnabled(Level.DEBUG);
+	}
+
+	public void debug(String message, Object... args) {
+		log(Level.DEBUG, message, args);
+	}
+
+	public void info(String message, Object... args) {
+		log(Level.INFO, message, args);
+	}
+
+	public void warn(String message, Object... args) {
+		log(Level.WARN, message, args);
+	}
+
+	public void error(String message, Object... args) {
+		log(Level.ERROR, message, args);
+	}
+
+	private void log(Level level, String message, Object[] args) {
+		AsyncLog log = AsyncLog.INSTANCE;
+		if (log.isEnabled(level))
+			log.append(new AsyncLog.Event(System.currentTimeMillis(), level, name, Thread.currentThread().getName(),
+					LogContext.current(), message, args));
+	}
+
+}
@@ -0,0 +1,35 @@
+package fr.uha.ensisa.ff.todo_auto.log;
+
+/**
+ * What a log line was written for: the request (its id, the user and the route), set on the request
+ * thread by {@link LogContextFilter} and captured by each {@link Log} call. Threads that serve no request
+ * (or continue one asynchronously, as the Mongo driver's) have no context.
+ */
+public record LogContext(String requestId, String user, String route) {
+
+	private static final ThreadLocal<LogContext> CURRENT = new ThreadLocal<>();
+
+	/**
+	 * @return null outside of a request
+	 */
+	public static LogContext current() {
+		return CURRENT.get();
+	}
+
+	public static void set(LogContext context) {
+		CURRENT.set(context);
+	}
+
+	public static void clear() {
+		CURRENT.remove();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder ret = new StringBuilder("[").append(requestId);
+		if (user != null)
+			ret.append(' ').append(user);
+		return ret.append(' ').append(route).append(']').toString();
+	}
+
+}
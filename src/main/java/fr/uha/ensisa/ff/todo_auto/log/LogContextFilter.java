@@ -0,0 +1,55 @@
+package fr.uha.ensisa.ff.todo_auto.log;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import fr.uha.ensisa.ff.todo_auto.dao.IdGenerator;
+
+/**
+ * Sets the {@link LogContext} of the request thread: a request id (the X-Request-Id of the request
+ * when it looks like one, so that a proxy's id can be followed, a new one otherwise, sent back in the
+ * response), the authenticated user and the route.
+ *
+ * Installed in web.xml after Spring Security, so that the user is known, for the request and its
+ * asynchronous dispatches, which keep the request id.
+ */
+@Component("logContextFilter")
+public class LogContextFilter extends OncePerRequestFilter {
+
+	public static final String REQUEST_ID_HEADER = "X-Request-Id";
+	private static final String REQUEST_ID_ATTRIBUTE = LogContextFilter.class.getName() + ".requestId";
+	private static final Pattern VALID_REQUEST_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+	@Override
+	protected boolean shouldNotFilterAsyncDispatch() {
+		return false;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		String requestId = (String) request.getAttribute(REQUEST_ID_ATTRIBUTE);
+		if (requestId == null) {
+			requestId = request.getHeader(REQUEST_ID_HEADER);
+			if (requestId == null || !VALID_REQUEST_ID.matcher(requestId).matches())
+				requestId = IdGenerator.COMPACT.nextId();
+			request.setAttribute(REQUEST_ID_ATTRIBUTE, requestId);
+			response.setHeader(REQUEST_ID_HEADER, requestId);
+		}
+		LogContext.set(new LogContext(requestId, request.getRemoteUser(), request.getMethod() + ' ' + request.getRequestURI()));
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			LogContext.clear();
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package fr.uha.ensisa.ff.todo_auto.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in power of 2 buckets, from about 1µs to about 69s, as HdrHistogram does with
+ * a precision of one binary digit: recording finds the bucket from the position of the highest bit
+ * and increments a striped counter, without locks or allocation, so it can sit on every hot path.
+ *
+ * Bucket i counts durations below 2^(10+i) ns; the last one counts the longer ones.
+ */
+public final class LatencyHistogram {
+
+	private static final int MIN_SHIFT = 10;
+	/** Finite buckets, up to 2^36 ns */
+	static final int BUCKETS = 27;
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS + 1];
+	private final LongAdder sumNanos = new LongAdder();
+
+	public LatencyHistogram() {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = new LongAdder();
+	}
+
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		int bucket = 64 - Long.numberOfLeadingZeros(nanos) - MIN_SHIFT;
+		counts[bucket < 0 ? 0 : Math.min(bucket, BUCKETS)].increment();
+		sumNanos.add(nanos);
+	}
+
+	/**
+	 * Records the time elapsed since start, a System.nanoTime()
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	public void record(long duration, TimeUnit unit) {
+		record(unit.toNanos(duration));
+	}
+
+	/**
+	 * @return the count of each bucket, the last one being the overflow bucket
+	 */
+	public long[] getBucketCounts() {
+		long[] ret = new long[counts.length];
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = counts[i].sum();
+		return ret;
+	}
+
+	/**
+	 * @return the exclusive upper bound of finite bucket i, in seconds
+	 */
+	public static double getUpperBoundSeconds(int bucket) {
+		return (1L << (MIN_SHIFT + bucket)) / 1e9;
+	}
+
+	public static int getBucketCount() {
+		return BUCKETS;
+	}
+
+	public double getSumSeconds() {
+		return sumNanos.sum() / 1e9;
+	}
+
+}
@@ -0,0 +1,89 @@
+package fr.uha.ensisa.ff.todo_auto.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * The metrics of the node, exposed at /metrics (see MetricsController).
+ *
+ * Histograms and counters are created (or found) by name and label values; callers on a hot path
+ * should keep what they got rather than look it up on each call. Values owned by other components
+ * (cache statistics, pool gauges...) are read at scrape time by collectors.
+ */
+public class MetricsRegistry {
+
+	private static final class Family {
+		final String type;
+		final String help;
+		final ConcurrentMap<List<String>, Object> series = new ConcurrentHashMap<>();
+
+		Family(String type, String help) {
+			this.type = type;
+			this.help = help;
+		}
+	}
+
+	private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+	private final List<Consumer<PrometheusWriter>> collectors = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @param labels names and values, alternated
+	 */
+	public LatencyHistogram histogram(String name, String help, String... labels) {
+		return (LatencyHistogram) series(name, "histogram", help, labels);
+	}
+
+	/**
+	 * @param name without the _total suffix, which is appended
+	 * @param labels names and values, alternated
+	 */
+	public LongAdder counter(String name, String help, String... labels) {
+		return (LongAdder) series(name + "_total", "counter", help, labels);
+	}
+
+	/**
+	 * @param collector writes its own families on each scrape
+	 */
+	public void register(Consumer<PrometheusWriter> collector) {
+		collectors.add(collector);
+	}
+
+	private Object series(String name, String type, String help, String[] labels) {
+		if (labels.length % 2 != 0)
+			throw new IllegalArgumentException("Labels of " + name + " are not name / value pairs: " + Arrays.toString(labels));
+		Family family = families.computeIfAbsent(name, n -> new Family(type, help));
+		if (!family.type.equals(type))
+			throw new IllegalArgumentException(name + " is a " + family.type + ", not a " + type);
+		return family.series.computeIfAbsent(List.of(labels), l -> "histogram".equals(type) ? new LatencyHistogram() : new LongAdder());
+	}
+
+	public void writeTo(PrometheusWriter out) {
+		for (Map.Entry<String, Family> e : families.entrySet()) {
+			Family family = e.getValue();
+			out.family(e.getKey(), family.type, family.help);
+			for (Map.Entry<List<String>, Object> series : family.series.entrySet()) {
+				String[] labels = series.getKey().toArray(new String[0]);
+				if (series.getValue() instanceof LatencyHistogram)
+					out.histogram(e.getKey(), (LatencyHistogram) series.getValue(), labels);
+				else
+					out.sample(e.getKey(), ((LongAdder) series.getValue()).sum(), labels);
+			}
+		}
+		for (Consumer<PrometheusWriter> collector : collectors)
+			collector.accept(out);
+	}
+
+	public String scrape() {
+		StringBuilder ret = new StringBuilder(16 * 1024);
+		writeTo(new PrometheusWriter(ret));
+		return ret.toString();
+	}
+
+}
@@ -0,0 +1,117 @@
+package fr.uha.ensisa.ff.todo_auto.metrics;
+
+/**
+ * Writes metrics in the Prometheus text exposition format (version 0.0.4).
+ * Each family starts with {@link #family}, followed by its samples.
+ */
+public final class PrometheusWriter {
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final StringBuilder out;
+
+	public PrometheusWriter(StringBuilder out) {
+		this.out = out;
+	}
+
+	/**
+	 * @param type counter, gauge or histogram
+	 */
+	public PrometheusWriter family(String name, String type, String help) {
+		out.append("# HELP ").append(name).append(' ');
+		for (int i = 0; i < help.length(); i++) {
+			char c = help.charAt(i);
+			if (c == '\\')
+				out.append("\\\\");
+			else if (c == '\n')
+				out.append("\\n");
+			else
+				out.append(c);
+		}
+		out.append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		return this;
+	}
+
+	/**
+	 * @param labels names and values, alternated
+	 */
+	public PrometheusWriter sample(String name, double value, String... labels) {
+		out.append(name);
+		labels(labels, null);
+		out.append(' ');
+		value(value);
+		out.append('\n');
+		return this;
+	}
+
+	/**
+	 * The buckets (cumulative, as Prometheus wants them), sum and count samples of a histogram family.
+	 */
+	public PrometheusWriter histogram(String name, LatencyHistogram histogram, String... labels) {
+		long[] counts = histogram.getBucketCounts();
+		long total = 0;
+		for (long count : counts)
+			total += count;
+		long cumulated = 0;
+		for (int i = 0; i < counts.length; i++) {
+			long before = cumulated;
+			cumulated += counts[i];
+			// Buckets below the shortest duration, or past the one of the longest, carry no information
+			// (a skipped bucket can only come back, as counts grow)
+			if (i < counts.length - 1 && (cumulated == 0 || before == total))
+				continue;
+			out.append(name).append("_bucket");
+			labels(labels, i < LatencyHistogram.getBucketCount() ? Double.toString(LatencyHistogram.getUpperBoundSeconds(i)) : "+Inf");
+			out.append(' ').append(cumulated).append('\n');
+		}
+		sample(name + "_sum", histogram.getSumSeconds(), labels);
+		out.append(name).append("_count");
+		labels(labels, null);
+		out.append(' ').append(total).append('\n');
+		return this;
+	}
+
+	private void labels(String[] labels, String le) {
+		if (labels.length == 0 && le == null)
+			return;
+		out.append('{');
+		for (int i = 0; i + 1 < labels.length; i += 2) {
+			if (i > 0)
+				out.append(',');
+			label(labels[i], labels[i + 1]);
+		}
+		if (le != null) {
+			if (labels.length > 0)
+				out.append(',');
+			label("le", le);
+		}
+		out.append('}');
+	}
+
+	private void label(String name, String value) {
+		out.append(name).append("=\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '"')
+				out.append('\\').append(c);
+			else if (c == '\n')
+				out.append("\\n");
+			else
+				out.append(c);
+		}
+		out.append('"');
+	}
+
+	private void value(double value) {
+		if (value == (long) value)
+			out.append((long) value);
+		else if (Double.isNaN(value))
+			out.append("NaN");
+		else if (Double.isInfinite(value))
+			out.append(value > 0 ? "+Inf" : "-Inf");
+		else
+			out.append(value);
+	}
+
+}
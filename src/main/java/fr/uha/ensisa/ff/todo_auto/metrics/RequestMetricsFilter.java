@@ -0,0 +1,84 @@
+package fr.uha.ensisa.ff.todo_auto.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Records todo_http_request_duration_seconds by method, route and status class (2xx, 4xx...).
+ * The route is the pattern of the controller mapping that served the request (/api/lists/{id:.*}),
+ * so that ids don't multiply the series; requests that reached no controller (rejected by
+ * Spring Security, static resources...) are recorded as "unmatched".
+ *
+ * Asynchronous requests (CompletableFuture, streams, event streams) are recorded when they complete.
+ * Installed in web.xml, before Spring Security, through a DelegatingFilterProxy.
+ */
+@Component("requestMetricsFilter")
+public class RequestMetricsFilter extends OncePerRequestFilter {
+
+	private final MetricsRegistry metrics;
+	private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+	@Autowired
+	public RequestMetricsFilter(MetricsRegistry metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		long start = System.nanoTime();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			if (request.isAsyncStarted()) {
+				request.getAsyncContext().addListener(new AsyncListener() {
+					@Override
+					public void onComplete(AsyncEvent event) {
+						record(request, response, start);
+					}
+
+					@Override
+					public void onTimeout(AsyncEvent event) {
+					}
+
+					@Override
+					public void onError(AsyncEvent event) {
+					}
+
+					@Override
+					public void onStartAsync(AsyncEvent event) {
+					}
+				});
+			} else {
+				record(request, response, start);
+			}
+		}
+	}
+
+	private void record(HttpServletRequest request, HttpServletResponse response, long start) {
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		String route = pattern != null ? pattern.toString() : "unmatched";
+		String status = (response.getStatus() / 100) + "xx";
+		String method = request.getMethod();
+		String key = method + ' ' + route + ' ' + status;
+		LatencyHistogram latency = latencies.get(key);
+		if (latency == null)
+			latency = latencies.computeIfAbsent(key, k -> metrics.histogram("todo_http_request_duration_seconds",
+					"Duration of the HTTP requests", "method", method, "route", route, "status", status));
+		latency.recordSince(start);
+	}
+
+}
@@ -0,0 +1,134 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fr.uha.ensisa.ff.todo_auto.dao.memory.InMemoryTodoDAO;
+
+/**
+ * Writes of another node, replayed as the change stream delivers them: the content change first, a reload,
+ * then the bump of its version. The cache must end up serving the new version with the new content, not keep
+ * the new content under the old version (clients holding the old ETag would then never refetch it).
+ */
+class CachingTodoDAOTest {
+
+	private static final String USER = "user";
+
+	/** Storage shared with the other node */
+	private InMemoryTodoDAO storage;
+	/** Versions as last bumped by the other node, which lag behind its content writes */
+	private final AtomicLong listsVersion = new AtomicLong(1);
+	private final AtomicLong tasksVersion = new AtomicLong(1);
+	private CachingTodoDAO cache;
+	private String listId;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		storage = new InMemoryTodoDAO();
+		storage.registerUser(USER, "{noop}secret");
+		listId = storage.createList(USER, "Before");
+		cache = new CachingTodoDAO(new ForwardingTodoDAO(storage) {
+			@Override
+			public long getListsVersion(String user) {
+				return listsVersion.get();
+			}
+
+			@Override
+			public long getTasksVersion(String user, String listId) {
+				return tasksVersion.get();
+			}
+		});
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		cache.close();
+	}
+
+	private void renameListOnOtherNode(String newName) throws Exception {
+		storage.renameList(USER, listId, newName);
+		cache.onChange(new TodoChange(TodoChange.Type.LIST, USER, listId, listId));
+		// Reloaded before the bump is written
+		assertEquals(List.of(new ListView(listId, newName)), cache.getLists(USER));
+		assertEquals(1, cache.getListsVersion(USER));
+		listsVersion.incrementAndGet();
+	}
+
+	@Test
+	void listsBumpReportedAsListChange() throws Exception {
+		assertEquals(1, cache.getListsVersion(USER));
+		renameListOnOtherNode("After");
+		cache.onChange(new TodoChange(TodoChange.Type.LIST, USER, null, USER));
+		assertEquals(2, cache.getListsVersion(USER));
+		assertEquals(List.of(new ListView(listId, "After")), cache.getLists(USER));
+	}
+
+	@Test
+	void listsBumpReportedAsUserChange() throws Exception {
+		assertEquals(1, cache.getListsVersion(USER));
+		renameListOnOtherNode("After");
+		cache.onChange(new TodoChange(TodoChange.Type.USER, USER, null, USER));
+		assertEquals(2, cache.getListsVersion(USER));
+		assertEquals(List.of(new ListView(listId, "After")), cache.getLists(USER));
+	}
+
+	@Test
+	void defaultTasksBumpReportedAsTaskChange() throws Exception {
+		assertEquals(1, cache.getTasksVersion(USER, null));
+		String taskId = storage.createDefaultTask(USER, "Task");
+		cache.onChange(new TodoChange(TodoChange.Type.TASK, USER, null, taskId));
+		assertEquals(List.of(new TaskView(taskId, "Task", false)), cache.getDefaultTasks(USER));
+		assertEquals(1, cache.getTasksVersion(USER, null));
+		tasksVersion.incrementAndGet();
+		cache.onChange(new TodoChange(TodoChange.Type.TASK, USER, null, USER));
+		assertEquals(2, cache.getTasksVersion(USER, null));
+		assertEquals(List.of(new TaskView(taskId, "Task", false)), cache.getDefaultTasks(USER));
+	}
+
+	@Test
+	void userChangeDropsTheEntriesOfTheUser() throws Exception {
+		assertEquals(1, cache.getTasksVersion(USER, null));
+		assertEquals(1, cache.getTasksVersion(USER, listId));
+		tasksVersion.incrementAndGet();
+		cache.onChange(new TodoChange(TodoChange.Type.USER, USER, null, USER));
+		assertEquals(2, cache.getTasksVersion(USER, null));
+		assertEquals(2, cache.getTasksVersion(USER, listId));
+	}
+
+	@Test
+	void lostHistoryDropsEveryEntry() throws Exception {
+		assertEquals(1, cache.getListsVersion(USER));
+		assertEquals(1, cache.getTasksVersion(USER, listId));
+		storage.renameList(USER, listId, "After");
+		listsVersion.incrementAndGet();
+		tasksVersion.incrementAndGet();
+		cache.onChange(TodoChange.ALL);
+		assertEquals(2, cache.getListsVersion(USER));
+		assertEquals(2, cache.getTasksVersion(USER, listId));
+		assertEquals(List.of(new ListView(listId, "After")), cache.getLists(USER));
+	}
+
+	@Test
+	void entriesAreBoundedByWeight() throws Exception {
+		CachingTodoDAO small = new CachingTodoDAO(storage, 1000, CachingTodoDAO.DEFAULT_TTL);
+		String large = storage.createList(USER, "Large");
+		for (int i = 0; i < 100; i++)
+			storage.createListTask(USER, large, "Task " + i);
+		assertEquals(100, small.getTasksOfList(USER, large).size());
+		// A list heavier than the whole cache is not kept (eviction runs asynchronously)
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (small.stats().get("listTasks").evictionCount() == 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+			small.getTasksOfList(USER, large);
+		}
+		assertTrue(small.stats().get("listTasks").evictionCount() > 0);
+	}
+
+}
@@ -0,0 +1,66 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+
+/**
+ * Runs against the server of -Dtodo.test.mongo.uri, in a database of its own dropped afterwards;
+ * skipped without it.
+ */
+class ListDocumentMongoDAOTest {
+
+	private static final String USER = "user";
+	private static final int MAX_TASKS_PER_DOCUMENT = 2;
+
+	private final String uri = System.getProperty("todo.test.mongo.uri");
+	private final String databaseName = "todo_test_" + System.nanoTime();
+	private ListDocumentMongoDAO dao;
+	private MongoClient client;
+	private MongoCollection<Document> todolists;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		assumeTrue(uri != null, "no -Dtodo.test.mongo.uri");
+		dao = new ListDocumentMongoDAO(uri, databaseName, MAX_TASKS_PER_DOCUMENT, ListDocumentMongoDAO.DEFAULT_MAX_DOCUMENT_BYTES);
+		client = MongoClients.create(uri);
+		todolists = client.getDatabase(databaseName).getCollection("todolists");
+		dao.registerUser(USER, "{noop}secret");
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		if (client != null) {
+			client.getDatabase(databaseName).drop();
+			client.close();
+		}
+		if (dao != null)
+			dao.close();
+	}
+
+	@Test
+	void deleteListRemovesEveryBucket() throws Exception {
+		String listId = dao.createList(USER, "List");
+		String kept = dao.createList(USER, "Kept");
+		for (int i = 0; i < 3 * MAX_TASKS_PER_DOCUMENT; i++) {
+			dao.createListTask(USER, listId, "Task " + i);
+			dao.createListTask(USER, kept, "Task " + i);
+		}
+		assertEquals(3, todolists.countDocuments(new Document("list", listId)));
+
+		dao.deleteList(USER, listId);
+
+		assertEquals(0, todolists.countDocuments(new Document("list", listId)));
+		assertEquals(3, todolists.countDocuments(new Document("list", kept)));
+		assertEquals(3 * MAX_TASKS_PER_DOCUMENT, dao.getTasksOfList(USER, kept).size());
+	}
+
+}
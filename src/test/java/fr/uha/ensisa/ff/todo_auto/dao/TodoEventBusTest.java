@@ -0,0 +1,132 @@
+package fr.uha.ensisa.ff.todo_auto.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Subscribers that never read must not hold back the others, though there are more of them than dispatcher threads.
+ */
+class TodoEventBusTest {
+
+	private static final long SEND_TIMEOUT_MS = 200;
+
+	private TodoEventBus bus;
+
+	@BeforeEach
+	void setUp() {
+		bus = new TodoEventBus(TodoEventBus.DEFAULT_MAX_SUBSCRIPTIONS, TodoEventBus.DEFAULT_QUEUE_SIZE,
+				TodoEventBus.DEFAULT_HEARTBEAT_MS, SEND_TIMEOUT_MS);
+	}
+
+	@AfterEach
+	void tearDown() {
+		bus.close();
+	}
+
+	/** Blocks in send as a write to a client that never reads, until interrupted */
+	private static class StalledSink implements TodoEventBus.Sink {
+		final CountDownLatch overflowed = new CountDownLatch(1);
+
+		@Override
+		public void send(TodoEvent event) throws IOException {
+			try {
+				new CountDownLatch(1).await();
+			} catch (InterruptedException x) {
+				throw new InterruptedIOException();
+			}
+		}
+
+		@Override
+		public void heartbeat() throws IOException {
+			send(null);
+		}
+
+		@Override
+		public void closed(boolean overflow) {
+			if (overflow)
+				overflowed.countDown();
+		}
+	}
+
+	/** As SseEmitter, whose send and complete synchronize on the emitter: closing waits for the stuck send */
+	private static class LockingStalledSink extends StalledSink {
+		@Override
+		public synchronized void send(TodoEvent event) throws IOException {
+			super.send(event);
+		}
+
+		@Override
+		public synchronized void closed(boolean overflow) {
+			super.closed(overflow);
+		}
+	}
+
+	private static class ReadingSink implements TodoEventBus.Sink {
+		final BlockingQueue<TodoEvent> received = new LinkedBlockingQueue<>();
+
+		@Override
+		public void send(TodoEvent event) {
+			received.add(event);
+		}
+
+		@Override
+		public void heartbeat() {
+		}
+
+		@Override
+		public void closed(boolean overflow) {
+		}
+	}
+
+	@Test
+	void stalledSubscribersAreDisconnectedWithoutBlockingOthers() throws Exception {
+		int stalledCount = 2 * Math.max(2, Runtime.getRuntime().availableProcessors());
+		StalledSink[] stalled = new StalledSink[stalledCount];
+		for (int i = 0; i < stalledCount; i++) {
+			stalled[i] = new StalledSink();
+			assertNotNull(bus.subscribe("stalled" + i, stalled[i]));
+			bus.publish(TodoEvent.taskCreated("stalled" + i, null, "t" + i, "Task"));
+		}
+		ReadingSink reading = new ReadingSink();
+		assertNotNull(bus.subscribe("reading", reading));
+
+		TodoEvent event = TodoEvent.taskCreated("reading", null, "t", "Task");
+		bus.publish(event);
+
+		assertEquals(event, reading.received.poll(20 * SEND_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		for (StalledSink sink : stalled)
+			assertTrue(sink.overflowed.await(20 * SEND_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		assertEquals(1, bus.getSubscriptionCount());
+
+		// The dispatcher threads freed by the timeouts keep delivering
+		TodoEvent next = TodoEvent.taskCreated("reading", null, "t2", "Task 2");
+		bus.publish(next);
+		assertEquals(next, reading.received.poll(20 * SEND_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void timedOutSendHoldingTheSinkLockDoesNotStopTimeoutChecks() throws Exception {
+		LockingStalledSink first = new LockingStalledSink();
+		assertNotNull(bus.subscribe("first", first));
+		bus.publish(TodoEvent.taskCreated("first", null, "t1", "Task"));
+		assertTrue(first.overflowed.await(20 * SEND_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+		// Checks run on the same thread as the one that closed the first subscription
+		LockingStalledSink second = new LockingStalledSink();
+		assertNotNull(bus.subscribe("second", second));
+		bus.publish(TodoEvent.taskCreated("second", null, "t2", "Task"));
+		assertTrue(second.overflowed.await(20 * SEND_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		assertEquals(0, bus.getSubscriptionCount());
+	}
+
+}
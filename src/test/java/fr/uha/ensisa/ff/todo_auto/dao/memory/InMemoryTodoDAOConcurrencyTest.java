@@ -0,0 +1,151 @@
+package fr.uha.ensisa.ff.todo_auto.dao.memory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fr.uha.ensisa.ff.todo_auto.dao.ListView;
+import fr.uha.ensisa.ff.todo_auto.dao.TaskView;
+
+/**
+ * Concurrent writers on the lists and tasks of a single user, as ConcurrentStress does at length in the benchmarks:
+ * nothing is lost or duplicated, each write moves the version of its scope by exactly one, and readers never see a
+ * version go back nor two contents under the same version.
+ */
+class InMemoryTodoDAOConcurrencyTest {
+
+	private static final String USER = "user";
+	private static final int WRITERS = 8;
+	private static final int TASKS_PER_WRITER = 300;
+
+	private InMemoryTodoDAO dao;
+	private String sharedList;
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		dao = new InMemoryTodoDAO();
+		dao.registerUser(USER, "{noop}secret");
+		sharedList = dao.createList(USER, "Shared");
+		executor = Executors.newFixedThreadPool(WRITERS + 1);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		executor.shutdownNow();
+		dao.close();
+	}
+
+	@Test
+	void concurrentWritesKeepCountsAndVersions() throws Exception {
+		long defaultVersion = dao.getTasksVersion(USER, null);
+		long listVersion = dao.getTasksVersion(USER, sharedList);
+		long listsVersion = dao.getListsVersion(USER);
+
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicBoolean writing = new AtomicBoolean(true);
+		List<Future<?>> writers = new ArrayList<>();
+		for (int w = 0; w < WRITERS; w++) {
+			int writer = w;
+			writers.add(executor.submit(() -> {
+				start.await();
+				String own = dao.createList(USER, "List " + writer);
+				dao.renameList(USER, own, "Renamed " + writer);
+				for (int i = 0; i < TASKS_PER_WRITER; i++) {
+					boolean inList = i % 2 == 1;
+					String name = "T" + writer + "-" + i;
+					String id = inList ? dao.createListTask(USER, sharedList, name) : dao.createDefaultTask(USER, name);
+					if (inList)
+						dao.setListTaskDone(USER, sharedList, id, true);
+					else
+						dao.setDefaultTaskDone(USER, id, true);
+					// Every third task created goes, every other one stays done
+					if (i % 3 == 0) {
+						if (inList)
+							dao.deleteListTask(USER, sharedList, id);
+						else
+							dao.deleteDefaultTask(USER, id);
+					}
+				}
+				return null;
+			}));
+		}
+		Future<Integer> reader = executor.submit(() -> {
+			start.await();
+			Map<Long, List<TaskView>> seen = new ConcurrentHashMap<>();
+			long last = Long.MIN_VALUE;
+			int reads = 0;
+			while (writing.get()) {
+				long before = dao.getTasksVersion(USER, sharedList);
+				List<TaskView> tasks = dao.getTasksOfList(USER, sharedList);
+				long after = dao.getTasksVersion(USER, sharedList);
+				assertTrue(before >= last, "Version went back from " + last + " to " + before);
+				assertTrue(after >= before, "Version went back from " + before + " to " + after);
+				assertUnique(tasks);
+				if (before == after) {
+					List<TaskView> previous = seen.putIfAbsent(before, tasks);
+					if (previous != null)
+						assertEquals(previous, tasks, "Two contents under version " + before);
+				}
+				last = after;
+				reads++;
+			}
+			return reads;
+		});
+		start.countDown();
+		try {
+			for (Future<?> writer : writers)
+				writer.get(1, TimeUnit.MINUTES);
+		} finally {
+			writing.set(false);
+		}
+		assertTrue(reader.get(1, TimeUnit.MINUTES) > 0);
+
+		int created = WRITERS * TASKS_PER_WRITER / 2;
+		int deleted = WRITERS * ((TASKS_PER_WRITER + 5) / 6);
+		List<TaskView> defaultTasks = dao.getDefaultTasks(USER);
+		List<TaskView> listTasks = dao.getTasksOfList(USER, sharedList);
+		assertEquals(created - deleted, defaultTasks.size());
+		assertEquals(created - WRITERS * (TASKS_PER_WRITER / 6), listTasks.size());
+		assertUnique(defaultTasks);
+		assertUnique(listTasks);
+		for (TaskView task : defaultTasks)
+			assertTrue(task.done(), task.name());
+		for (TaskView task : listTasks)
+			assertTrue(task.done(), task.name());
+
+		// Create and set done for every task, delete for a third of them: one version each
+		assertEquals(defaultVersion + 2 * created + deleted, dao.getTasksVersion(USER, null));
+		assertEquals(listVersion + 2 * created + WRITERS * (TASKS_PER_WRITER / 6), dao.getTasksVersion(USER, sharedList));
+		assertEquals(listsVersion + 2 * WRITERS, dao.getListsVersion(USER));
+		List<ListView> lists = dao.getLists(USER);
+		assertEquals(1 + WRITERS, lists.size());
+		Set<String> names = new HashSet<>();
+		for (ListView list : lists)
+			names.add(list.name());
+		for (int w = 0; w < WRITERS; w++)
+			assertTrue(names.contains("Renamed " + w), "Missing rename of list " + w);
+	}
+
+	private static void assertUnique(List<TaskView> tasks) {
+		Set<String> ids = new HashSet<>();
+		for (TaskView task : tasks)
+			assertTrue(ids.add(task.id()), "Task " + task.id() + " listed twice");
+	}
+
+}
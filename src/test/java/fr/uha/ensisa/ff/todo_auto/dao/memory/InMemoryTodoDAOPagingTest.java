@@ -0,0 +1,55 @@
+package fr.uha.ensisa.ff.todo_auto.dao.memory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fr.uha.ensisa.ff.todo_auto.dao.TaskView;
+
+/**
+ * A cursor stays valid when its task is deleted between two pages, as with MongoDAO.
+ */
+class InMemoryTodoDAOPagingTest {
+
+	private static final String USER = "user";
+
+	private InMemoryTodoDAO dao;
+	private String listId;
+	private final List<String> taskIds = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() throws Exception {
+		dao = new InMemoryTodoDAO();
+		dao.registerUser(USER, "{noop}secret");
+		listId = dao.createList(USER, "List");
+		for (int i = 0; i < 5; i++)
+			taskIds.add(dao.createListTask(USER, listId, "Task " + i));
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		dao.close();
+	}
+
+	private static List<String> ids(List<TaskView> tasks) {
+		return tasks.stream().map(TaskView::id).toList();
+	}
+
+	@Test
+	void pageResumesAfterADeletedCursor() throws Exception {
+		List<TaskView> first = dao.getTasksPage(USER, listId, null, 2);
+		assertEquals(taskIds.subList(0, 2), ids(first));
+
+		dao.deleteListTask(USER, listId, first.get(1).id());
+
+		assertEquals(taskIds.subList(2, 4), ids(dao.getTasksPage(USER, listId, first.get(1).id(), 2)));
+		assertEquals(taskIds.subList(4, 5), ids(dao.getTasksPage(USER, listId, taskIds.get(3), 2)));
+		assertEquals(List.of(), dao.getTasksPage(USER, listId, taskIds.get(4), 2));
+	}
+
+}